@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.benchmarks;
+
+import org.apache.maven.plugin.assembly.model.Assembly;
+import org.commonjava.maven.plugins.projectsrc.archive.ArchiveEntry;
+import org.commonjava.maven.plugins.projectsrc.archive.ArchiveSink;
+import org.commonjava.maven.plugins.projectsrc.archive.ArchiveSinks;
+import org.commonjava.maven.plugins.projectsrc.archive.MultiSinkArchiver;
+import org.commonjava.maven.plugins.projectsrc.scan.ProjectSourcesScanner;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the native archive pipeline (scan the source tree, then write one archive format) over a synthetic source tree. See
+ * {@link ScanBenchmark} for the scan on its own. Besides the
+ * primary archives/second score, each run reports files/second and megabytes/second as secondary results; run with <code>-prof gc</code>
+ * for the allocation rate and with {@link PeakRssProfiler} for peak RSS.
+ * <p>
+ * Trees are generated under {@link SyntheticSourceTree#getBenchmarkDirectory()} and kept between runs.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 2, time = 10 )
+@Measurement( iterations = 5, time = 10 )
+@Fork( 1 )
+public class ArchiveBenchmark
+{
+
+    @Param( { "1000", "20000" } )
+    public int fileCount;
+
+    @Param( { "8192" } )
+    public int meanFileSize;
+
+    @Param( { SyntheticSourceTree.LOGNORMAL } )
+    public String sizeDistribution;
+
+    /**
+     * 0 for incompressible (random) content, 1 for content that compresses like source code.
+     */
+    @Param( { "0.8" } )
+    public double compressibility;
+
+    @Param( { "tar", "tar.gz", "zip", "tar.bz2", "tar.xz", "tar.zst" } )
+    public String format;
+
+    /**
+     * Compression threads for the format (gzipThreads, zipThreads, xzThreads or zstdThreads in the plugin configuration).
+     */
+    @Param( { "1", "4" } )
+    public int threads;
+
+    private SyntheticSourceTree tree;
+
+    private Assembly assembly;
+
+    private File sourceRoot;
+
+    private File outputDirectory;
+
+    private ArchiveSinks sinkFactory;
+
+    /**
+     * Secondary results, reported per second like the primary score.
+     */
+    @State( Scope.Thread )
+    @AuxCounters( AuxCounters.Type.OPERATIONS )
+    public static class Throughput
+    {
+        public long files;
+
+        public double megabytes;
+
+        @Setup( Level.Iteration )
+        public void reset()
+        {
+            files = 0;
+            megabytes = 0;
+        }
+    }
+
+    @Setup( Level.Trial )
+    public void setUp()
+        throws IOException
+    {
+        final File benchmarkDir = SyntheticSourceTree.getBenchmarkDirectory();
+
+        tree = new SyntheticSourceTree( fileCount, meanFileSize, sizeDistribution, compressibility );
+        sourceRoot = tree.generate( benchmarkDir );
+
+        outputDirectory = new File( benchmarkDir, "output" );
+        if ( !outputDirectory.isDirectory() && !outputDirectory.mkdirs() )
+        {
+            throw new IOException( "Cannot create output directory: " + outputDirectory );
+        }
+
+        assembly = SyntheticSourceTree.getProjectAssembly( sourceRoot );
+
+        sinkFactory = new ArchiveSinks();
+        sinkFactory.setGzipThreads( threads );
+        sinkFactory.setZipThreads( threads );
+        sinkFactory.setXzThreads( threads );
+        sinkFactory.setZstdThreads( threads );
+    }
+
+    @TearDown( Level.Trial )
+    public void tearDown()
+    {
+        final File archive = ArchiveSinks.getDestination( format, outputDirectory, "benchmark" );
+        if ( archive.exists() && !archive.delete() )
+        {
+            archive.deleteOnExit();
+        }
+    }
+
+    @Benchmark
+    public File archive( final Throughput throughput )
+        throws IOException
+    {
+        final List<ArchiveEntry> entries = new ProjectSourcesScanner( sourceRoot ).scan( assembly, "benchmark" );
+        final ArchiveSink sink = sinkFactory.create( format, outputDirectory, "benchmark" );
+        new MultiSinkArchiver().archive( entries, Collections.singletonList( sink ) );
+
+        throughput.files += tree.getFileCount();
+        throughput.megabytes += tree.getTotalBytes() / ( 1024.0 * 1024.0 );
+        return sink.getDestination();
+    }
+
+}
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.benchmarks;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * Reports the peak resident set size of the benchmark JVM (<code>VmHWM</code> from <code>/proc/self/status</code>), so memory regressions in
+ * the archive pipeline show up next to the throughput numbers. Only works on Linux; elsewhere it reports nothing. Enable with
+ * <code>-prof org.commonjava.maven.plugins.projectsrc.benchmarks.PeakRssProfiler</code>.
+ */
+public class PeakRssProfiler
+    implements InternalProfiler
+{
+
+    private static final File STATUS = new File( "/proc/self/status" );
+
+    @Override
+    public String getDescription()
+    {
+        return "Peak resident set size of the benchmark JVM (Linux only)";
+    }
+
+    @Override
+    public void beforeIteration( final BenchmarkParams benchmarkParams, final IterationParams iterationParams )
+    {
+    }
+
+    @Override
+    public Collection<? extends Result> afterIteration( final BenchmarkParams benchmarkParams, final IterationParams iterationParams,
+                                                        final IterationResult result )
+    {
+        final long peakKb = readPeakKb();
+        if ( peakKb < 0 )
+        {
+            return Collections.emptyList();
+        }
+
+        return Collections.singletonList( new ScalarResult( "rss.peak", peakKb / 1024.0, "MB", AggregationPolicy.MAX ) );
+    }
+
+    private static long readPeakKb()
+    {
+        if ( !STATUS.isFile() )
+        {
+            return -1;
+        }
+
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader( new InputStreamReader( new FileInputStream( STATUS ), "US-ASCII" ) );
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                if ( line.startsWith( "VmHWM:" ) )
+                {
+                    return Long.parseLong( line.substring( "VmHWM:".length() )
+                                               .replace( "kB", "" )
+                                               .trim() );
+                }
+            }
+        }
+        catch ( final IOException e )
+        {
+            // fall through; no measurement.
+        }
+        catch ( final NumberFormatException e )
+        {
+            // fall through; no measurement.
+        }
+        finally
+        {
+            if ( reader != null )
+            {
+                try
+                {
+                    reader.close();
+                }
+                catch ( final IOException e )
+                {
+                    // nothing we can do about it now.
+                }
+            }
+        }
+
+        return -1;
+    }
+
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.benchmarks;
+
+import org.apache.maven.plugin.assembly.model.Assembly;
+import org.commonjava.maven.plugins.projectsrc.archive.ArchiveEntry;
+import org.commonjava.maven.plugins.projectsrc.scan.ProjectSourcesScanner;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures scanning on its own: walking the synthetic source tree and filtering paths, without reading any file contents.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 2, time = 10 )
+@Measurement( iterations = 5, time = 10 )
+@Fork( 1 )
+public class ScanBenchmark
+{
+
+    @Param( { "1000", "20000" } )
+    public int fileCount;
+
+    @Param( { "8192" } )
+    public int meanFileSize;
+
+    @Param( { SyntheticSourceTree.LOGNORMAL } )
+    public String sizeDistribution;
+
+    private SyntheticSourceTree tree;
+
+    private Assembly assembly;
+
+    private File sourceRoot;
+
+    @State( Scope.Thread )
+    @AuxCounters( AuxCounters.Type.OPERATIONS )
+    public static class Throughput
+    {
+        public long files;
+
+        @Setup( Level.Iteration )
+        public void reset()
+        {
+            files = 0;
+        }
+    }
+
+    @Setup( Level.Trial )
+    public void setUp()
+        throws IOException
+    {
+        // contents do not matter for scanning; share the trees generated for ArchiveBenchmark.
+        tree = new SyntheticSourceTree( fileCount, meanFileSize, sizeDistribution, 0.8 );
+        sourceRoot = tree.generate( SyntheticSourceTree.getBenchmarkDirectory() );
+        assembly = SyntheticSourceTree.getProjectAssembly( sourceRoot );
+    }
+
+    @Benchmark
+    public List<ArchiveEntry> scan( final Throughput throughput )
+        throws IOException
+    {
+        final List<ArchiveEntry> entries = new ProjectSourcesScanner( sourceRoot ).scan( assembly, "benchmark" );
+        throughput.files += tree.getFileCount();
+        return entries;
+    }
+
+}
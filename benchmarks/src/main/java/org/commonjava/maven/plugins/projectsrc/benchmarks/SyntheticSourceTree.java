@@ -0,0 +1,247 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.benchmarks;
+
+import org.apache.maven.plugin.assembly.model.Assembly;
+import org.apache.maven.plugin.assembly.model.FileSet;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Random;
+
+/**
+ * Generates a deterministic, synthetic source tree for benchmarking. Trees are cached under a directory named after their parameters, so
+ * repeated trials (and forks) reuse the same files instead of regenerating them.
+ */
+public final class SyntheticSourceTree
+{
+
+    /**
+     * Every file has exactly the mean size.
+     */
+    public static final String FIXED = "fixed";
+
+    /**
+     * Sizes spread evenly between zero and twice the mean.
+     */
+    public static final String UNIFORM = "uniform";
+
+    /**
+     * Many small files and a long tail of large ones, which is what real source trees look like.
+     */
+    public static final String LOGNORMAL = "lognormal";
+
+    private static final int FILES_PER_DIRECTORY = 50;
+
+    private static final int CHUNK_SIZE = 64;
+
+    private static final long SEED = 0x50726f6a53726343L;
+
+    private static final String[] VOCABULARY = { "public ", "private ", "final ", "static ", "class ", "return ", "import ", "package ",
+        "String ", "List<ArchiveEntry> ", "throws IOException", "{\n", "}\n", "( ", " )", ";\n", "    ", "if ( ", "null", "this.", "new ",
+        "/**\n * ", " */\n", "// ", "org.commonjava.maven.plugins.", "getName()", "final int ", "for ( ", " == ", "true", "false" };
+
+    private final int fileCount;
+
+    private final int meanFileSize;
+
+    private final String sizeDistribution;
+
+    private final double compressibility;
+
+    private long totalBytes;
+
+    public SyntheticSourceTree( final int fileCount, final int meanFileSize, final String sizeDistribution, final double compressibility )
+    {
+        if ( !FIXED.equals( sizeDistribution ) && !UNIFORM.equals( sizeDistribution ) && !LOGNORMAL.equals( sizeDistribution ) )
+        {
+            throw new IllegalArgumentException( "Unknown size distribution: " + sizeDistribution );
+        }
+        if ( compressibility < 0 || compressibility > 1 )
+        {
+            throw new IllegalArgumentException( "Compressibility must be between 0 and 1, was: " + compressibility );
+        }
+
+        this.fileCount = fileCount;
+        this.meanFileSize = meanFileSize;
+        this.sizeDistribution = sizeDistribution;
+        this.compressibility = compressibility;
+    }
+
+    /**
+     * Where trees (and benchmark output) live: <code>${projectsrc.benchmark.dir}</code>, or <code>${java.io.tmpdir}/projectsrc-benchmarks</code>.
+     */
+    public static File getBenchmarkDirectory()
+    {
+        final String dir = System.getProperty( "projectsrc.benchmark.dir" );
+        return dir != null ? new File( dir ) : new File( System.getProperty( "java.io.tmpdir" ), "projectsrc-benchmarks" );
+    }
+
+    /**
+     * An assembly with the same file set as the assembly plugin's built-in 'project' descriptor, rooted at <code>root</code>.
+     */
+    public static Assembly getProjectAssembly( final File root )
+    {
+        final FileSet fileSet = new FileSet();
+        fileSet.setDirectory( root.getAbsolutePath() );
+        fileSet.setUseDefaultExcludes( true );
+        fileSet.addExclude( "**/*.log" );
+        fileSet.addExclude( "**/target/**" );
+
+        final Assembly assembly = new Assembly();
+        assembly.setId( "project-sources" );
+        assembly.addFileSet( fileSet );
+        return assembly;
+    }
+
+    /**
+     * Create the tree under <code>parent</code> (if it is not there already) and return its root directory.
+     */
+    public File generate( final File parent )
+        throws IOException
+    {
+        final File root =
+            new File( parent, "tree-" + fileCount + "-" + meanFileSize + "-" + sizeDistribution + "-" + Math.round( compressibility * 100 ) );
+        final File marker = new File( root, ".complete" );
+        if ( marker.exists() )
+        {
+            totalBytes = sumSizes( root );
+            return root;
+        }
+
+        final Random random = new Random( SEED );
+        final byte[] vocabulary = joinVocabulary();
+        totalBytes = 0;
+        for ( int i = 0; i < fileCount; i++ )
+        {
+            final int dirIndex = i / FILES_PER_DIRECTORY;
+            final File dir =
+                new File( root, "src/main/java/pkg" + ( dirIndex % 16 ) + "/sub" + ( dirIndex / 16 ) );
+            if ( !dir.isDirectory() && !dir.mkdirs() )
+            {
+                throw new IOException( "Cannot create directory: " + dir );
+            }
+
+            final int size = nextSize( random );
+            writeFile( new File( dir, "Source" + i + ".java" ), size, random, vocabulary );
+            totalBytes += size;
+        }
+
+        if ( !marker.createNewFile() )
+        {
+            throw new IOException( "Cannot create marker file: " + marker );
+        }
+
+        return root;
+    }
+
+    /**
+     * Sum of the generated file sizes; valid after {@link #generate(File)}.
+     */
+    public long getTotalBytes()
+    {
+        return totalBytes;
+    }
+
+    public int getFileCount()
+    {
+        return fileCount;
+    }
+
+    private int nextSize( final Random random )
+    {
+        if ( FIXED.equals( sizeDistribution ) )
+        {
+            return meanFileSize;
+        }
+        else if ( UNIFORM.equals( sizeDistribution ) )
+        {
+            return random.nextInt( 2 * meanFileSize + 1 );
+        }
+
+        final double sigma = 1.5;
+        final double mu = Math.log( meanFileSize ) - sigma * sigma / 2;
+        return (int) Math.min( Integer.MAX_VALUE / 2, Math.exp( mu + sigma * random.nextGaussian() ) );
+    }
+
+    /**
+     * Fill the file chunk by chunk: a chunk is text from a small vocabulary with probability <code>compressibility</code>, otherwise random
+     * bytes. Zero gives incompressible files; one gives files that compress about as well as real source code.
+     */
+    private void writeFile( final File file, final int size, final Random random, final byte[] vocabulary )
+        throws IOException
+    {
+        final byte[] chunk = new byte[CHUNK_SIZE];
+        final OutputStream out = new BufferedOutputStream( new FileOutputStream( file ) );
+        try
+        {
+            int remaining = size;
+            while ( remaining > 0 )
+            {
+                final int n = Math.min( remaining, CHUNK_SIZE );
+                if ( random.nextDouble() < compressibility )
+                {
+                    final int offset = random.nextInt( vocabulary.length - CHUNK_SIZE );
+                    System.arraycopy( vocabulary, offset, chunk, 0, n );
+                }
+                else
+                {
+                    random.nextBytes( chunk );
+                }
+
+                out.write( chunk, 0, n );
+                remaining -= n;
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static byte[] joinVocabulary()
+    {
+        final StringBuilder sb = new StringBuilder();
+        final Random random = new Random( SEED );
+        while ( sb.length() < 16 * 1024 )
+        {
+            sb.append( VOCABULARY[random.nextInt( VOCABULARY.length )] );
+        }
+
+        return sb.toString()
+                 .getBytes( Charset.forName( "UTF-8" ) );
+    }
+
+    private static long sumSizes( final File dir )
+    {
+        long total = 0;
+        final File[] children = dir.listFiles();
+        if ( children != null )
+        {
+            for ( final File child : children )
+            {
+                total += child.isDirectory() ? sumSizes( child ) : child.length();
+            }
+        }
+
+        return total;
+    }
+
+}
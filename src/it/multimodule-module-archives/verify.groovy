@@ -0,0 +1,100 @@
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream
+
+def entryNames( File tgz )
+{
+    def names = []
+    def tar = new TarArchiveInputStream( new GzipCompressorInputStream( new BufferedInputStream( new FileInputStream( tgz ) ) ) )
+    try
+    {
+        def entry
+        while ( ( entry = tar.getNextTarEntry() ) != null )
+        {
+            names << entry.name
+        }
+    }
+    finally
+    {
+        tar.close()
+    }
+    return names
+}
+
+def version = "1.0-SNAPSHOT"
+File groupDir = new File( localRepositoryPath, "org/test" )
+
+File aggregate = new File( groupDir, "test-module-archives/${version}/test-module-archives-${version}-project-sources.tar.gz" )
+if ( !aggregate.exists() )
+{
+    System.out.println("Cannot find aggregate archive: ${aggregate}" )
+    return false
+}
+
+def aggregateNames = entryNames( aggregate )
+for ( String name : [ "module-a/src/main/java/org/test/a/A.java", "module-b/src/main/java/org/test/b/B.java" ] )
+{
+    if ( !aggregateNames.contains( "test-module-archives-${version}/${name}".toString() ) )
+    {
+        System.out.println("${name} not present in aggregate archive!" )
+        return false
+    }
+}
+
+// each module attaches what the root wrote in its single pass, rather than reading its files again.
+def log = new File( basedir, "build.log" ).getText( "UTF-8" )
+if ( log.contains( "archiving its sources here" ) )
+{
+    System.out.println("A module archived its own sources instead of attaching the archive written by the execution root!" )
+    return false
+}
+
+def modules = [ "module-a": "module-b", "module-b": "module-a" ]
+for ( def module : modules.entrySet() )
+{
+    def artifactId = module.key
+    def sibling = module.value
+    def fileName = "${artifactId}-${version}-project-sources.tar.gz"
+
+    // written by the root, in its own output directory, where the module's clean doesn't reach.
+    if ( !new File( basedir, "target/module-archives/${artifactId}/${fileName}" ).exists() )
+    {
+        System.out.println("Module archive was removed or never written: target/module-archives/${artifactId}/${fileName}" )
+        return false
+    }
+
+    File installed = new File( groupDir, "${artifactId}/${version}/${fileName}" )
+    if ( !installed.exists() )
+    {
+        System.out.println("Module archive was not installed: ${installed}" )
+        return false
+    }
+
+    if ( !log.contains( "${fileName}, written by the execution root." ) )
+    {
+        System.out.println("${artifactId} did not attach the archive written by the execution root!" )
+        return false
+    }
+
+    def names = entryNames( installed )
+    def root = "${artifactId}-${version}/"
+    def letter = artifactId.substring( artifactId.length() - 1 )
+    for ( String expected : [ "${root}pom.xml", "${root}src/main/java/org/test/${letter}/${letter.toUpperCase()}.java" ] )
+    {
+        if ( !names.contains( expected.toString() ) )
+        {
+            System.out.println("${expected} not present in ${fileName}!" )
+            return false
+        }
+    }
+
+    for ( String name : names )
+    {
+        if ( !name.startsWith( root ) || name.contains( sibling ) || name.contains( "/target/" ) )
+        {
+            System.out.println("${name} should not be in ${fileName}!" )
+            return false
+        }
+    }
+}
+
+return true
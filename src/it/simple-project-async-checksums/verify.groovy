@@ -0,0 +1,35 @@
+import java.security.MessageDigest
+
+def version = "1.0-SNAPSHOT"
+File archive = new File( basedir, "target/test-async-checksums-project-${version}-project-sources.tar.gz" )
+if ( !archive.exists() )
+{
+    System.out.println("Cannot find the archive: ${archive}" )
+    return false
+}
+
+def reused = new File( basedir, "build.log" ).readLines().any { it.contains( "Project sources are unchanged; reusing" ) }
+if ( !reused )
+{
+    System.out.println("The second build did not reuse the archive." )
+    return false
+}
+
+for ( String algorithm : [ "sha256", "sha512" ] )
+{
+    File sidecar = new File( archive.path + "." + algorithm )
+    if ( !sidecar.exists() )
+    {
+        System.out.println("Cannot find the checksum file: ${sidecar}" )
+        return false
+    }
+
+    def digest = MessageDigest.getInstance( algorithm == "sha256" ? "SHA-256" : "SHA-512" ).digest( archive.bytes ).encodeHex().toString()
+    if ( !sidecar.getText( "UTF-8" ).startsWith( digest ) )
+    {
+        System.out.println("${sidecar} doesn't hold the archive's digest ${digest}." )
+        return false
+    }
+}
+
+return true
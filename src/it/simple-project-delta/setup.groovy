@@ -0,0 +1,42 @@
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream
+
+// Install a hand-made project-sources archive of version 0.9 to serve as the delta baseline: Unchanged.java as it is in the project,
+// Changed.java with other content, Removed.java and a directory that are gone from the project, and no Added.java.
+def root = "test-delta-project-0.9/"
+def java = "src/main/java/org/test/"
+
+File dir = new File( localRepositoryPath, "org/test/test-delta-project/0.9" )
+dir.mkdirs()
+
+def tar = new TarArchiveOutputStream( new GzipCompressorOutputStream( new FileOutputStream( new File( dir, "test-delta-project-0.9-project-sources.tar.gz" ) ) ) )
+try
+{
+    for ( String name : [ "", "src/", "src/main/", "src/main/java/", "src/main/java/org/", java, "src/main/resources/" ] )
+    {
+        tar.putArchiveEntry( new TarArchiveEntry( root + name ) )
+        tar.closeArchiveEntry()
+    }
+
+    def files = [
+        "pom.xml": new File( basedir, "pom.xml" ).bytes,
+        ( java + "Unchanged.java" ): new File( basedir, java + "Unchanged.java" ).bytes,
+        ( java + "Changed.java" ): "package org.test;\n\npublic class Changed {}\n".getBytes( "UTF-8" ),
+        ( java + "Removed.java" ): "package org.test;\n\npublic class Removed {}\n".getBytes( "UTF-8" ),
+        "src/main/resources/removed.properties": "removed=true\n".getBytes( "UTF-8" )
+        ]
+    files.each { name, content ->
+        def entry = new TarArchiveEntry( root + name )
+        entry.size = content.length
+        tar.putArchiveEntry( entry )
+        tar.write( content )
+        tar.closeArchiveEntry()
+    }
+}
+finally
+{
+    tar.close()
+}
+
+return true
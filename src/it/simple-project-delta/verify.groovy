@@ -0,0 +1,67 @@
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream
+import org.apache.commons.compress.utils.IOUtils
+
+def version = "1.0-SNAPSHOT"
+File delta = new File( localRepositoryPath, "org/test/test-delta-project/${version}/test-delta-project-${version}-project-sources-delta.tar.gz" )
+if ( !delta.exists() )
+{
+    System.out.println("Cannot find delta archive: ${delta}" )
+    return false
+}
+
+def contents = [:]
+def tar = new TarArchiveInputStream( new GzipCompressorInputStream( new BufferedInputStream( new FileInputStream( delta ) ) ) )
+try
+{
+    def entry
+    while ( ( entry = tar.getNextTarEntry() ) != null )
+    {
+        contents[entry.name] = entry.isDirectory() ? null : new String( IOUtils.toByteArray( tar ), "UTF-8" )
+    }
+}
+finally
+{
+    tar.close()
+}
+
+// named under the baseline's root folder, so the delta extracts over the baseline.
+def root = "test-delta-project-0.9/"
+def java = "src/main/java/org/test/"
+for ( String name : contents.keySet() )
+{
+    if ( name != "project-sources-deleted.txt" && !name.startsWith( root ) )
+    {
+        System.out.println("${name} is not under the baseline's root folder!" )
+        return false
+    }
+}
+
+for ( String name : [ "Added.java", "Changed.java" ] )
+{
+    def content = contents[root + java + name]
+    if ( content != new File( basedir, java + name ).getText( "UTF-8" ) )
+    {
+        System.out.println("${name} is missing from the delta, or differs from the project's copy!" )
+        return false
+    }
+}
+
+for ( String name : [ root + java + "Unchanged.java", root + "pom.xml", root + java ] )
+{
+    if ( contents.containsKey( name ) )
+    {
+        System.out.println("${name} did not change, yet is in the delta!" )
+        return false
+    }
+}
+
+def deleted = contents["project-sources-deleted.txt"]
+def expected = "${root}${java}Removed.java\n${root}src/main/resources/\n${root}src/main/resources/removed.properties\n"
+if ( deleted != expected.toString() )
+{
+    System.out.println("Unexpected deleted paths:\n${deleted}" )
+    return false
+}
+
+return true
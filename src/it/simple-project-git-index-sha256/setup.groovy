@@ -0,0 +1,25 @@
+// A repository with SHA-256 object ids (extensions.objectFormat), whose index entries are longer than SHA-1 ones. untracked.txt is
+// left out of it. Needs git 2.29 or later.
+def git = { String... args ->
+    def process = ( [ "git" ] + args.toList() ).execute( null, basedir )
+    process.waitForProcessOutput( System.out, System.err )
+    if ( process.exitValue() != 0 )
+    {
+        throw new IllegalStateException( "git ${args.join( ' ' )} failed." )
+    }
+}
+
+def write = { String name, String content ->
+    File file = new File( basedir, name )
+    file.parentFile.mkdirs()
+    file.setText( content, "UTF-8" )
+}
+
+write( "tracked.txt", "tracked\n" )
+write( "docs/a/first.txt", "first\n" )
+write( "untracked.txt", "untracked\n" )
+
+git "init", "-q", "--object-format=sha256"
+git "add", "pom.xml", "src", "tracked.txt", "docs"
+
+return true
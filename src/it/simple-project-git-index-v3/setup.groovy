@@ -0,0 +1,27 @@
+// Extended flags make git write a version 3 index: intent.txt is only added with --intent-to-add, and skipped.txt is marked
+// skip-worktree, so it is left out even though it is in the working tree.
+def git = { String... args ->
+    def process = ( [ "git" ] + args.toList() ).execute( null, basedir )
+    process.waitForProcessOutput( System.out, System.err )
+    if ( process.exitValue() != 0 )
+    {
+        throw new IllegalStateException( "git ${args.join( ' ' )} failed." )
+    }
+}
+
+def write = { String name, String content ->
+    File file = new File( basedir, name )
+    file.parentFile.mkdirs()
+    file.setText( content, "UTF-8" )
+}
+
+write( "tracked.txt", "tracked\n" )
+write( "intent.txt", "intent to add\n" )
+write( "skipped.txt", "skip-worktree\n" )
+
+git "init", "-q"
+git "add", "pom.xml", "src", "tracked.txt", "skipped.txt"
+git "add", "--intent-to-add", "intent.txt"
+git "update-index", "--skip-worktree", "skipped.txt"
+
+return true
@@ -0,0 +1,30 @@
+// A version 4 index, whose paths are compressed against the previous entry's, with an extended flag as well: skipped.txt is
+// marked skip-worktree, so it is left out even though it is in the working tree.
+def git = { String... args ->
+    def process = ( [ "git" ] + args.toList() ).execute( null, basedir )
+    process.waitForProcessOutput( System.out, System.err )
+    if ( process.exitValue() != 0 )
+    {
+        throw new IllegalStateException( "git ${args.join( ' ' )} failed." )
+    }
+}
+
+def write = { String name, String content ->
+    File file = new File( basedir, name )
+    file.parentFile.mkdirs()
+    file.setText( content, "UTF-8" )
+}
+
+write( "tracked.txt", "tracked\n" )
+write( "skipped.txt", "skip-worktree\n" )
+write( "docs/a/first.txt", "first\n" )
+write( "docs/a/second.txt", "second\n" )
+write( "docs/b.txt", "b\n" )
+write( "untracked.txt", "untracked\n" )
+
+git "init", "-q"
+git "add", "pom.xml", "src", "tracked.txt", "skipped.txt", "docs"
+git "update-index", "--skip-worktree", "skipped.txt"
+git "update-index", "--index-version", "4"
+
+return true
@@ -0,0 +1,24 @@
+// A version 2 index, which is what git writes unless an entry needs extended flags. untracked.txt is left out of it.
+def git = { String... args ->
+    def process = ( [ "git" ] + args.toList() ).execute( null, basedir )
+    process.waitForProcessOutput( System.out, System.err )
+    if ( process.exitValue() != 0 )
+    {
+        throw new IllegalStateException( "git ${args.join( ' ' )} failed." )
+    }
+}
+
+def write = { String name, String content ->
+    File file = new File( basedir, name )
+    file.parentFile.mkdirs()
+    file.setText( content, "UTF-8" )
+}
+
+write( "tracked.txt", "tracked\n" )
+write( "untracked.txt", "original\n" )
+write( "edit/untracked.txt", "edited\n" )
+
+git "init", "-q"
+git "add", "pom.xml", "src", "tracked.txt"
+
+return true
@@ -0,0 +1,81 @@
+import java.nio.ByteBuffer
+
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream
+import org.apache.commons.compress.utils.IOUtils
+
+def version = "1.0-SNAPSHOT"
+def artifactId = "test-git-index-project"
+def root = "${artifactId}-${version}/"
+File dir = new File( localRepositoryPath, "org/test/${artifactId}/${version}" )
+
+def indexVersion = ByteBuffer.wrap( new File( basedir, ".git/index" ).bytes, 4, 4 ).getInt()
+if ( indexVersion != 2 )
+{
+    System.out.println("Expected a version 2 git index, not version ${indexVersion}." )
+    return false
+}
+
+def read = { String format, Closure decompress ->
+    File file = new File( dir, "${artifactId}-${version}-project-sources.${format}" )
+    if ( !file.exists() )
+    {
+        return null
+    }
+
+    def contents = [:]
+    def tar = new TarArchiveInputStream( decompress( new BufferedInputStream( new FileInputStream( file ) ) ) )
+    try
+    {
+        def entry
+        while ( ( entry = tar.getNextTarEntry() ) != null )
+        {
+            if ( !entry.isDirectory() )
+            {
+                contents[entry.name.substring( root.length() )] = new String( IOUtils.toByteArray( tar ), "UTF-8" )
+            }
+        }
+    }
+    finally
+    {
+        tar.close()
+    }
+    return contents
+}
+
+def xz = read( "tar.xz", { new XZCompressorInputStream( it ) } )
+if ( xz == null )
+{
+    System.out.println("Cannot find the tar.xz archive in: ${dir}" )
+    return false
+}
+
+def tracked = [ "pom.xml", "src/main/java/org/test/App.java", "src/main/java/org/test/util/Helper.java", "tracked.txt" ]
+if ( xz.keySet() != tracked as Set )
+{
+    System.out.println("Expected just the tracked files ${tracked} in the tar.xz archive, not: ${xz.keySet()}" )
+    return false
+}
+
+// the second build edited untracked.txt, which git doesn't track and the tar.gz archive has to pick up rather than being reused.
+def gz = read( "tar.gz", { new GzipCompressorInputStream( it ) } )
+if ( gz == null || gz["untracked.txt"] != "edited\n" )
+{
+    System.out.println("The tar.gz archive is missing, or has a stale untracked.txt." )
+    return false
+}
+
+def reused = new File( basedir, "build.log" ).readLines().findAll { it.contains( "Project sources are unchanged; reusing" ) }
+if ( !reused.any { it.endsWith( ".tar.xz" ) } )
+{
+    System.out.println("The second build did not reuse the tar.xz archive." )
+    return false
+}
+if ( reused.any { it.endsWith( ".tar.gz" ) } )
+{
+    System.out.println("The second build reused the tar.gz archive." )
+    return false
+}
+
+return true
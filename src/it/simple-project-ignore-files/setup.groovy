@@ -0,0 +1,35 @@
+// The ignore files and the files they match are written here rather than kept in src/it, where this repository's own git would
+// apply them. The .git directory makes this project the top of its own work tree.
+new File( basedir, ".git" ).mkdirs()
+
+def files = [
+    ".gitignore": """# comment
+*.out
+!keep.out
+/anchored.txt
+build/
+docs/**/generated.txt
+/edit/
+""",
+    "sub/.gitignore": "*.tmp\n",
+    "app.out": "original\n",
+    "keep.out": "kept by negation\n",
+    "anchored.txt": "ignored at the top\n",
+    "sub/anchored.txt": "kept below the top\n",
+    "build/out.txt": "ignored directory\n",
+    "sub/build": "a file, which directory-only rules don't match\n",
+    "docs/generated.txt": "** matches no directories\n",
+    "docs/a/b/generated.txt": "** matches several directories\n",
+    "docs/a/other.txt": "kept\n",
+    "sub/x.tmp": "ignored by the nested rule\n",
+    "y.tmp": "outside the nested rule\n",
+    "edit/app.out": "edited\n"
+    ]
+
+files.each { name, content ->
+    File file = new File( basedir, name )
+    file.parentFile.mkdirs()
+    file.setText( content, "UTF-8" )
+}
+
+return true
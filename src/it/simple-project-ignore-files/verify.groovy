@@ -0,0 +1,82 @@
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream
+import org.apache.commons.compress.utils.IOUtils
+
+def version = "1.0-SNAPSHOT"
+def root = "test-ignore-files-project-${version}/"
+File dir = new File( localRepositoryPath, "org/test/test-ignore-files-project/${version}" )
+
+def read = { String format, Closure decompress ->
+    File file = new File( dir, "test-ignore-files-project-${version}-project-sources.${format}" )
+    if ( !file.exists() )
+    {
+        return null
+    }
+
+    def contents = [:]
+    def tar = new TarArchiveInputStream( decompress( new BufferedInputStream( new FileInputStream( file ) ) ) )
+    try
+    {
+        def entry
+        while ( ( entry = tar.getNextTarEntry() ) != null )
+        {
+            if ( !entry.isDirectory() )
+            {
+                contents[entry.name.substring( root.length() )] = new String( IOUtils.toByteArray( tar ), "UTF-8" )
+            }
+        }
+    }
+    finally
+    {
+        tar.close()
+    }
+    return contents
+}
+
+def xz = read( "tar.xz", { new XZCompressorInputStream( it ) } )
+def gz = read( "tar.gz", { new GzipCompressorInputStream( it ) } )
+if ( xz == null || gz == null )
+{
+    System.out.println("Cannot find the tar.xz and tar.gz archives in: ${dir}" )
+    return false
+}
+
+for ( String name : [ "app.out", "anchored.txt", "build/out.txt", "docs/generated.txt", "docs/a/b/generated.txt", "sub/x.tmp", "edit/app.out" ] )
+{
+    if ( xz.containsKey( name ) )
+    {
+        System.out.println("${name} is ignored, yet is in the tar.xz archive!" )
+        return false
+    }
+}
+
+for ( String name : [ "keep.out", "sub/anchored.txt", "sub/build", "docs/a/other.txt", "y.tmp", "pom.xml", "src/main/java/org/test/App.java" ] )
+{
+    if ( !xz.containsKey( name ) )
+    {
+        System.out.println("${name} is not ignored, yet is missing from the tar.xz archive!" )
+        return false
+    }
+}
+
+// the second build edited the ignored app.out, which the tar.gz archive has to pick up rather than being reused.
+if ( gz["app.out"] != "edited\n" )
+{
+    System.out.println("The tar.gz archive has a stale app.out: ${gz['app.out']}" )
+    return false
+}
+
+def reused = new File( basedir, "build.log" ).readLines().findAll { it.contains( "Project sources are unchanged; reusing" ) }
+if ( !reused.any { it.endsWith( ".tar.xz" ) } )
+{
+    System.out.println("The second build did not reuse the tar.xz archive." )
+    return false
+}
+if ( reused.any { it.endsWith( ".tar.gz" ) } )
+{
+    System.out.println("The second build reused the tar.gz archive." )
+    return false
+}
+
+return true
@@ -0,0 +1,67 @@
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream
+import org.apache.commons.compress.utils.IOUtils
+
+def version = "1.0-SNAPSHOT"
+def root = "test-incremental-project-${version}/"
+def app = "src/main/java/org/test/App.java"
+File dir = new File( localRepositoryPath, "org/test/test-incremental-project/${version}" )
+
+// each invocation's log starts with the Maven version banner.
+def builds = new File( basedir, "build.log" ).getText( "UTF-8" ).split( /(?m)^Apache Maven \d/ ).findAll { it.contains( "BUILD SUCCESS" ) }
+if ( builds.size() != 3 )
+{
+    System.out.println("Expected the logs of three successful builds, found ${builds.size()}." )
+    return false
+}
+
+def reused = builds.collect { build -> build.readLines().findAll { it.contains( "Project sources are unchanged; reusing" ) } }
+if ( !reused[0].isEmpty() || !reused[2].isEmpty() )
+{
+    System.out.println("The first build, or the build after App.java changed, reused an archive: ${reused[0] + reused[2]}" )
+    return false
+}
+if ( !reused[1].any { it.endsWith( ".tar.xz" ) } || !reused[1].any { it.endsWith( ".tar.gz" ) } )
+{
+    System.out.println("The unchanged build did not reuse both archives: ${reused[1]}" )
+    return false
+}
+
+def expected = new File( basedir, "edit/App.java" ).getText( "UTF-8" )
+def formats = [ "tar.xz": { new XZCompressorInputStream( it ) }, "tar.gz": { new GzipCompressorInputStream( it ) } ]
+for ( def format : formats )
+{
+    File file = new File( dir, "test-incremental-project-${version}-project-sources.${format.key}" )
+    if ( !file.exists() )
+    {
+        System.out.println("Cannot find archive: ${file}" )
+        return false
+    }
+
+    def content = null
+    def tar = new TarArchiveInputStream( format.value( new BufferedInputStream( new FileInputStream( file ) ) ) )
+    try
+    {
+        def entry
+        while ( ( entry = tar.getNextTarEntry() ) != null )
+        {
+            if ( entry.name == root + app )
+            {
+                content = new String( IOUtils.toByteArray( tar ), "UTF-8" )
+            }
+        }
+    }
+    finally
+    {
+        tar.close()
+    }
+
+    if ( content != expected )
+    {
+        System.out.println("The ${format.key} archive doesn't have the edited App.java." )
+        return false
+    }
+}
+
+return true
@@ -0,0 +1,26 @@
+// Generate a synthetic source tree of about a million small files (1000 directories of 1000 files each).
+// Override the size with -Dprojectsrc.it.directories=... and -Dprojectsrc.it.filesPerDirectory=...
+def directories = Integer.getInteger( "projectsrc.it.directories", 1000 )
+def filesPerDirectory = Integer.getInteger( "projectsrc.it.filesPerDirectory", 1000 )
+
+def gen = new File( basedir, "src/main/resources/gen" )
+def marker = new File( basedir, ".generated-${directories}-${filesPerDirectory}" )
+if ( marker.exists() )
+{
+    return true
+}
+
+byte[] content = "generated\n".getBytes( "UTF-8" )
+for ( int d = 0; d < directories; d++ )
+{
+    def dir = new File( gen, String.format( "d%04d", d ) )
+    dir.mkdirs()
+    for ( int f = 0; f < filesPerDirectory; f++ )
+    {
+        new File( dir, String.format( "f%04d.txt", f ) ).bytes = content
+    }
+}
+
+new File( basedir, "expected-files.txt" ).text = "${directories * filesPerDirectory}"
+marker.createNewFile()
+return true
@@ -0,0 +1,54 @@
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream
+
+def project = new XmlSlurper().parseText( new File(basedir, "pom.xml").getText() )
+def version = project.version
+
+File tgz = new File( basedir, "target/${project.artifactId}-${version}-project-sources.tar.gz" )
+if ( !tgz.exists() )
+{
+    System.out.println("Cannot find tar archive: ${tgz}" )
+    return false
+}
+
+def expected = Long.parseLong( new File( basedir, "expected-files.txt" ).text.trim() )
+
+long generated = 0
+String previous = null
+boolean ordered = true
+def tar = new TarArchiveInputStream( new GzipCompressorInputStream( new BufferedInputStream( new FileInputStream( tgz ) ) ) )
+try
+{
+    def entry
+    while ( ( entry = tar.getNextTarEntry() ) != null )
+    {
+        if ( previous != null && previous.compareTo( entry.name ) > 0 )
+        {
+            ordered = false
+        }
+        previous = entry.name
+
+        if ( !entry.isDirectory() && entry.name.contains( "/src/main/resources/gen/" ) )
+        {
+            generated++
+        }
+    }
+}
+finally
+{
+    tar.close()
+}
+
+if ( generated != expected )
+{
+    System.out.println("Expected ${expected} generated files in the archive, found ${generated}" )
+    return false
+}
+
+if ( !ordered )
+{
+    System.out.println("Archive entries are not in name order!" )
+    return false
+}
+
+return true
@@ -0,0 +1,83 @@
+import org.codehaus.plexus.archiver.tar.TarGZipUnArchiver
+import org.codehaus.plexus.archiver.zip.ZipUnArchiver
+import org.codehaus.plexus.logging.Logger
+import org.codehaus.plexus.logging.console.ConsoleLogger
+
+def project = new XmlSlurper().parseText( new File(basedir, "pom.xml").getText() )
+def version = project.version
+if ( version == null ){
+    version = project.parent.version
+}
+
+def groupPath = project.groupId
+if ( groupPath == null ){
+    groupPath = project.parent.groupId
+}
+
+groupPath = groupPath.toString().replace('.', '/')
+
+assert !new File( basedir, "target/projectsrc-archive-tmp" ).exists();
+
+File dir = new File( localRepositoryPath, "${groupPath}/${project.artifactId}/${version}" )
+
+def formats = [ "tar.gz", "zip", "tar.bz2" ]
+
+boolean missing = false;
+formats.each {
+    File archive = new File( dir, "${project.artifactId}-${version}-project-sources.${it}" )
+    if ( !archive.exists() )
+    {
+        System.out.println( "Cannot find ${it} archive: ${archive}" )
+        missing = true;
+    }
+}
+if (missing) {
+    return false;
+}
+
+def filesPresent = [
+    "src/main/java/org/test/App.java",
+    "src/test/java/org/test/AppTest.java",
+    "pom.xml",
+    "verify.groovy"
+    ]
+
+def filesMissing = [
+    "target/classes/org/test/App.class",
+    "target/test-classes/org/test/AppTest.class",
+    "build.log"
+    ]
+
+def root = "${project.artifactId}-${version}"
+
+def unarchivers = [
+    "tgz" : new TarGZipUnArchiver( new File( dir, "${project.artifactId}-${version}-project-sources.tar.gz" ) ),
+    "zip" : new ZipUnArchiver( new File( dir, "${project.artifactId}-${version}-project-sources.zip" ) )
+    ]
+
+boolean failed = false;
+unarchivers.each { name, ua ->
+    File destDir = new File( basedir, "target/extract-${name}" )
+    ua.enableLogging( new ConsoleLogger(Logger.LEVEL_DEBUG, "verify") );
+    destDir.mkdirs();
+    ua.setDestDirectory(destDir);
+    ua.extract();
+
+    File rootDir = new File( destDir, root );
+    filesPresent.each {
+        if ( !new File( rootDir, it ).exists() )
+        {
+            System.out.println("${it} not present in ${name} archive!")
+            failed = true;
+        }
+    }
+    filesMissing.each {
+        if ( new File( rootDir, it ).exists() )
+        {
+            System.out.println("${it} is present in ${name} archive, but should not be!")
+            failed = true;
+        }
+    }
+}
+
+return !failed
@@ -0,0 +1,40 @@
+def project = new XmlSlurper().parseText( new File(basedir, "pom.xml").getText() )
+def version = project.version
+if ( version == null ){
+    version = project.parent.version
+}
+
+def groupPath = project.groupId
+if ( groupPath == null ){
+    groupPath = project.parent.groupId
+}
+
+groupPath = groupPath.toString().replace('.', '/')
+
+def magic = [
+    "tar.xz": [ 0xfd, 0x37, 0x7a, 0x58, 0x5a, 0x00 ],
+    "tar.zst": [ 0x28, 0xb5, 0x2f, 0xfd ]
+    ]
+
+File dir = new File( localRepositoryPath, "${groupPath}/${project.artifactId}/${version}" )
+
+boolean failed = false;
+magic.each { format, expected ->
+    File archive = new File( dir, "${project.artifactId}-${version}-project-sources.${format}" )
+    if ( !archive.exists() )
+    {
+        System.out.println("Cannot find ${format} archive: ${archive}" )
+        failed = true;
+        return
+    }
+
+    byte[] header = new byte[expected.size()]
+    archive.withInputStream { it.read( header ) }
+    if ( header.collect { it & 0xff } != expected )
+    {
+        System.out.println("${archive} does not start with the ${format} magic bytes!" )
+        failed = true;
+    }
+}
+
+return !failed
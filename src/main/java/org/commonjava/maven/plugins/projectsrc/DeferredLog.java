@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link Log} that keeps messages until {@link #replay(Log)} hands them to a real one. Used by the background thread of async mode,
+ * which runs after the <code>archive</code> goal has returned and must not write to its log; the <code>join</code> goal replays the
+ * messages into its own.
+ */
+final class DeferredLog
+    implements Log
+{
+
+    private static final int DEBUG = 0;
+
+    private static final int INFO = 1;
+
+    private static final int WARN = 2;
+
+    private static final int ERROR = 3;
+
+    private final boolean debugEnabled;
+
+    private final List<Message> messages = new ArrayList<Message>();
+
+    /**
+     * @param original the log whose levels are enabled
+     */
+    DeferredLog( final Log original )
+    {
+        this.debugEnabled = original.isDebugEnabled();
+    }
+
+    synchronized void replay( final Log log )
+    {
+        for ( final Message message : messages )
+        {
+            switch ( message.level )
+            {
+                case DEBUG:
+                    log.debug( message.content, message.error );
+                    break;
+                case INFO:
+                    log.info( message.content, message.error );
+                    break;
+                case WARN:
+                    log.warn( message.content, message.error );
+                    break;
+                default:
+                    log.error( message.content, message.error );
+            }
+        }
+        messages.clear();
+    }
+
+    private synchronized void add( final int level, final CharSequence content, final Throwable error )
+    {
+        if ( level > DEBUG || debugEnabled )
+        {
+            messages.add( new Message( level, content == null ? "" : content.toString(), error ) );
+        }
+    }
+
+    @Override
+    public boolean isDebugEnabled()
+    {
+        return debugEnabled;
+    }
+
+    @Override
+    public void debug( final CharSequence content )
+    {
+        add( DEBUG, content, null );
+    }
+
+    @Override
+    public void debug( final CharSequence content, final Throwable error )
+    {
+        add( DEBUG, content, error );
+    }
+
+    @Override
+    public void debug( final Throwable error )
+    {
+        add( DEBUG, null, error );
+    }
+
+    @Override
+    public boolean isInfoEnabled()
+    {
+        return true;
+    }
+
+    @Override
+    public void info( final CharSequence content )
+    {
+        add( INFO, content, null );
+    }
+
+    @Override
+    public void info( final CharSequence content, final Throwable error )
+    {
+        add( INFO, content, error );
+    }
+
+    @Override
+    public void info( final Throwable error )
+    {
+        add( INFO, null, error );
+    }
+
+    @Override
+    public boolean isWarnEnabled()
+    {
+        return true;
+    }
+
+    @Override
+    public void warn( final CharSequence content )
+    {
+        add( WARN, content, null );
+    }
+
+    @Override
+    public void warn( final CharSequence content, final Throwable error )
+    {
+        add( WARN, content, error );
+    }
+
+    @Override
+    public void warn( final Throwable error )
+    {
+        add( WARN, null, error );
+    }
+
+    @Override
+    public boolean isErrorEnabled()
+    {
+        return true;
+    }
+
+    @Override
+    public void error( final CharSequence content )
+    {
+        add( ERROR, content, null );
+    }
+
+    @Override
+    public void error( final CharSequence content, final Throwable error )
+    {
+        add( ERROR, content, error );
+    }
+
+    @Override
+    public void error( final Throwable error )
+    {
+        add( ERROR, null, error );
+    }
+
+    private static final class Message
+    {
+        private final int level;
+
+        private final String content;
+
+        private final Throwable error;
+
+        Message( final int level, final String content, final Throwable error )
+        {
+            this.level = level;
+            this.content = content;
+            this.error = error;
+        }
+    }
+
+}
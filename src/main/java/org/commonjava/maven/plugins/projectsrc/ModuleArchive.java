@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.SessionData;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The archives of one reactor module (in <code>moduleArchives</code> mode), written by the execution root in the pass of the aggregate
+ * archive and attached by the module's own execution. Kept in the session data, where either side may create it first: under
+ * <code>-T</code>, a module may reach its execution before an aggregator root has started on its own.
+ */
+final class ModuleArchive
+{
+
+    private final CountDownLatch released = new CountDownLatch( 1 );
+
+    private Map<String, File> archives;
+
+    private ModuleArchive()
+    {
+    }
+
+    /**
+     * The archive slot of the module, created if neither side has asked for it yet.
+     */
+    static ModuleArchive get( final MavenSession session, final MavenProject module )
+    {
+        final SessionData data = session.getRepositorySession()
+                                        .getData();
+        final String key = ModuleArchive.class.getName() + ":" + module.getId();
+        final ModuleArchive created = new ModuleArchive();
+        if ( data.set( key, null, created ) )
+        {
+            return created;
+        }
+
+        return (ModuleArchive) data.get( key );
+    }
+
+    /**
+     * Hand the module its archives, or null if the execution root wrote none. Only the first call counts.
+     *
+     * @param archives the file to attach for each artifact type: the formats, and their seek indexes
+     */
+    synchronized void release( final Map<String, File> archives )
+    {
+        if ( released.getCount() > 0 )
+        {
+            this.archives = archives;
+            released.countDown();
+        }
+    }
+
+    /**
+     * Wait up to <code>timeout</code> for the execution root to release the module.
+     *
+     * @return whether it did
+     */
+    boolean await( final long timeout, final TimeUnit unit )
+        throws InterruptedException
+    {
+        return released.await( timeout, unit );
+    }
+
+    /**
+     * The archives released for the module, or null if there are none.
+     */
+    synchronized Map<String, File> getArchives()
+    {
+        return archives;
+    }
+
+}
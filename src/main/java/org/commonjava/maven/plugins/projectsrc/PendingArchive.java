@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.project.MavenProject;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+/**
+ * Archives being written in the background by the <code>archive</code> goal (in async mode), kept in the session data until the
+ * <code>join</code> goal for the same project picks them up.
+ */
+final class PendingArchive
+{
+
+    private final Future<Map<String, File>> archives;
+
+    private final String classifier;
+
+    private final DeferredLog log;
+
+    PendingArchive( final Future<Map<String, File>> archives, final String classifier, final DeferredLog log )
+    {
+        this.archives = archives;
+        this.classifier = classifier;
+        this.log = log;
+    }
+
+    void store( final MavenSession session, final MavenProject project )
+    {
+        session.getRepositorySession()
+               .getData()
+               .set( key( project ), this );
+    }
+
+    /**
+     * Remove and return the pending archive for the project, or null if none was started.
+     */
+    static PendingArchive take( final MavenSession session, final MavenProject project )
+    {
+        final Object key = key( project );
+        final Object pending = session.getRepositorySession()
+                                      .getData()
+                                      .get( key );
+        if ( pending != null )
+        {
+            session.getRepositorySession()
+                   .getData()
+                   .set( key, null );
+        }
+
+        return (PendingArchive) pending;
+    }
+
+    private static String key( final MavenProject project )
+    {
+        return PendingArchive.class.getName() + ":" + project.getId();
+    }
+
+    /**
+     * The archive file for each format, in the configured order, once the background work completes.
+     */
+    Future<Map<String, File>> getArchives()
+    {
+        return archives;
+    }
+
+    String getClassifier()
+    {
+        return classifier;
+    }
+
+    /**
+     * What the background work logged so far.
+     */
+    DeferredLog getLog()
+    {
+        return log;
+    }
+
+}
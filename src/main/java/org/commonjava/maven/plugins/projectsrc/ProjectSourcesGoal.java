@@ -20,8 +20,12 @@ import static java.util.Collections.unmodifiableList;
 
 import org.apache.maven.archiver.MavenArchiveConfiguration;
 import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.execution.BuildFailure;
 import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.assembly.AssemblerConfigurationSource;
@@ -42,10 +46,42 @@ import org.apache.maven.plugins.annotations.ResolutionScope;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
 import org.apache.maven.shared.filtering.MavenFileFilter;
+import org.commonjava.maven.plugins.projectsrc.archive.ArchiveEntry;
+import org.commonjava.maven.plugins.projectsrc.archive.ArchiveEntrySource;
+import org.commonjava.maven.plugins.projectsrc.archive.ArchiveSink;
+import org.commonjava.maven.plugins.projectsrc.archive.ArchiveSinks;
+import org.commonjava.maven.plugins.projectsrc.archive.ChecksumSet;
+import org.commonjava.maven.plugins.projectsrc.archive.CompressionCache;
+import org.commonjava.maven.plugins.projectsrc.archive.DeduplicatingEntrySource;
+import org.commonjava.maven.plugins.projectsrc.archive.IncompressibleContent;
+import org.commonjava.maven.plugins.projectsrc.archive.MultiSinkArchiver;
+import org.commonjava.maven.plugins.projectsrc.archive.RoutingArchiveSink;
+import org.commonjava.maven.plugins.projectsrc.archive.SeekIndex;
+import org.commonjava.maven.plugins.projectsrc.archive.WorkerPool;
+import org.commonjava.maven.plugins.projectsrc.delta.BaselineArchive;
+import org.commonjava.maven.plugins.projectsrc.delta.SourceDelta;
+import org.commonjava.maven.plugins.projectsrc.incremental.FingerprintStore;
+import org.commonjava.maven.plugins.projectsrc.incremental.SourceFingerprint;
+import org.commonjava.maven.plugins.projectsrc.report.ArchiveReport;
+import org.commonjava.maven.plugins.projectsrc.report.ContentAnalytics;
+import org.commonjava.maven.plugins.projectsrc.report.SizeEstimate;
+import org.commonjava.maven.plugins.projectsrc.scan.ProjectSourcesScanner;
+import org.commonjava.maven.plugins.projectsrc.scan.ScanPipeline;
+import org.commonjava.maven.plugins.projectsrc.scan.TreeSnapshot;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Goal that wraps an invocation of the <code>project</code> built-in assembly descriptor (in the assembly plugin). This allows drastically simpler
@@ -105,6 +141,9 @@ public class ProjectSourcesGoal
     @Parameter( defaultValue = "${project}", required = true, readonly = true )
     protected MavenProject project;
 
+    @Parameter( defaultValue = "${mojoExecution}", required = true, readonly = true )
+    protected MojoExecution mojoExecution;
+
     /**
      * Temporary directory that contain the files to be assembled.
      */
@@ -112,89 +151,1517 @@ public class ProjectSourcesGoal
     protected File tempRoot;
 
     /**
-     * Directory to unpack JARs into if needed
+     * Directory to unpack JARs into if needed
+     */
+    @Parameter( defaultValue = "${project.build.directory}/projectsrc-work", required = true )
+    protected File workDirectory;
+
+    /**
+     * The output directory of the assembled distribution file.
+     */
+    @Parameter( defaultValue = "${project.build.directory}", required = true, readonly = true )
+    protected File outputDirectory;
+
+    /**
+     * The filename of the assembled distribution file.
+     */
+    @Parameter( defaultValue = "${project.build.finalName}", required = true, readonly = true )
+    protected String finalName;
+
+    /**
+     * When set to 'true' the project-sources.zip will NOT be produced during the build.
+     */
+    @Parameter( property = "project.src.skip" )
+    protected boolean skipProjectSources;
+
+    /**
+     * Allow to specify formats to be generated. Default value is "tar.gz". Please follow link below for list of possible values
+     * @see <a href="https://maven.apache.org/plugins/maven-assembly-plugin/single-mojo.html#formats">https://maven.apache.org/plugins/maven-assembly-plugin/single-mojo.html#formats</a>
+     *
+     */
+    @Parameter( property = "formats", defaultValue = "tar.gz")
+    protected String formats;
+
+    /**
+     * Number of threads used to compress tar.gz (and tgz) archives. Any value above 1 writes these formats with a block-parallel gzip
+     * compressor (in the manner of pigz) instead of the assembly archiver. The output is still a single standard gzip stream.
+     */
+    @Parameter( property = "project.src.gzipThreads", defaultValue = "1" )
+    protected int gzipThreads;
+
+    /**
+     * Size in bytes of the blocks compressed independently when <code>gzipThreads</code> is above 1. Larger blocks compress slightly better;
+     * smaller blocks spread the work more evenly over the threads.
+     */
+    @Parameter( property = "project.src.gzipBlockSize", defaultValue = "131072" )
+    protected int gzipBlockSize;
+
+    /**
+     * Number of threads used to deflate zip entries. Any value above 1 writes the zip format with an engine that compresses entries
+     * concurrently and then writes them to the archive in a fixed order, instead of using the assembly archiver.
+     */
+    @Parameter( property = "project.src.zipThreads", defaultValue = "1" )
+    protected int zipThreads;
+
+    /**
+     * Compression preset (0-9) for the tar.xz (and txz) formats, as for <code>xz -0</code> to <code>xz -9</code>. These formats are always
+     * written by the plugin itself; the assembly archiver cannot produce them.
+     */
+    @Parameter( property = "project.src.xzLevel", defaultValue = "6" )
+    protected int xzLevel;
+
+    /**
+     * Number of threads used to compress tar.xz (and txz) archives. Any value above 1 splits the input into blocks of three times the
+     * dictionary size and compresses them concurrently, in the manner of <code>xz -T</code>; the output is a single standard xz stream. Each
+     * thread needs the encoder memory of the chosen preset (about 94MB at the default level) plus one block.
+     */
+    @Parameter( property = "project.src.xzThreads", defaultValue = "1" )
+    protected int xzThreads;
+
+    /**
+     * Compression level for the tar.zst (and tzst) formats, from 1 to 19 (negative values select the fast levels). These formats are always
+     * written by the plugin itself.
+     */
+    @Parameter( property = "project.src.zstdLevel", defaultValue = "3" )
+    protected int zstdLevel;
+
+    /**
+     * Number of worker threads used to compress tar.zst (and tzst) archives. Any value above 1 enables zstd's multithreaded mode.
+     */
+    @Parameter( property = "project.src.zstdThreads", defaultValue = "1" )
+    protected int zstdThreads;
+
+    /**
+     * When set to 'true', the source tree is scanned once and each file is read a single time, then written to all configured formats
+     * concurrently instead of running the assembly archiver once per format. Formats that cannot be written this way (anything other than
+     * zip, tar, tar.gz, tgz, tar.bz2, tbz2, tar.xz, txz, tar.zst, tzst and dir) still go through the assembly archiver.
+     */
+    @Parameter( property = "project.src.singleScan", defaultValue = "false" )
+    protected boolean singleScan;
+
+    /**
+     * When set to 'true', every format is written by streaming each source file straight into the output archive(s), with no staging in
+     * <code>tempRoot</code> and no intermediate copies on disk. The temporary directories are not created in this mode. Unlike
+     * <code>singleScan</code>, the build fails if a configured format cannot be written this way rather than falling back to the assembly
+     * archiver.
+     */
+    @Parameter( property = "project.src.streaming", defaultValue = "false" )
+    protected boolean streaming;
+
+    /**
+     * When set to 'true', a fingerprint of the included files (paths, sizes, modification times) is kept in the work directory. If it
+     * matches on the next build and the archive from that build is still in the output directory, the archive is attached again instead of
+     * being rebuilt.
+     */
+    @Parameter( property = "project.src.incremental", defaultValue = "false" )
+    protected boolean incremental;
+
+    /**
+     * When set to 'true' along with <code>incremental</code>, the fingerprint also covers file contents. This catches changes that keep
+     * size and modification time intact, at the cost of reading every file to decide whether the archive can be reused.
+     */
+    @Parameter( property = "project.src.fingerprintContents", defaultValue = "false" )
+    protected boolean fingerprintContents;
+
+    /**
+     * When set to 'true', compressed zip entries and gzip blocks are kept in a local cache keyed by the digest of their content and the
+     * compression settings. Later builds copy unchanged entries (and unchanged leading blocks of gzip streams) from the cache instead of
+     * compressing them again. Implies the plugin's own zip and tar.gz writers.
+     */
+    @Parameter( property = "project.src.compressionCache", defaultValue = "false" )
+    protected boolean compressionCache;
+
+    /**
+     * Location of the compression cache.
+     */
+    @Parameter( defaultValue = "${project.build.directory}/projectsrc-work/compression-cache", required = true )
+    protected File compressionCacheDirectory;
+
+    /**
+     * Maximum total size in bytes of the compression cache. Least recently used items are removed after each build to stay within it.
+     */
+    @Parameter( property = "project.src.compressionCacheMaxSize", defaultValue = "268435456" )
+    protected long compressionCacheMaxSize;
+
+    /**
+     * When set to 'true' (the default), files that are already compressed (jars, zips, PNGs, ...; recognized by extension) are stored in zip
+     * archives instead of being deflated again, and the parallel gzip writer stores blocks of near-random data. Applies to the formats
+     * written by the plugin itself.
+     */
+    @Parameter( property = "project.src.storeIncompressible", defaultValue = "true" )
+    protected boolean storeIncompressible;
+
+    /**
+     * When set to 'true', files not recognized by their extension are also stored if a sample of their first 4KB looks incompressible.
+     * Only used with <code>storeIncompressible</code>.
+     */
+    @Parameter( property = "project.src.sampleEntropy", defaultValue = "false" )
+    protected boolean sampleEntropy;
+
+    /**
+     * When set to 'true', a file whose content is identical to that of a file already written is not stored again: tar formats record it as
+     * a hard link to the earlier entry, and zip lists it in <code>project-sources-duplicates.txt</code> at the root of the archive (one
+     * line per file: its name, a tab, and the name of the entry to copy). Applies to the formats written by the plugin itself.
+     */
+    @Parameter( property = "project.src.deduplicate", defaultValue = "false" )
+    protected boolean deduplicate;
+
+    /**
+     * A previous project-sources archive (zip or tar, compressed or not) to write a delta archive against. The delta holds only the files
+     * that were added or modified since, plus <code>project-sources-deleted.txt</code> listing the paths that were removed. It is attached
+     * with the classifier <code>project-sources-delta</code>.
+     */
+    @Parameter( property = "project.src.deltaBaseline" )
+    protected File deltaBaseline;
+
+    /**
+     * Version of this project whose project-sources archive, looked up in the local repository, serves as the delta baseline. Ignored when
+     * <code>deltaBaseline</code> is set. If no such archive is installed, no delta is written.
+     */
+    @Parameter( property = "project.src.deltaBaselineVersion" )
+    protected String deltaBaselineVersion;
+
+    /**
+     * Format of the delta archive.
+     */
+    @Parameter( property = "project.src.deltaFormat", defaultValue = "tar.gz" )
+    protected String deltaFormat;
+
+    /**
+     * Comma-separated checksums to write next to each archive, e.g. <code>sha1,sha256,sha512</code>. Each one goes to a sidecar file named
+     * after the archive plus the algorithm (<code>...-project-sources.tar.gz.sha256</code>) holding the hex digest. For the tar formats
+     * the plugin writes itself, the digests are computed while the archive is written; other archives are read once more afterwards.
+     */
+    @Parameter( property = "project.src.checksums" )
+    protected String checksums;
+
+    /**
+     * When set to 'true', tar.gz (tgz) and tar.zst (tzst) archives are written in blocks that can each be decompressed on their own, and an
+     * index mapping every file to the block holding its content is attached next to each of them (type <code>tar.gz.index</code>, ...).
+     * A reader can then extract one file by decompressing only the blocks it spans. Gzip blocks are <code>gzipBlockSize</code> bytes and
+     * are compressed without the previous block as dictionary, which costs a little compression; zstd ends a frame every
+     * <code>zstdFrameSize</code> bytes. Implies the plugin's own tar.gz writer.
+     */
+    @Parameter( property = "project.src.seekIndex", defaultValue = "false" )
+    protected boolean seekIndex;
+
+    /**
+     * Uncompressed size in bytes of each zstd frame when <code>seekIndex</code> is set.
+     */
+    @Parameter( property = "project.src.zstdFrameSize", defaultValue = "1048576" )
+    protected int zstdFrameSize;
+
+    /**
+     * When set to 'true', the files of a project inside a git work tree are listed from the git index (<code>.git/index</code>) instead of
+     * by walking the project directory, so only tracked files are considered and ignored trees are never visited. The index is read
+     * directly; no <code>git</code> process is started. Projects that are not in a git work tree are scanned as usual. Applies to the
+     * formats written by the plugin itself (see <code>singleScan</code>, <code>streaming</code>).
+     */
+    @Parameter( property = "project.src.gitIndex", defaultValue = "false" )
+    protected boolean gitIndex;
+
+    /**
+     * When set to 'true', files and directories ignored by <code>.gitignore</code> files (in the scanned directory, below it, and above it up
+     * to the top of the git work tree), by <code>.git/info/exclude</code>, or by the <code>.hgignore</code> of a Mercurial repository are
+     * left out of the archive, on top of the descriptor's exclusions. Ignored directories are never entered. With <code>gitIndex</code>,
+     * tracked files are archived even if they match an ignore rule, as git itself does. Applies to the formats written by the plugin itself
+     * (see <code>singleScan</code>, <code>streaming</code>).
+     */
+    @Parameter( property = "project.src.ignoreFiles", defaultValue = "false" )
+    protected boolean ignoreFiles;
+
+    /**
+     * When set to 'true', directory listings and file content digests are kept in memory after the build, and directories are watched for
+     * changes. A later build in the same JVM (under the Maven daemon, <code>mvnd</code>) lists again only the directories that changed, and
+     * <code>fingerprintContents</code> hashes again only the files that changed. Has no effect on a JVM that runs a single build, or where
+     * the platform has no native file change notification. Applies to walked file sets of the formats written by the plugin itself (see
+     * <code>singleScan</code>, <code>streaming</code>).
+     */
+    @Parameter( property = "project.src.treeSnapshot", defaultValue = "false" )
+    protected boolean treeSnapshot;
+
+    /**
+     * When set to 'true' (the default), the wall time of each phase of the goal and the size and compression ratio of each archive are
+     * written to <code>project-sources-report.json</code> in the output directory. A one-line summary is logged either way.
+     */
+    @Parameter( property = "project.src.report", defaultValue = "true" )
+    protected boolean report;
+
+    /**
+     * When set to 'true', nothing is archived or attached. The included files are listed instead, and the goal logs their count and total
+     * size, the largest directories, and a predicted size for each configured format, obtained by compressing a sample of the content. The
+     * same figures are written to <code>project-sources-estimate.json</code> in the output directory.
+     */
+    @Parameter( property = "project.src.estimate", defaultValue = "false" )
+    protected boolean estimate;
+
+    /**
+     * Number of bytes of content compressed to predict archive sizes in <code>estimate</code> mode, read in 64KB chunks spread evenly over
+     * all files. Trees smaller than this are compressed whole.
+     */
+    @Parameter( property = "project.src.estimateSampleSize", defaultValue = "4194304" )
+    protected long estimateSampleSize;
+
+    /**
+     * When set to 'true', the single pass that writes the archives also breaks their content down by directory and by file extension: raw
+     * and deflated bytes, compression ratio, and the time spent on each directory. The top entries of each ranking are logged and written
+     * to <code>${finalName}-project-sources-analytics.json</code> next to the archives. Like <code>singleScan</code>, this makes the plugin
+     * write every format it supports itself.
+     */
+    @Parameter( property = "project.src.analytics", defaultValue = "false" )
+    protected boolean analytics;
+
+    /**
+     * Number of directories and extensions listed in each ranking of the <code>analytics</code> report.
+     */
+    @Parameter( property = "project.src.analyticsTop", defaultValue = "20" )
+    protected int analyticsTop;
+
+    /**
+     * When set to 'true', the source tree is scanned when this goal runs, but the archives are written on a background thread while the
+     * rest of the build carries on. The <code>join</code> goal (bound to the package phase by default) waits for them and attaches them to
+     * the project, so it must be configured as well; the build fails if it isn't. Like <code>streaming</code>, every format must be one the
+     * plugin can write itself. Source files must not be modified by the build while they are being archived. If the build ends before the
+     * <code>join</code> goal runs, the JVM still waits for the archives to be complete before exiting.
+     */
+    @Parameter( property = "project.src.async", defaultValue = "false" )
+    protected boolean async;
+
+    /**
+     * When set to 'true', an archive is also written for each reactor module below the execution root, and attached to that module with
+     * the <code>project-sources</code> classifier, so it is installed and deployed along with the module. It holds the files of the
+     * aggregate archive that lie in the module's directory, under the module's final name. All archives are written in the execution root's
+     * single pass, so each file is read once, into the root's output directory (under <code>module-archives</code>), where the modules'
+     * own <code>clean</code> leaves them alone; each module's execution waits for its archive and attaches it. Like
+     * <code>streaming</code>, every format must be one the plugin can write itself, and <code>deduplicate</code> is not applied.
+     */
+    @Parameter( property = "project.src.moduleArchives", defaultValue = "false" )
+    protected boolean moduleArchives;
+
+    /**
+     * Number of threads shared by all parallel work of the goal: the blocks and entries of <code>gzipThreads</code>, <code>xzThreads</code>
+     * and <code>zipThreads</code> all queue up for them, zstd's native workers (<code>zstdThreads</code>) are taken from them while a
+     * zstd archive is written, and <code>moduleArchives</code> compresses that many module archives at once. By default, the number of processors available to the build (lowered to the CPU quota of its cgroup, in a
+     * container) divided by the build's degree of concurrency (<code>-T</code>).
+     */
+    @Parameter( property = "project.src.threads", defaultValue = "0" )
+    protected int threads;
+
+    /**
+     * Bytes of memory the parallel compressors may hold in blocks and entries waiting to be compressed or written, including the encoder
+     * state of each xz block being compressed, all formats together. When it is used up, compressors write out finished blocks before
+     * submitting new ones, and one with nothing in flight goes ahead with a single block. By default, a quarter of the maximum heap.
+     */
+    @Parameter( property = "project.src.maxMemory", defaultValue = "0" )
+    protected long maxMemory;
+
+    private List<ArchiveEntry> entries;
+
+    private List<String> checksumNames;
+
+    private ArchiveReport archiveReport;
+
+    private TreeSnapshot snapshot;
+
+    private WorkerPool workerPool;
+
+    private boolean snapshotRefreshed;
+
+    /**
+     * With <code>moduleArchives</code>, at the execution root: the files to attach to each module, complete once all archives are written.
+     */
+    private Map<MavenProject, Map<String, File>> moduleArchiveFiles;
+
+    private boolean modulesWritten;
+
+    private boolean asyncStarted;
+
+    protected ProjectSourcesGoal()
+    {
+    }
+
+    @Override
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        final boolean executionRoot = isThisTheExecutionRoot();
+        try
+        {
+            archive( executionRoot );
+        }
+        finally
+        {
+            // modules may be waiting for their archives; in async mode, they get them when the background work ends.
+            if ( executionRoot && !asyncStarted )
+            {
+                releaseModules();
+            }
+        }
+    }
+
+    private void archive( final boolean executionRoot )
+        throws MojoExecutionException, MojoFailureException
+    {
+        if ( skipProjectSources )
+        {
+            getLog().info( "Assemblies have been skipped per configuration of the skipAssembly parameter." );
+            return;
+        }
+
+        // run only at the execution root, and in the modules below it with moduleArchives.
+        if ( !executionRoot )
+        {
+            if ( !moduleArchives || !isBelowExecutionRoot() )
+            {
+                getLog().info( "Skipping the assembly in this project because it's not the Execution Root" );
+                return;
+            }
+
+            final MavenProject root = getExecutionRootProject();
+            if ( root != null && isGoalBound( root, mojoExecution.getGoal() ) && attachModuleArchives( root ) )
+            {
+                return;
+            }
+
+            getLog().info( "The execution root wrote no archive for this module; archiving its sources here." );
+        }
+
+        archiveReport = new ArchiveReport( getProject().getId() );
+        long start = System.nanoTime();
+
+        final List<String> assemblyFormats = getAssemblyFormats( formats );
+        if ( streaming )
+        {
+            checkNativeFormats( assemblyFormats, "streaming" );
+        }
+        if ( async )
+        {
+            checkNativeFormats( assemblyFormats, "async" );
+            checkJoinBound();
+        }
+        if ( executionRoot && moduleArchives )
+        {
+            checkNativeFormats( assemblyFormats, "moduleArchives" );
+            if ( deduplicate )
+            {
+                getLog().warn( "Duplicate files are not written as links when module archives are written." );
+                deduplicate = false;
+            }
+            moduleArchiveFiles = new LinkedHashMap<MavenProject, Map<String, File>>();
+        }
+
+        final Assembly assembly = getAssembly( assemblyFormats );
+        checksumNames = getChecksumNames();
+        archiveReport.phase( "readAssemblies", start );
+
+        try
+        {
+            final String fullName = AssemblyFormatUtils.getDistributionName( assembly, this );
+
+            AssemblerConfigurationSource configSourceForArchive = assemblyRootFolderNameDiffersFromFinalName() ? createConfigSourceForArchive(this) : this;
+
+            final String rootFolder = getRootFolder( assembly, configSourceForArchive );
+
+            if ( estimate )
+            {
+                writeEstimate( assembly, rootFolder );
+                return;
+            }
+
+            FingerprintStore fingerprints = null;
+            String fingerprint = null;
+            final Map<String, String> formatFingerprints = new HashMap<String, String>();
+            final Map<String, File> reused = new HashMap<String, File>();
+            if ( incremental )
+            {
+                final List<ArchiveEntry> sourceEntries = getEntries( assembly, rootFolder );
+
+                start = System.nanoTime();
+                fingerprints = new FingerprintStore( workDirectory ).load();
+                fingerprint = SourceFingerprint.compute( sourceEntries, fingerprintContents, getSnapshot(), fullName, rootFolder,
+                                                         getArchiveSettings() );
+
+                // the assembly archiver applies neither gitIndex nor ignoreFiles, so the formats it writes are fingerprinted from what it
+                // archives.
+                String assemblyFingerprint = fingerprint;
+                if ( ( gitIndex || ignoreFiles ) && hasAssemblyFormats( assembly ) )
+                {
+                    assemblyFingerprint = SourceFingerprint.compute( newScanner( false ).scan( assembly, rootFolder ), fingerprintContents,
+                                                                     getSnapshot(), fullName, rootFolder, getArchiveSettings() );
+                }
+                archiveReport.phase( "fingerprint", start );
+
+                for ( final String format : assembly.getFormats() )
+                {
+                    final String formatFingerprint = isNativeFormat( format ) ? fingerprint : assemblyFingerprint;
+                    formatFingerprints.put( format, formatFingerprint );
+
+                    final File destFile = ArchiveSinks.getDestination( format, outputDirectory, fullName );
+                    if ( fingerprints.isUpToDate( format, formatFingerprint, destFile ) && moduleArchivesExist( format ) )
+                    {
+                        getLog().info( "Project sources are unchanged; reusing " + destFile );
+                        reused.put( format, destFile );
+                        if ( moduleArchiveFiles != null )
+                        {
+                            for ( final MavenProject module : getArchivedModules() )
+                            {
+                                addModuleArchive( module, format, getModuleArchive( module, format ) );
+                            }
+                        }
+                        archiveReport.format( format, ArchiveReport.ENGINE_REUSED, 0, destFile );
+                    }
+                }
+            }
+
+            if ( deltaBaseline != null || deltaBaselineVersion != null )
+            {
+                createDeltaArchive( assembly, fullName, rootFolder );
+            }
+
+            if ( async )
+            {
+                startAsync( assembly, fullName, rootFolder, reused, fingerprints, fingerprint );
+                return;
+            }
+
+            final Map<String, File> nativeArchives = createNativeArchives( assembly, fullName, rootFolder, reused.keySet() );
+
+            for ( final String format : assembly.getFormats() )
+            {
+                File destFile = reused.get( format );
+                if ( destFile == null )
+                {
+                    destFile = nativeArchives.get( format );
+                }
+                if ( destFile == null )
+                {
+                    start = System.nanoTime();
+                    destFile = archiver.createArchive( assembly, fullName, format, configSourceForArchive, true );
+                    archiveReport.format( format, ArchiveReport.ENGINE_ASSEMBLY, archiveReport.phase( "assemble", start ) - start,
+                                          destFile );
+                }
+
+                if ( fingerprints != null && !reused.containsKey( format ) )
+                {
+                    fingerprints.update( format, formatFingerprints.get( format ), destFile );
+                }
+
+                if ( !nativeArchives.containsKey( format ) )
+                {
+                    start = System.nanoTime();
+                    writeChecksums( destFile, null, reused.containsKey( format ) );
+                    archiveReport.phase( "checksums", start );
+                }
+
+                start = System.nanoTime();
+                final MavenProject project = getProject();
+                projectHelper.attachArtifact( project, format, assembly.getId(), destFile );
+                final File indexFile = getSeekIndexFile( format, destFile );
+                if ( indexFile != null )
+                {
+                    projectHelper.attachArtifact( project, format + SeekIndex.EXTENSION, assembly.getId(), indexFile );
+                }
+                archiveReport.phase( "attach", start );
+            }
+
+            if ( fingerprints != null && reused.size() < assembly.getFormats()
+                                                              .size() )
+            {
+                saveFingerprints( fingerprints );
+            }
+
+            modulesWritten = true;
+            writeReport();
+        }
+        catch ( final IOException e )
+        {
+            throw new MojoExecutionException( "Failed to create project sources archive: " + e.getMessage(), e );
+        }
+        catch ( final ArchiveCreationException e )
+        {
+            throw new MojoExecutionException( "Failed to create assembly: " + e.getMessage(), e );
+        }
+        catch ( final AssemblyFormattingException e )
+        {
+            throw new MojoExecutionException( "Failed to create assembly: " + e.getMessage(), e );
+        }
+        catch ( final InvalidAssemblerConfigurationException e )
+        {
+            throw new MojoFailureException( assembly, "Assembly is incorrectly configured: " + assembly.getId(),
+                                            "Assembly: " + assembly.getId() + " is not configured correctly: "
+                                                + e.getMessage() );
+        }
+    }
+
+    private void checkNativeFormats( final List<String> assemblyFormats, final String mode )
+        throws MojoFailureException
+    {
+        final List<String> unsupported = new ArrayList<String>();
+        for ( final String format : assemblyFormats )
+        {
+            if ( !ArchiveSinks.isSupported( format ) )
+            {
+                unsupported.add( format );
+            }
+        }
+
+        if ( !unsupported.isEmpty() )
+        {
+            throw new MojoFailureException( "The " + mode + " mode cannot write format(s): " + unsupported
+                + ". Use one of zip, tar, tar.gz, tgz, tar.bz2, tbz2, tar.xz, txz, tar.zst, tzst or dir, or disable " + mode + "." );
+        }
+    }
+
+    /**
+     * Fail unless the <code>join</code> goal, which attaches the archives written in the background, runs in this project: bound in one of
+     * the plugin's executions or given on the command line.
+     */
+    private void checkJoinBound()
+        throws MojoFailureException
+    {
+        if ( !isGoalBound( getProject(), "join" ) )
+        {
+            throw new MojoFailureException( "The async mode needs the join goal to attach the archives written in the background, but it is "
+                + "not bound in this project. Add <goal>join</goal> to the plugin's executions, or disable async." );
+        }
+    }
+
+    /**
+     * Whether this plugin's <code>goal</code> runs in <code>project</code>: bound in one of the plugin's executions or given on the command
+     * line.
+     */
+    @SuppressWarnings( "unchecked" )
+    private boolean isGoalBound( final MavenProject project, final String goal )
+    {
+        final String key = mojoExecution.getMojoDescriptor()
+                                        .getPluginDescriptor()
+                                        .getPluginLookupKey();
+        for ( final Plugin plugin : (List<Plugin>) project.getBuildPlugins() )
+        {
+            if ( !key.equals( plugin.getKey() ) )
+            {
+                continue;
+            }
+
+            for ( final PluginExecution execution : (List<PluginExecution>) plugin.getExecutions() )
+            {
+                if ( ( (List<String>) execution.getGoals() ).contains( goal ) )
+                {
+                    return true;
+                }
+            }
+        }
+
+        for ( final String sessionGoal : mavenSession.getGoals() )
+        {
+            if ( sessionGoal.endsWith( ":" + goal ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Whether the given format should be written by the plugin itself rather than by the assembly archiver.
+     */
+    private boolean isNativeFormat( final String format )
+    {
+        if ( !ArchiveSinks.isSupported( format ) )
+        {
+            return false;
+        }
+
+        final boolean gzip = ArchiveSinks.isGzipFormat( format );
+        final boolean zip = "zip".equals( format );
+        return ArchiveSinks.isNativeOnly( format ) || streaming || async || singleScan || analytics || moduleArchives || ( gzipThreads > 1 && gzip ) || ( zipThreads > 1 && zip ) || ( compressionCache && ( gzip || zip ) ) || ( seekIndex && gzip );
+    }
+
+    /**
+     * Snapshot the source tree now, then write all formats on a background thread. The result is left in the session data for the
+     * <code>join</code> goal to attach. From then on, this mojo belongs to the background thread; what it logs is kept for the
+     * <code>join</code> goal to log.
+     */
+    private void startAsync( final Assembly assembly, final String fullName, final String rootFolder, final Map<String, File> reused,
+                             final FingerprintStore fingerprints, final String fingerprint )
+        throws IOException
+    {
+        getEntries( assembly, rootFolder );
+
+        final FutureTask<Map<String, File>> task = new FutureTask<Map<String, File>>( new Callable<Map<String, File>>()
+        {
+            @Override
+            public Map<String, File> call()
+                throws MojoExecutionException
+            {
+                final Map<String, File> nativeArchives = createNativeArchives( assembly, fullName, rootFolder, reused.keySet() );
+
+                final Map<String, File> result = new LinkedHashMap<String, File>();
+                for ( final String format : assembly.getFormats() )
+                {
+                    File destFile = reused.get( format );
+                    if ( destFile == null )
+                    {
+                        destFile = nativeArchives.get( format );
+                        if ( fingerprints != null )
+                        {
+                            fingerprints.update( format, fingerprint, destFile );
+                        }
+                    }
+                    else
+                    {
+                        final long start = System.nanoTime();
+                        try
+                        {
+                            writeChecksums( destFile, null, true );
+                        }
+                        catch ( final IOException e )
+                        {
+                            throw new MojoExecutionException( "Failed to write checksums for " + destFile + ": " + e.getMessage(), e );
+                        }
+                        archiveReport.phase( "checksums", start );
+                    }
+
+                    result.put( format, destFile );
+                    final File indexFile = getSeekIndexFile( format, destFile );
+                    if ( indexFile != null )
+                    {
+                        result.put( format + SeekIndex.EXTENSION, indexFile );
+                    }
+                }
+
+                if ( fingerprints != null && !nativeArchives.isEmpty() )
+                {
+                    saveFingerprints( fingerprints );
+                }
+
+                modulesWritten = true;
+                writeReport();
+                return result;
+            }
+        } );
+
+        getLog().info( "Archiving project sources in the background; the join goal will attach them." );
+        asyncStarted = true;
+        final DeferredLog deferredLog = new DeferredLog( getLog() );
+        setLog( deferredLog );
+
+        // Maven exits the JVM once the build ends, non-daemon threads or not; an archive cut off there would be left truncated.
+        final Thread exitHook = new Thread( "projectsrc-async-exit-" + getProject().getArtifactId() )
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    task.get();
+                }
+                catch ( final InterruptedException e )
+                {
+                    Thread.currentThread()
+                          .interrupt();
+                }
+                catch ( final ExecutionException e )
+                {
+                    // reported by the join goal, if it runs.
+                }
+            }
+        };
+        Runtime.getRuntime()
+               .addShutdownHook( exitHook );
+
+        final Thread thread = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    releaseModules();
+                    removeExitHook( exitHook );
+                }
+            }
+        }, "projectsrc-async-" + getProject().getArtifactId() );
+        thread.start();
+
+        new PendingArchive( task, assembly.getId(), deferredLog ).store( mavenSession, getProject() );
+    }
+
+    private static void removeExitHook( final Thread exitHook )
+    {
+        try
+        {
+            Runtime.getRuntime()
+                   .removeShutdownHook( exitHook );
+        }
+        catch ( final IllegalStateException e )
+        {
+            // the JVM is already exiting, and the hook is waiting for this very task.
+        }
+    }
+
+    /**
+     * Write every format selected by {@link #isNativeFormat(String)} in one pass over the source tree.
+     *
+     * @return the archive created for each format, keyed by format name
+     */
+    private Map<String, File> createNativeArchives( final Assembly assembly, final String fullName, final String rootFolder,
+                                                    final Set<String> skippedFormats )
+        throws MojoExecutionException
+    {
+        final ArchiveSinks sinkFactory = newSinkFactory();
+        final CompressionCache cache =
+            compressionCache ? new CompressionCache( compressionCacheDirectory, compressionCacheMaxSize ) : null;
+        sinkFactory.setCompressionCache( cache );
+
+        final List<ArchiveSink> sinks = new ArrayList<ArchiveSink>();
+        final Map<ArchiveSink, MavenProject> moduleSinks = new LinkedHashMap<ArchiveSink, MavenProject>();
+        try
+        {
+            for ( final String format : assembly.getFormats() )
+            {
+                if ( isNativeFormat( format ) && !skippedFormats.contains( format ) )
+                {
+                    sinks.add( sinkFactory.create( format, outputDirectory, fullName ) );
+                }
+            }
+
+            final Map<String, File> result = new HashMap<String, File>();
+            if ( sinks.isEmpty() )
+            {
+                return result;
+            }
+
+            // one more sink, so the breakdown costs neither a second read of the tree nor time on the archive threads.
+            final List<ArchiveSink> passSinks = new ArrayList<ArchiveSink>( sinks );
+            if ( moduleArchiveFiles != null )
+            {
+                passSinks.addAll( createModuleSinks( assembly, sinkFactory, sinks, moduleSinks ) );
+            }
+            ContentAnalytics contentAnalytics = null;
+            if ( analytics )
+            {
+                contentAnalytics = new ContentAnalytics( ContentAnalytics.getFile( outputDirectory, fullName ),
+                                                         ProjectSourcesScanner.getEntryPrefix( rootFolder ), analyticsTop );
+                passSinks.add( contentAnalytics );
+            }
+
+            final long start = System.nanoTime();
+            DeduplicatingEntrySource deduplicated = null;
+            if ( entries != null )
+            {
+                getLog().info( "Writing " + entries.size() + " entries to " + sinks.size() + " format(s) in a single pass." );
+                ArchiveEntrySource source = ArchiveEntrySource.of( entries );
+                if ( deduplicate )
+                {
+                    source = deduplicated = new DeduplicatingEntrySource( source );
+                }
+                new MultiSinkArchiver().archive( source, passSinks );
+            }
+            else
+            {
+                // nothing else needs the whole list, so scan while writing and never hold more than the pipeline's capacity.
+                getLog().info( "Writing project sources to " + sinks.size() + " format(s) in a single pass." );
+                final ScanPipeline pipeline = ScanPipeline.start( newScanner(), assembly, rootFolder, ScanPipeline.DEFAULT_CAPACITY );
+                try
+                {
+                    ArchiveEntrySource source = pipeline;
+                    if ( deduplicate )
+                    {
+                        source = deduplicated = new DeduplicatingEntrySource( source );
+                    }
+                    new MultiSinkArchiver().archive( source, passSinks );
+                }
+                finally
+                {
+                    pipeline.close();
+                }
+                archiveReport.setInput( pipeline.getFiles(), pipeline.getBytes() );
+                logSnapshot();
+            }
+            final long elapsed = archiveReport.phase( "archive", start ) - start;
+
+            if ( deduplicated != null )
+            {
+                getLog().info( String.format( "Wrote %d duplicate file(s) as links to identical entries, skipping %.1f MB of content.",
+                                              deduplicated.getDuplicates(), deduplicated.getDuplicateBytes() / ( 1024.0 * 1024 ) ) );
+            }
+
+            if ( contentAnalytics != null )
+            {
+                writeAnalytics( contentAnalytics );
+            }
+
+            if ( cache != null )
+            {
+                getLog().info( "Compression cache: " + cache.getHits() + " hits, " + cache.getMisses() + " misses." );
+                cache.evict();
+            }
+
+            for ( final ArchiveSink sink : sinks )
+            {
+                writeChecksums( sink.getDestination(), sinkFactory.getChecksums( sink ), false );
+                writeSeekIndex( sinkFactory, sink );
+                result.put( sink.getFormat(), sink.getDestination() );
+                archiveReport.format( sink.getFormat(), ArchiveReport.ENGINE_NATIVE, elapsed, sink.getDestination() );
+            }
+
+            for ( final Map.Entry<ArchiveSink, MavenProject> moduleSink : moduleSinks.entrySet() )
+            {
+                final ArchiveSink sink = moduleSink.getKey();
+                writeChecksums( sink.getDestination(), sinkFactory.getChecksums( sink ), false );
+                writeSeekIndex( sinkFactory, sink );
+                addModuleArchive( moduleSink.getValue(), sink.getFormat(), sink.getDestination() );
+            }
+            if ( !moduleSinks.isEmpty() )
+            {
+                getLog().info( "Wrote " + moduleSinks.size() + " module archive(s)." );
+            }
+
+            return result;
+        }
+        catch ( final IOException e )
+        {
+            for ( final ArchiveSink sink : sinks )
+            {
+                sink.abort();
+            }
+            for ( final ArchiveSink sink : moduleSinks.keySet() )
+            {
+                sink.abort();
+            }
+
+            throw new MojoExecutionException( "Failed to create assembly: " + e.getMessage(), e );
+        }
+    }
+
+    /**
+     * The reactor modules that get an archive of their own: all but the execution root, as long as they lie below it.
+     */
+    private List<MavenProject> getArchivedModules()
+    {
+        final List<MavenProject> modules = new ArrayList<MavenProject>();
+        if ( reactorProjects == null )
+        {
+            return modules;
+        }
+
+        final String root = basedir.getAbsolutePath() + File.separator;
+        for ( final MavenProject module : reactorProjects )
+        {
+            final File moduleDir = module.getBasedir();
+            if ( moduleDir == null || module == getProject() || !moduleDir.getAbsolutePath()
+                                                                          .startsWith( root ) )
+            {
+                continue;
+            }
+
+            modules.add( module );
+        }
+
+        return modules;
+    }
+
+    /**
+     * Where the execution root writes the archive of <code>module</code>: in its own output directory, which the module's
+     * <code>clean</code> doesn't touch, under the module's path.
+     */
+    private File getModuleArchive( final MavenProject module, final String format )
+    {
+        final String path = module.getBasedir()
+                                  .getAbsolutePath()
+                                  .substring( basedir.getAbsolutePath()
+                                                     .length() + 1 );
+        return ArchiveSinks.getDestination( format, new File( new File( outputDirectory, "module-archives" ), path ),
+                                            getModuleFullName( module ) );
+    }
+
+    private static String getModuleFullName( final MavenProject module )
+    {
+        return module.getBuild()
+                     .getFinalName() + "-" + CLASSIFIER;
+    }
+
+    /**
+     * Whether no module archive of <code>format</code> would have to be written, for <code>incremental</code>: the module files are part of
+     * the aggregate fingerprint, so an up-to-date aggregate archive means up-to-date module archives, if they are all still there.
+     */
+    private boolean moduleArchivesExist( final String format )
+    {
+        if ( moduleArchiveFiles == null )
+        {
+            return true;
+        }
+
+        for ( final MavenProject module : getArchivedModules() )
+        {
+            if ( !getModuleArchive( module, format ).exists() )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * A sink per module and format, for the formats in <code>sinks</code>, grouped into one routing sink per thread of the worker pool.
+     *
+     * @param moduleSinks receives each module sink and its module
+     */
+    private List<ArchiveSink> createModuleSinks( final Assembly assembly, final ArchiveSinks sinkFactory, final List<ArchiveSink> sinks,
+                                                 final Map<ArchiveSink, MavenProject> moduleSinks )
+        throws IOException
+    {
+        final List<RoutingArchiveSink.Route> routes = new ArrayList<RoutingArchiveSink.Route>();
+        for ( final MavenProject module : getArchivedModules() )
+        {
+            final String prefix =
+                assembly.isIncludeBaseDirectory() ? ProjectSourcesScanner.getEntryPrefix( module.getBuild()
+                                                                                                .getFinalName() ) : "";
+            for ( final ArchiveSink sink : sinks )
+            {
+                final File archive = getModuleArchive( module, sink.getFormat() );
+                final ArchiveSink moduleSink = sinkFactory.create( sink.getFormat(), archive.getParentFile(), getModuleFullName( module ) );
+                moduleSinks.put( moduleSink, module );
+                routes.add( new RoutingArchiveSink.Route( module.getBasedir(), prefix, moduleSink ) );
+            }
+        }
+
+        final int groupCount = Math.max( 1, Math.min( routes.size(), getWorkerPool().getThreads() ) );
+        final List<List<RoutingArchiveSink.Route>> groups = new ArrayList<List<RoutingArchiveSink.Route>>( groupCount );
+        for ( int i = 0; i < groupCount; i++ )
+        {
+            groups.add( new ArrayList<RoutingArchiveSink.Route>() );
+        }
+        for ( int i = 0; i < routes.size(); i++ )
+        {
+            groups.get( i % groupCount )
+                  .add( routes.get( i ) );
+        }
+
+        final List<ArchiveSink> routing = new ArrayList<ArchiveSink>( groupCount );
+        for ( final List<RoutingArchiveSink.Route> group : groups )
+        {
+            if ( !group.isEmpty() )
+            {
+                routing.add( new RoutingArchiveSink( group ) );
+            }
+        }
+
+        return routing;
+    }
+
+    private void addModuleArchive( final MavenProject module, final String format, final File archive )
+    {
+        Map<String, File> files = moduleArchiveFiles.get( module );
+        if ( files == null )
+        {
+            files = new LinkedHashMap<String, File>();
+            moduleArchiveFiles.put( module, files );
+        }
+
+        files.put( format, archive );
+        final File indexFile = getSeekIndexFile( format, archive );
+        if ( indexFile != null )
+        {
+            files.put( format + SeekIndex.EXTENSION, indexFile );
+        }
+    }
+
+    /**
+     * Hand each module below the execution root its archives, if they were all written, or nothing, so that none waits for this
+     * execution any longer.
+     */
+    private void releaseModules()
+    {
+        for ( final MavenProject module : getArchivedModules() )
+        {
+            final Map<String, File> files = moduleArchiveFiles != null && modulesWritten ? moduleArchiveFiles.get( module ) : null;
+            ModuleArchive.get( mavenSession, module )
+                         .release( files );
+        }
+    }
+
+    /**
+     * Wait for the execution root to write this module's archives, and attach them.
+     *
+     * @return false if the execution root wrote none, e.g. because it doesn't have <code>moduleArchives</code> set
      */
-    @Parameter( defaultValue = "${project.build.directory}/projectsrc-work", required = true )
-    protected File workDirectory;
+    private boolean attachModuleArchives( final MavenProject root )
+        throws MojoExecutionException
+    {
+        final ModuleArchive moduleArchive = ModuleArchive.get( mavenSession, getProject() );
+        try
+        {
+            // under -T, an aggregator root may still be at work, or not even started; it may also have failed before getting here.
+            while ( !moduleArchive.await( 1, TimeUnit.SECONDS ) )
+            {
+                if ( mavenSession.getResult()
+                                 .getBuildSummary( root ) instanceof BuildFailure )
+                {
+                    return false;
+                }
+            }
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+            throw new MojoExecutionException( "Interrupted while waiting for the execution root to write the module archive.", e );
+        }
+
+        final Map<String, File> files = moduleArchive.getArchives();
+        if ( files == null )
+        {
+            return false;
+        }
+
+        for ( final Map.Entry<String, File> file : files.entrySet() )
+        {
+            getLog().info( "Attaching " + file.getValue() + ", written by the execution root." );
+            projectHelper.attachArtifact( getProject(), file.getKey(), CLASSIFIER, file.getValue() );
+        }
+
+        return true;
+    }
+
+    private void writeAnalytics( final ContentAnalytics contentAnalytics )
+    {
+        for ( final String line : contentAnalytics.getSummary() )
+        {
+            getLog().info( line );
+        }
+
+        try
+        {
+            contentAnalytics.write();
+            getLog().info( "Wrote project-sources analytics to " + contentAnalytics.getDestination() );
+        }
+        catch ( final IOException e )
+        {
+            getLog().warn( "Cannot write project-sources analytics to " + contentAnalytics.getDestination() + ": " + e.getMessage() );
+        }
+    }
+
+    private ArchiveSinks newSinkFactory()
+    {
+        final ArchiveSinks sinkFactory = new ArchiveSinks();
+        sinkFactory.setGzipThreads( gzipThreads );
+        sinkFactory.setGzipBlockSize( gzipBlockSize );
+        sinkFactory.setZipThreads( zipThreads );
+        sinkFactory.setXzLevel( xzLevel );
+        sinkFactory.setXzThreads( xzThreads );
+        sinkFactory.setZstdLevel( zstdLevel );
+        sinkFactory.setZstdThreads( zstdThreads );
+        sinkFactory.setIncompressibleContent( storeIncompressible ? new IncompressibleContent( sampleEntropy ) : null );
+        sinkFactory.setChecksums( checksumNames );
+        sinkFactory.setSeekable( seekIndex );
+        sinkFactory.setZstdFrameSize( zstdFrameSize );
+        sinkFactory.setWorkerPool( getWorkerPool() );
+        return sinkFactory;
+    }
 
     /**
-     * The output directory of the assembled distribution file.
+     * The threads and memory every parallel stage of this execution shares, sized on first use.
      */
-    @Parameter( defaultValue = "${project.build.directory}", required = true, readonly = true )
-    protected File outputDirectory;
+    private synchronized WorkerPool getWorkerPool()
+    {
+        if ( workerPool == null )
+        {
+            workerPool = WorkerPool.forBuild( threads, maxMemory, mavenSession.getRequest()
+                                                                              .getDegreeOfConcurrency() );
+            getLog().debug( "Parallel work shares " + workerPool.getThreads() + " thread(s) and "
+                + workerPool.getMaxMemory() / ( 1024 * 1024 ) + "MB of memory." );
+        }
+
+        return workerPool;
+    }
+
+    private void writeSeekIndex( final ArchiveSinks sinkFactory, final ArchiveSink sink )
+        throws IOException
+    {
+        final SeekIndex index = sinkFactory.getSeekIndex( sink );
+        if ( index != null )
+        {
+            index.write( sink.getDestination() );
+        }
+    }
 
     /**
-     * The filename of the assembled distribution file.
+     * The seek index written along with <code>archive</code>, or null if there is none (or only a stale one from an earlier build).
      */
-    @Parameter( defaultValue = "${project.build.finalName}", required = true, readonly = true )
-    protected String finalName;
+    private File getSeekIndexFile( final String format, final File archive )
+    {
+        if ( !seekIndex || !ArchiveSinks.isSeekableFormat( format ) )
+        {
+            return null;
+        }
+
+        final File indexFile = SeekIndex.getFile( archive );
+        return indexFile.lastModified() >= archive.lastModified() ? indexFile : null;
+    }
+
+    private List<String> getChecksumNames()
+        throws MojoFailureException
+    {
+        final List<String> names = new ArrayList<String>();
+        if ( checksums != null )
+        {
+            for ( final String name : checksums.split( "," ) )
+            {
+                if ( name.trim()
+                         .length() > 0 )
+                {
+                    names.add( ChecksumSet.normalize( name ) );
+                }
+            }
+        }
+
+        try
+        {
+            new ChecksumSet( names );
+        }
+        catch ( final IOException e )
+        {
+            throw new MojoFailureException( e.getMessage() );
+        }
+
+        return names;
+    }
 
     /**
-     * When set to 'true' the project-sources.zip will NOT be produced during the build.
+     * Write the configured checksum sidecars for <code>archive</code>, from the digests computed while it was written if there are any, or
+     * by reading it otherwise. A reused archive keeps the sidecars written along with it.
      */
-    @Parameter( property = "project.src.skip" )
-    protected boolean skipProjectSources;
+    private void writeChecksums( final File archive, final ChecksumSet inStream, final boolean reused )
+        throws IOException
+    {
+        if ( checksumNames.isEmpty() || archive.isDirectory() )
+        {
+            return;
+        }
+
+        if ( reused )
+        {
+            boolean complete = true;
+            for ( final String name : checksumNames )
+            {
+                final File sidecar = new File( archive.getPath() + "." + name );
+                complete = complete && sidecar.lastModified() >= archive.lastModified();
+            }
+            if ( complete )
+            {
+                return;
+            }
+        }
+
+        final ChecksumSet checksumSet = inStream != null ? inStream : ChecksumSet.compute( checksumNames, archive );
+        checksumSet.writeSidecars( archive );
+    }
 
     /**
-     * Allow to specify formats to be generated. Default value is "tar.gz". Please follow link below for list of possible values
-     * @see <a href="https://maven.apache.org/plugins/maven-assembly-plugin/single-mojo.html#formats">https://maven.apache.org/plugins/maven-assembly-plugin/single-mojo.html#formats</a>
-     *
+     * Log (and, with <code>report</code>, store) what the archives would contain and how large they would be, without writing them.
      */
-    @Parameter( property = "formats", defaultValue = "tar.gz")
-    protected String formats;
-
-    protected ProjectSourcesGoal()
+    private void writeEstimate( final Assembly assembly, final String rootFolder )
+        throws MojoExecutionException
     {
+        final SizeEstimate sizeEstimate = new SizeEstimate( getProject().getId() );
+        try
+        {
+            sizeEstimate.estimate( getEntries( assembly, rootFolder ), ProjectSourcesScanner.getEntryPrefix( rootFolder ),
+                                   assembly.getFormats(), newSinkFactory(), estimateSampleSize );
+        }
+        catch ( final IOException e )
+        {
+            throw new MojoExecutionException( "Failed to estimate project sources: " + e.getMessage(), e );
+        }
+
+        for ( final String line : sizeEstimate.getSummary() )
+        {
+            getLog().info( line );
+        }
+
+        if ( report )
+        {
+            final File estimateFile = new File( outputDirectory, SizeEstimate.FILENAME );
+            try
+            {
+                sizeEstimate.write( estimateFile );
+            }
+            catch ( final IOException e )
+            {
+                getLog().warn( "Cannot write project-sources estimate to " + estimateFile + ": " + e.getMessage() );
+            }
+        }
     }
 
-    @Override
-    public void execute()
+    /**
+     * Write and attach an archive of what changed since the baseline archive, if one can be found.
+     */
+    private void createDeltaArchive( final Assembly assembly, final String fullName, final String rootFolder )
         throws MojoExecutionException, MojoFailureException
     {
-        if ( skipProjectSources )
+        if ( !ArchiveSinks.isSupported( deltaFormat ) || "dir".equals( deltaFormat ) )
         {
-            getLog().info( "Assemblies have been skipped per configuration of the skipAssembly parameter." );
-            return;
+            throw new MojoFailureException( "Cannot write the delta archive as " + deltaFormat
+                + ". Use one of zip, tar, tar.gz, tgz, tar.bz2, tbz2, tar.xz, txz, tar.zst or tzst." );
         }
 
-        // run only at the execution root.
-        if ( !isThisTheExecutionRoot() )
+        final File baselineFile = findDeltaBaseline( assembly );
+        if ( baselineFile == null )
         {
-            getLog().info( "Skipping the assembly in this project because it's not the Execution Root" );
+            getLog().warn( "No project-sources archive of version " + deltaBaselineVersion
+                               + " in the local repository; skipping the delta archive." );
             return;
         }
 
-        final List<String> assemblyFormats = getAssemblyFormats( formats );
+        final long start = System.nanoTime();
+        final ArchiveSink sink;
+        try
+        {
+            final String prefix = ProjectSourcesScanner.getEntryPrefix( rootFolder );
+            final BaselineArchive baseline = BaselineArchive.read( baselineFile, prefix.length() > 0 );
+            final SourceDelta delta = SourceDelta.compute( baseline, getEntries( assembly, rootFolder ), prefix );
 
-        final Assembly assembly = getAssembly( assemblyFormats );
+            final File deletedFile = File.createTempFile( "project-sources-deleted", ".txt" );
+            final ArchiveSinks sinkFactory = newSinkFactory();
+            try
+            {
+                delta.writeDeleted( deletedFile );
 
-        try
+                final List<ArchiveEntry> deltaEntries = new ArrayList<ArchiveEntry>( delta.getChanged() );
+                deltaEntries.add( ArchiveEntry.file( SourceDelta.DELETED_MANIFEST, deletedFile, deletedFile.length(),
+                                                     delta.getLastModified(), ArchiveEntry.DEFAULT_FILE_MODE ) );
+
+                sink = sinkFactory.create( deltaFormat, outputDirectory, fullName + "-delta" );
+                new MultiSinkArchiver().archive( deltaEntries, Collections.singletonList( sink ) );
+            }
+            finally
+            {
+                if ( !deletedFile.delete() )
+                {
+                    deletedFile.deleteOnExit();
+                }
+            }
+            writeChecksums( sink.getDestination(), sinkFactory.getChecksums( sink ), false );
+            writeSeekIndex( sinkFactory, sink );
+
+            getLog().info( "Delta against " + baselineFile.getName() + ": " + delta.getAdded() + " added, " + delta.getModified()
+                               + " modified, " + delta.getDeleted()
+                                                      .size() + " deleted." );
+        }
+        catch ( final IOException e )
         {
-            final String fullName = AssemblyFormatUtils.getDistributionName( assembly, this );
+            throw new MojoExecutionException( "Failed to create delta archive against " + baselineFile + ": " + e.getMessage(), e );
+        }
 
-            AssemblerConfigurationSource configSourceForArchive = assemblyRootFolderNameDiffersFromFinalName() ? createConfigSourceForArchive(this) : this;
-            for ( final String format : assembly.getFormats() )
+        projectHelper.attachArtifact( getProject(), deltaFormat, assembly.getId() + "-delta", sink.getDestination() );
+        final File indexFile = getSeekIndexFile( deltaFormat, sink.getDestination() );
+        if ( indexFile != null )
+        {
+            projectHelper.attachArtifact( getProject(), deltaFormat + SeekIndex.EXTENSION, assembly.getId() + "-delta", indexFile );
+        }
+        archiveReport.phase( "delta", start );
+    }
+
+    /**
+     * The configured baseline archive, or the project-sources archive of <code>deltaBaselineVersion</code> in the local repository (in the
+     * first configured format that is installed), or null if there is none.
+     */
+    private File findDeltaBaseline( final Assembly assembly )
+        throws MojoFailureException
+    {
+        if ( deltaBaseline != null )
+        {
+            if ( !deltaBaseline.isFile() )
             {
-                final File destFile = archiver.createArchive( assembly, fullName, format, configSourceForArchive, true );
+                throw new MojoFailureException( "Delta baseline archive not found: " + deltaBaseline );
+            }
 
-                final MavenProject project = getProject();
-                projectHelper.attachArtifact( project, format, assembly.getId(), destFile );
+            return deltaBaseline;
+        }
+
+        final MavenProject project = getProject();
+        final String groupPath = project.getGroupId()
+                                        .replace( '.', '/' );
+        final File versionDir =
+            new File( getLocalRepository().getBasedir(), groupPath + "/" + project.getArtifactId() + "/" + deltaBaselineVersion );
+        for ( final String format : assembly.getFormats() )
+        {
+            final File candidate =
+                new File( versionDir, project.getArtifactId() + "-" + deltaBaselineVersion + "-" + assembly.getId() + "." + format );
+            if ( candidate.isFile() )
+            {
+                return candidate;
             }
         }
-        catch ( final ArchiveCreationException e )
+
+        return null;
+    }
+
+    /**
+     * Scan the source tree, at most once per execution.
+     */
+    private List<ArchiveEntry> getEntries( final Assembly assembly, final String rootFolder )
+        throws IOException
+    {
+        if ( entries == null )
         {
-            throw new MojoExecutionException( "Failed to create assembly: " + e.getMessage(), e );
+            final ProjectSourcesScanner scanner = newScanner();
+
+            final long start = System.nanoTime();
+            entries = scanner.scan( assembly, rootFolder );
+            archiveReport.phase( "scan", start );
+            logSnapshot();
+
+            long files = 0;
+            long bytes = 0;
+            for ( final ArchiveEntry entry : entries )
+            {
+                if ( !entry.isDirectory() )
+                {
+                    files++;
+                    bytes += entry.getSize();
+                }
+            }
+            archiveReport.setInput( files, bytes );
         }
-        catch ( final AssemblyFormattingException e )
+
+        return entries;
+    }
+
+    private ProjectSourcesScanner newScanner()
+    {
+        return newScanner( true );
+    }
+
+    /**
+     * @param filtered whether to apply <code>gitIndex</code> and <code>ignoreFiles</code>, which only the formats written by the plugin
+     *            itself honor
+     */
+    private ProjectSourcesScanner newScanner( final boolean filtered )
+    {
+        final ProjectSourcesScanner scanner = new ProjectSourcesScanner( basedir );
+        scanner.setUseGitIndex( filtered && gitIndex );
+        scanner.setUseIgnoreFiles( filtered && ignoreFiles );
+        scanner.setSnapshot( getSnapshot() );
+        return scanner;
+    }
+
+    /**
+     * Whether any of the formats is written by the assembly archiver rather than by the plugin itself.
+     */
+    private boolean hasAssemblyFormats( final Assembly assembly )
+    {
+        for ( final String format : assembly.getFormats() )
         {
-            throw new MojoExecutionException( "Failed to create assembly: " + e.getMessage(), e );
+            if ( !isNativeFormat( format ) )
+            {
+                return true;
+            }
         }
-        catch ( final InvalidAssemblerConfigurationException e )
+
+        return false;
+    }
+
+    /**
+     * The JVM-wide tree snapshot, brought up to date once per execution; null unless <code>treeSnapshot</code> is set and supported.
+     */
+    private TreeSnapshot getSnapshot()
+    {
+        if ( !treeSnapshot || snapshotRefreshed )
         {
-            throw new MojoFailureException( assembly, "Assembly is incorrectly configured: " + assembly.getId(),
-                                            "Assembly: " + assembly.getId() + " is not configured correctly: "
-                                                + e.getMessage() );
+            return snapshot;
+        }
+
+        snapshotRefreshed = true;
+        try
+        {
+            snapshot = TreeSnapshot.getShared();
+            if ( snapshot == null )
+            {
+                getLog().info( "This platform cannot watch directories for changes; the tree snapshot is disabled." );
+            }
+            else
+            {
+                snapshot.refresh();
+            }
+        }
+        catch ( final IOException e )
+        {
+            getLog().warn( "Cannot use the tree snapshot: " + e.getMessage() );
+            snapshot = null;
+        }
+
+        return snapshot;
+    }
+
+    private void logSnapshot()
+    {
+        if ( snapshot != null )
+        {
+            getLog().info( "Tree snapshot: " + snapshot.getReused() + " directories unchanged, " + snapshot.getListed() + " listed." );
+        }
+    }
+
+    /**
+     * Settings that change the bytes of the produced archives, folded into the fingerprint so that changing them forces a rebuild.
+     */
+    private String getArchiveSettings()
+    {
+        return "singleScan=" + singleScan + ",gzipThreads=" + gzipThreads + ",gzipBlockSize=" + gzipBlockSize + ",zipThreads="
+            + zipThreads + ",xzLevel=" + xzLevel + ",xzThreads=" + xzThreads + ",zstdLevel=" + zstdLevel + ",zstdThreads=" + zstdThreads
+            + ",storeIncompressible=" + storeIncompressible + ",sampleEntropy=" + sampleEntropy + ",deduplicate=" + deduplicate + ",seekIndex=" + seekIndex
+            + ",zstdFrameSize=" + zstdFrameSize;
+    }
+
+    private void writeReport()
+    {
+        archiveReport.finish();
+        getLog().info( archiveReport.getSummary() );
+        if ( !report )
+        {
+            return;
+        }
+
+        final File reportFile = new File( outputDirectory, ArchiveReport.FILENAME );
+        try
+        {
+            archiveReport.write( reportFile );
+        }
+        catch ( final IOException e )
+        {
+            getLog().warn( "Cannot write project-sources report to " + reportFile + ": " + e.getMessage() );
+        }
+    }
+
+    private void saveFingerprints( final FingerprintStore fingerprints )
+    {
+        try
+        {
+            fingerprints.save();
+        }
+        catch ( final IOException e )
+        {
+            getLog().warn( "Cannot store project-sources fingerprints; the next build will not be able to reuse these archives: "
+                               + e.getMessage() );
+        }
+    }
+
+    private static String getRootFolder( final Assembly assembly, final AssemblerConfigurationSource configSource )
+    {
+        if ( !assembly.isIncludeBaseDirectory() )
+        {
+            return null;
         }
+
+        return assembly.getBaseDirectory() != null ? assembly.getBaseDirectory() : configSource.getFinalName();
     }
 
     static List<String> getAssemblyFormats(String formats) {
@@ -430,6 +1897,38 @@ public class ProjectSourcesGoal
         return result;
     }
 
+    /**
+     * The reactor project at the execution root directory, or null if there is none.
+     */
+    private MavenProject getExecutionRootProject()
+    {
+        if ( reactorProjects == null )
+        {
+            return null;
+        }
+
+        final File root = new File( mavenSession.getExecutionRootDirectory() );
+        for ( final MavenProject project : reactorProjects )
+        {
+            if ( root.equals( project.getBasedir() ) )
+            {
+                return project;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Whether this project lies below the execution root directory, as the modules it aggregates usually do.
+     */
+    private boolean isBelowExecutionRoot()
+    {
+        final String root = new File( mavenSession.getExecutionRootDirectory() ).getAbsolutePath() + File.separator;
+        return basedir.getAbsolutePath()
+                      .startsWith( root );
+    }
+
     @Override
     public File getArchiveBaseDirectory()
     {
@@ -590,7 +2089,7 @@ public class ProjectSourcesGoal
     @Override
     public boolean isDryRun()
     {
-        return false;
+        return estimate;
     }
 
     @Override
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc;
+
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Companion to the <code>archive</code> goal in async mode: waits for the project-sources archives being written in the background and
+ * attaches them to the project. Does nothing if no archive was started in the background for this project.
+ */
+/* @formatter:off */
+@Mojo( name = "join", 
+        requiresDependencyResolution = ResolutionScope.NONE, 
+        requiresDependencyCollection = ResolutionScope.NONE, 
+        requiresOnline = false, 
+        requiresProject = true, 
+        defaultPhase = LifecyclePhase.PACKAGE )
+/* @formatter:on */
+public class ProjectSourcesJoinGoal
+    extends AbstractMojo
+{
+
+    /**
+     * Maven ProjectHelper.
+     */
+    @Component
+    protected MavenProjectHelper projectHelper;
+
+    /**
+     * The Maven Session Object
+     */
+    @Component
+    protected MavenSession mavenSession;
+
+    @Parameter( defaultValue = "${project}", required = true, readonly = true )
+    protected MavenProject project;
+
+    @Override
+    public void execute()
+        throws MojoExecutionException, MojoFailureException
+    {
+        final PendingArchive pending = PendingArchive.take( mavenSession, project );
+        if ( pending == null )
+        {
+            getLog().debug( "No project sources are being archived in the background for this project." );
+            return;
+        }
+
+        final long start = System.nanoTime();
+        final Map<String, File> archives;
+        try
+        {
+            archives = pending.getArchives()
+                              .get();
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+            pending.getLog()
+                   .replay( getLog() );
+            throw new MojoExecutionException( "Interrupted while waiting for project sources to be archived." );
+        }
+        catch ( final ExecutionException e )
+        {
+            pending.getLog()
+                   .replay( getLog() );
+            final Throwable cause = e.getCause();
+            if ( cause instanceof MojoExecutionException )
+            {
+                throw (MojoExecutionException) cause;
+            }
+
+            throw new MojoExecutionException( "Failed to create assembly: " + cause.getMessage(), cause );
+        }
+
+        pending.getLog()
+               .replay( getLog() );
+        getLog().info( String.format( "Waited %.2fs for background archiving of project sources.",
+                                      ( System.nanoTime() - start ) / 1e9 ) );
+
+        for ( final Map.Entry<String, File> archive : archives.entrySet() )
+        {
+            projectHelper.attachArtifact( project, archive.getKey(), pending.getClassifier(), archive.getValue() );
+        }
+    }
+
+}
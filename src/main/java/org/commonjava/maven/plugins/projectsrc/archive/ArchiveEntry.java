@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import java.io.File;
+
+/**
+ * One file or directory to be written into the project-sources archive(s), along with the attributes captured when the source tree was scanned.
+ */
+public final class ArchiveEntry
+{
+
+    public static final int DEFAULT_FILE_MODE = 0644;
+
+    public static final int DEFAULT_EXECUTABLE_MODE = 0755;
+
+    public static final int DEFAULT_DIRECTORY_MODE = 0755;
+
+    private final String name;
+
+    private final File file;
+
+    private final boolean directory;
+
+    private final long size;
+
+    private final long lastModified;
+
+    private final int mode;
+
+    private final String linkName;
+
+    private ArchiveEntry( final String name, final File file, final boolean directory, final long size, final long lastModified,
+                          final int mode, final String linkName )
+    {
+        this.name = name;
+        this.file = file;
+        this.directory = directory;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.mode = mode;
+        this.linkName = linkName;
+    }
+
+    public static ArchiveEntry file( final String name, final File file, final long size, final long lastModified, final int mode )
+    {
+        return new ArchiveEntry( name, file, false, size, lastModified, mode, null );
+    }
+
+    public static ArchiveEntry directory( final String name, final File file, final long lastModified, final int mode )
+    {
+        return new ArchiveEntry( name.endsWith( "/" ) ? name : name + "/", file, true, 0, lastModified, mode, null );
+    }
+
+    /**
+     * The same file or directory under another path in the archive.
+     */
+    public static ArchiveEntry renamed( final ArchiveEntry entry, final String name )
+    {
+        return new ArchiveEntry( name, entry.file, entry.directory, entry.size, entry.lastModified, entry.mode, entry.linkName );
+    }
+
+    /**
+     * A file entry whose content is identical to that of the (earlier) entry <code>target</code>, and is written as a reference to it.
+     */
+    public static ArchiveEntry link( final ArchiveEntry entry, final String target )
+    {
+        return new ArchiveEntry( entry.name, entry.file, false, 0, entry.lastModified, entry.mode, target );
+    }
+
+    /**
+     * Path of this entry inside the archive, using '/' separators. Directory names always end with '/'.
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    public boolean isDirectory()
+    {
+        return directory;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    public long getLastModified()
+    {
+        return lastModified;
+    }
+
+    public int getMode()
+    {
+        return mode;
+    }
+
+    public boolean isLink()
+    {
+        return linkName != null;
+    }
+
+    /**
+     * For a {@link #isLink() link}, the name of the entry holding the content.
+     */
+    public String getLinkName()
+    {
+        return linkName;
+    }
+
+    /**
+     * Whether the entry carries file content; false for directories and links.
+     */
+    public boolean hasContent()
+    {
+        return !directory && linkName == null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return name;
+    }
+}
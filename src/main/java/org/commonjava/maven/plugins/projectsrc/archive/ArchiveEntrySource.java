@@ -0,0 +1,48 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Supplies entries to {@link MultiSinkArchiver} one at a time, so they can be produced while the archive is being written rather than
+ * collected up front.
+ */
+public abstract class ArchiveEntrySource
+{
+
+    /**
+     * The next entry, or null once there are no more.
+     */
+    public abstract ArchiveEntry next()
+        throws IOException;
+
+    public static ArchiveEntrySource of( final List<ArchiveEntry> entries )
+    {
+        final Iterator<ArchiveEntry> iterator = entries.iterator();
+        return new ArchiveEntrySource()
+        {
+            @Override
+            public ArchiveEntry next()
+            {
+                return iterator.hasNext() ? iterator.next() : null;
+            }
+        };
+    }
+
+}
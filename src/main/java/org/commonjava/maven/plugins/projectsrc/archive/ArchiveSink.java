@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Writer for a single archive format. Entries are written in order: {@link #startEntry(ArchiveEntry)}, zero or more calls to
+ * {@link #write(byte[], int, int)} (only for entries that {@link ArchiveEntry#hasContent() have content}), then {@link #endEntry()}. Once
+ * all entries are written, {@link #finish()} completes the archive. If anything goes wrong, {@link #abort()} releases resources and removes
+ * partial output.
+ */
+public interface ArchiveSink
+{
+
+    /**
+     * The format name (as given in the <code>formats</code> parameter) this sink writes.
+     */
+    String getFormat();
+
+    /**
+     * The archive file (or directory, for the <code>dir</code> format) this sink produces.
+     */
+    File getDestination();
+
+    void startEntry( ArchiveEntry entry )
+        throws IOException;
+
+    void write( byte[] buf, int off, int len )
+        throws IOException;
+
+    void endEntry()
+        throws IOException;
+
+    void finish()
+        throws IOException;
+
+    void abort();
+
+}
@@ -0,0 +1,519 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import static java.util.Arrays.asList;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+
+/**
+ * Creates {@link ArchiveSink} instances for the archive formats the plugin can write natively, without going through the assembly archiver.
+ */
+public final class ArchiveSinks
+{
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Set<String> SUPPORTED_FORMATS =
+        new HashSet<String>( asList( "zip", "tar", "tar.gz", "tgz", "tar.bz2", "tbz2", "tar.xz", "txz", "tar.zst", "tzst",
+                                    "dir" ) );
+
+    /**
+     * Formats the assembly archiver cannot write at all, so they are always written natively.
+     */
+    private static final Set<String> NATIVE_ONLY_FORMATS = new HashSet<String>( asList( "tar.xz", "txz", "tar.zst", "tzst" ) );
+
+    public static final int DEFAULT_ZSTD_LEVEL = 3;
+
+    private int gzipThreads = 1;
+
+    private int gzipBlockSize = ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE;
+
+    private int zipThreads = 1;
+
+    private int xzLevel = ParallelXzOutputStream.DEFAULT_PRESET;
+
+    private int xzThreads = 1;
+
+    private int zstdLevel = DEFAULT_ZSTD_LEVEL;
+
+    private int zstdThreads = 1;
+
+    private CompressionCache compressionCache;
+
+    private IncompressibleContent incompressibleContent;
+
+    private List<String> checksumNames = Collections.emptyList();
+
+    private final Map<ArchiveSink, ChecksumSet> checksums = new IdentityHashMap<ArchiveSink, ChecksumSet>();
+
+    private boolean seekable;
+
+    private int zstdFrameSize = FramedZstdOutputStream.DEFAULT_FRAME_SIZE;
+
+    private final Map<ArchiveSink, SeekIndex> seekIndexes = new IdentityHashMap<ArchiveSink, SeekIndex>();
+
+    private WorkerPool workerPool;
+
+    public static boolean isSupported( final String format )
+    {
+        return SUPPORTED_FORMATS.contains( format );
+    }
+
+    /**
+     * Whether the format is one only this package can write; the assembly archiver does not know how to compress it.
+     */
+    public static boolean isNativeOnly( final String format )
+    {
+        return NATIVE_ONLY_FORMATS.contains( format );
+    }
+
+    public static boolean isGzipFormat( final String format )
+    {
+        return "tar.gz".equals( format ) || "tgz".equals( format );
+    }
+
+    public static boolean isZstdFormat( final String format )
+    {
+        return "tar.zst".equals( format ) || "tzst".equals( format );
+    }
+
+    /**
+     * Whether the format can be written in independently decompressible blocks, with a {@link SeekIndex}.
+     */
+    public static boolean isSeekableFormat( final String format )
+    {
+        return isGzipFormat( format ) || isZstdFormat( format );
+    }
+
+    /**
+     * Threads and memory shared by every parallel compressor this factory creates, or null for each to start its own threads. With a
+     * pool, no compressor uses more threads than the pool has, whatever its own thread count says.
+     */
+    public void setWorkerPool( final WorkerPool workerPool )
+    {
+        this.workerPool = workerPool;
+    }
+
+    private int threads( final int configured )
+    {
+        return workerPool == null ? Math.max( 1, configured ) : Math.max( 1, Math.min( configured, workerPool.getThreads() ) );
+    }
+
+    /**
+     * Number of threads used to compress gzip formats. More than one switches to {@link ParallelGzipOutputStream}.
+     */
+    public void setGzipThreads( final int gzipThreads )
+    {
+        this.gzipThreads = gzipThreads;
+    }
+
+    public void setGzipBlockSize( final int gzipBlockSize )
+    {
+        this.gzipBlockSize = gzipBlockSize;
+    }
+
+    /**
+     * Number of threads used to deflate zip entries. More than one switches to {@link ParallelZipArchiveSink}.
+     */
+    public void setZipThreads( final int zipThreads )
+    {
+        this.zipThreads = zipThreads;
+    }
+
+    /**
+     * Compression preset (0-9) for xz formats.
+     */
+    public void setXzLevel( final int xzLevel )
+    {
+        this.xzLevel = xzLevel;
+    }
+
+    /**
+     * Number of threads used to compress xz formats. More than one switches to {@link ParallelXzOutputStream}.
+     */
+    public void setXzThreads( final int xzThreads )
+    {
+        this.xzThreads = xzThreads;
+    }
+
+    /**
+     * Compression level for zstd formats; 1-19 (or up to 22 for the ultra levels), negative values for the fast levels.
+     */
+    public void setZstdLevel( final int zstdLevel )
+    {
+        this.zstdLevel = zstdLevel;
+    }
+
+    /**
+     * Number of worker threads zstd compresses with. More than one enables zstd's own multithreaded mode.
+     */
+    public void setZstdThreads( final int zstdThreads )
+    {
+        this.zstdThreads = zstdThreads;
+    }
+
+    /**
+     * Cache of compressed zip entries and gzip blocks from earlier builds. When set, zip and gzip formats always use the parallel writers,
+     * which are the ones able to consult it.
+     */
+    public void setCompressionCache( final CompressionCache compressionCache )
+    {
+        this.compressionCache = compressionCache;
+    }
+
+    /**
+     * Recognizes already-compressed content, which zip stores instead of deflating. The parallel gzip writer stores blocks of near-random
+     * data in the same spirit; other formats ignore this.
+     */
+    public void setIncompressibleContent( final IncompressibleContent incompressibleContent )
+    {
+        this.incompressibleContent = incompressibleContent;
+    }
+
+    /**
+     * Checksums (see {@link ChecksumSet}) to compute while writing tar formats. Zip archives are patched in place as entries are closed, so
+     * their bytes can't be digested on the way out.
+     */
+    public void setChecksums( final List<String> checksumNames )
+    {
+        this.checksumNames = checksumNames;
+    }
+
+    /**
+     * When set, gzip and zstd formats are written in blocks that can be decompressed on their own (gzip always with
+     * {@link ParallelGzipOutputStream}) and each gets a {@link SeekIndex}.
+     */
+    public void setSeekable( final boolean seekable )
+    {
+        this.seekable = seekable;
+    }
+
+    /**
+     * Uncompressed size of each zstd frame in seekable mode.
+     */
+    public void setZstdFrameSize( final int zstdFrameSize )
+    {
+        this.zstdFrameSize = zstdFrameSize;
+    }
+
+    /**
+     * The index of <code>sink</code>'s archive, or null if it has none; complete once the sink is finished.
+     */
+    public SeekIndex getSeekIndex( final ArchiveSink sink )
+    {
+        return seekIndexes.get( sink );
+    }
+
+    /**
+     * The checksums computed as <code>sink</code> wrote its archive, or null if they weren't; complete once the sink is finished.
+     */
+    public ChecksumSet getChecksums( final ArchiveSink sink )
+    {
+        return checksums.get( sink );
+    }
+
+    /**
+     * Create a sink writing <code>format</code> to <code>outputDirectory/fullName.format</code>, following the assembly plugin's naming.
+     */
+    public ArchiveSink create( final String format, final File outputDirectory, final String fullName )
+        throws IOException
+    {
+        if ( !isSupported( format ) )
+        {
+            throw new IOException( "Unsupported archive format: " + format );
+        }
+
+        final File destination = getDestination( format, outputDirectory, fullName );
+        if ( "dir".equals( format ) )
+        {
+            return new DirectoryArchiveSink( format, destination );
+        }
+
+        if ( !outputDirectory.isDirectory() && !outputDirectory.mkdirs() )
+        {
+            throw new IOException( "Cannot create output directory: " + outputDirectory );
+        }
+
+        if ( "zip".equals( format ) )
+        {
+            if ( zipThreads > 1 || compressionCache != null )
+            {
+                return new ParallelZipArchiveSink( format, destination, threads( zipThreads ), Deflater.DEFAULT_COMPRESSION,
+                                                   compressionCache, incompressibleContent, workerPool );
+            }
+
+            return new ZipArchiveSink( format, destination, incompressibleContent );
+        }
+
+        final ChecksumSet checksumSet = checksumNames.isEmpty() ? null : new ChecksumSet( checksumNames );
+        if ( "tar".equals( format ) )
+        {
+            return register( new PlainTarArchiveSink( format, destination, checksumSet ), checksumSet, null );
+        }
+
+        SeekIndex seekIndex = null;
+        if ( seekable && isGzipFormat( format ) )
+        {
+            seekIndex = new SeekIndex( format, gzipBlockSize );
+        }
+        else if ( seekable && isZstdFormat( format ) )
+        {
+            seekIndex = new SeekIndex( format, zstdFrameSize );
+        }
+
+        final OutputStream file = new FileOutputStream( destination );
+        final OutputStream out = new BufferedOutputStream( checksumSet == null ? file : checksumSet.wrap( file ), BUFFER_SIZE );
+        try
+        {
+            return register( new TarArchiveSink( format, destination, compress( format, out, seekIndex ), seekIndex ), checksumSet,
+                             seekIndex );
+        }
+        catch ( final IOException e )
+        {
+            closeQuietly( out );
+            throw e;
+        }
+    }
+
+    private ArchiveSink register( final ArchiveSink sink, final ChecksumSet checksumSet, final SeekIndex seekIndex )
+    {
+        if ( checksumSet != null )
+        {
+            checksums.put( sink, checksumSet );
+        }
+        if ( seekIndex != null )
+        {
+            seekIndexes.put( sink, seekIndex );
+        }
+
+        return sink;
+    }
+
+    /**
+     * Where an archive of the given format ends up; the same location the assembly archiver uses.
+     */
+    public static File getDestination( final String format, final File outputDirectory, final String fullName )
+    {
+        return new File( outputDirectory, fullName + "." + format );
+    }
+
+    /**
+     * A stream compressing onto <code>out</code> the way a tar format's sink would, with the configured levels and threads. Closing it
+     * closes <code>out</code>.
+     */
+    public OutputStream newCompressor( final String format, final OutputStream out )
+        throws IOException
+    {
+        return compress( format, out, null );
+    }
+
+    private OutputStream compress( final String format, final OutputStream out, final SeekIndex seekIndex )
+        throws IOException
+    {
+        if ( isGzipFormat( format ) )
+        {
+            if ( gzipThreads > 1 || compressionCache != null || seekIndex != null )
+            {
+                return new ParallelGzipOutputStream( out, Deflater.DEFAULT_COMPRESSION, threads( gzipThreads ), gzipBlockSize,
+                                                     compressionCache, incompressibleContent != null, seekIndex, workerPool );
+            }
+
+            return new GzipCompressorOutputStream( out );
+        }
+        else if ( "tar.bz2".equals( format ) || "tbz2".equals( format ) )
+        {
+            return new BZip2CompressorOutputStream( out );
+        }
+        else if ( "tar.xz".equals( format ) || "txz".equals( format ) )
+        {
+            if ( xzThreads > 1 )
+            {
+                return new ParallelXzOutputStream( out, xzLevel, threads( xzThreads ), 0, workerPool );
+            }
+
+            return new XZCompressorOutputStream( out, xzLevel );
+        }
+        else if ( isZstdFormat( format ) )
+        {
+            final int workers = borrowZstdWorkers();
+            final boolean borrowed = workerPool != null && workers > 1;
+            boolean success = false;
+            try
+            {
+                final OutputStream zstd;
+                if ( seekIndex != null )
+                {
+                    zstd = new FramedZstdOutputStream( out, zstdLevel, workers, seekIndex );
+                }
+                else
+                {
+                    final ZstdOutputStream stream = new ZstdOutputStream( out, zstdLevel );
+                    stream.setChecksum( true );
+                    if ( workers > 1 )
+                    {
+                        stream.setWorkers( workers );
+                    }
+                    zstd = stream;
+                }
+
+                success = true;
+                return borrowed ? new ReturningThreadsOutputStream( zstd, workerPool, workers ) : zstd;
+            }
+            finally
+            {
+                // without a stream to close, nothing else would give the borrowed threads back.
+                if ( !success && borrowed )
+                {
+                    workerPool.returnThreads( workers );
+                }
+            }
+        }
+
+        return out;
+    }
+
+    /**
+     * How many worker threads zstd compresses with. Its workers are native threads the pool's executor can't run, so they are borrowed
+     * from the pool, leaving the executor that many threads fewer; with fewer than two to spare, zstd compresses on the caller's thread.
+     */
+    private int borrowZstdWorkers()
+    {
+        final int wanted = threads( zstdThreads );
+        if ( workerPool == null || wanted < 2 )
+        {
+            return wanted;
+        }
+
+        final int granted = workerPool.borrowThreads( wanted );
+        if ( granted < 2 )
+        {
+            workerPool.returnThreads( granted );
+            return 1;
+        }
+
+        return granted;
+    }
+
+    /**
+     * Gives the threads borrowed for a zstd stream back to the pool once the stream is closed.
+     */
+    private static final class ReturningThreadsOutputStream
+        extends FilterOutputStream
+    {
+        private final WorkerPool pool;
+
+        private int borrowed;
+
+        ReturningThreadsOutputStream( final OutputStream out, final WorkerPool pool, final int borrowed )
+        {
+            super( out );
+            this.pool = pool;
+            this.borrowed = borrowed;
+        }
+
+        @Override
+        public void write( final byte[] b, final int off, final int len )
+            throws IOException
+        {
+            out.write( b, off, len );
+        }
+
+        /**
+         * Closes without flushing first, as the zstd streams themselves do.
+         */
+        @Override
+        public void close()
+            throws IOException
+        {
+            try
+            {
+                out.close();
+            }
+            finally
+            {
+                pool.returnThreads( borrowed );
+                borrowed = 0;
+            }
+        }
+    }
+
+    /**
+     * Copy the whole of <code>entry</code>'s file to the current position of <code>target</code>, letting the OS move the bytes.
+     */
+    static void transferFully( final ArchiveEntry entry, final FileChannel target )
+        throws IOException
+    {
+        final FileInputStream in = new FileInputStream( entry.getFile() );
+        try
+        {
+            final FileChannel source = in.getChannel();
+            final long size = entry.getSize();
+            long position = 0;
+            while ( position < size )
+            {
+                final long transferred = source.transferTo( position, size - position, target );
+                if ( transferred <= 0 )
+                {
+                    throw new IOException( "File was truncated while archiving: " + entry.getFile() );
+                }
+                position += transferred;
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    static void closeQuietly( final Closeable closeable )
+    {
+        if ( closeable == null )
+        {
+            return;
+        }
+
+        try
+        {
+            closeable.close();
+        }
+        catch ( final IOException e )
+        {
+            // nothing we can do about it now.
+        }
+    }
+
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A set of digests (SHA-1, SHA-256, ...) fed with the bytes of an archive as it is written, so checksum files can be produced without
+ * reading the archive back. Algorithms are named the way their sidecar files are: <code>sha1</code>, <code>sha256</code>, <code>sha512</code>,
+ * <code>md5</code>. The sidecar <code>archive.sha256</code> holds the lower-case hex digest, as in a Maven repository.
+ */
+public final class ChecksumSet
+{
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final List<String> names;
+
+    private final List<MessageDigest> digests;
+
+    public ChecksumSet( final List<String> names )
+        throws IOException
+    {
+        this.names = Collections.unmodifiableList( new ArrayList<String>( names ) );
+        this.digests = new ArrayList<MessageDigest>( names.size() );
+        for ( final String name : names )
+        {
+            try
+            {
+                digests.add( MessageDigest.getInstance( toAlgorithm( name ) ) );
+            }
+            catch ( final NoSuchAlgorithmException e )
+            {
+                throw new IOException( "Unsupported checksum algorithm: " + name, e );
+            }
+        }
+    }
+
+    /**
+     * Normalize a configured checksum name (<code>SHA-256</code>, <code>sha256</code>, ...) to its sidecar extension.
+     */
+    public static String normalize( final String name )
+    {
+        return name.trim()
+                   .toLowerCase( Locale.ENGLISH )
+                   .replace( "-", "" );
+    }
+
+    /**
+     * Digest an existing file, for archives whose bytes could not be seen as they were written.
+     */
+    public static ChecksumSet compute( final List<String> names, final File file )
+        throws IOException
+    {
+        final ChecksumSet checksums = new ChecksumSet( names );
+        final byte[] buf = new byte[BUFFER_SIZE];
+        final InputStream in = new FileInputStream( file );
+        try
+        {
+            int read;
+            while ( ( read = in.read( buf ) ) > -1 )
+            {
+                checksums.update( buf, 0, read );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        return checksums;
+    }
+
+    public List<String> getNames()
+    {
+        return names;
+    }
+
+    public void update( final byte[] buf, final int off, final int len )
+    {
+        for ( final MessageDigest digest : digests )
+        {
+            digest.update( buf, off, len );
+        }
+    }
+
+    /**
+     * Digest the remaining bytes of <code>buffer</code>, leaving its position where it was.
+     */
+    public void update( final ByteBuffer buffer )
+    {
+        for ( final MessageDigest digest : digests )
+        {
+            digest.update( buffer.duplicate() );
+        }
+    }
+
+    /**
+     * Complete the digests and write one sidecar file per algorithm next to <code>archive</code>.
+     *
+     * @return the sidecar files written
+     */
+    public List<File> writeSidecars( final File archive )
+        throws IOException
+    {
+        final List<File> sidecars = new ArrayList<File>( names.size() );
+        for ( int i = 0; i < names.size(); i++ )
+        {
+            final File sidecar = new File( archive.getPath() + "." + names.get( i ) );
+            final OutputStream out = new FileOutputStream( sidecar );
+            try
+            {
+                out.write( toHex( digests.get( i )
+                                         .digest() ).getBytes( UTF_8 ) );
+            }
+            finally
+            {
+                out.close();
+            }
+            sidecars.add( sidecar );
+        }
+
+        return sidecars;
+    }
+
+    /**
+     * Stream wrapper digesting everything written through it.
+     */
+    public OutputStream wrap( final OutputStream out )
+    {
+        return new OutputStream()
+        {
+            @Override
+            public void write( final int b )
+                throws IOException
+            {
+                write( new byte[] { (byte) b }, 0, 1 );
+            }
+
+            @Override
+            public void write( final byte[] b, final int off, final int len )
+                throws IOException
+            {
+                update( b, off, len );
+                out.write( b, off, len );
+            }
+
+            @Override
+            public void flush()
+                throws IOException
+            {
+                out.flush();
+            }
+
+            @Override
+            public void close()
+                throws IOException
+            {
+                out.close();
+            }
+        };
+    }
+
+    private static String toAlgorithm( final String name )
+    {
+        if ( name.startsWith( "sha" ) )
+        {
+            return "SHA-" + name.substring( 3 );
+        }
+
+        return name.toUpperCase( Locale.ENGLISH );
+    }
+
+    private static String toHex( final byte[] bytes )
+    {
+        final StringBuilder hex = new StringBuilder( bytes.length * 2 );
+        for ( final byte b : bytes )
+        {
+            hex.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) )
+               .append( Character.forDigit( b & 0xf, 16 ) );
+        }
+
+        return hex.toString();
+    }
+
+}
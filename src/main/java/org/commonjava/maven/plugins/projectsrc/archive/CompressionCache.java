@@ -0,0 +1,237 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Local, content-addressed store of compressed data (deflated zip entries, gzip blocks), so that builds only pay for compressing what
+ * actually changed since an earlier build. Keys are digests of the uncompressed input plus the compression settings; a hit returns the exact
+ * bytes the compressor produced before.
+ * <p>
+ * The cache is best-effort: any I/O problem reading or writing an item simply counts as a miss. {@link #evict()} trims the least recently
+ * used items once the total size exceeds the configured maximum.
+ */
+public class CompressionCache
+{
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    private final File directory;
+
+    private final long maxSize;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    public CompressionCache( final File directory, final long maxSize )
+    {
+        this.directory = directory;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Compute the cache key for compressing <code>data</code> (optionally primed with <code>dictionary</code>) with the given settings.
+     */
+    public static String key( final String settings, final byte[] dictionary, final int dictionaryOffset, final int dictionaryLength,
+                              final byte[] data, final int offset, final int length )
+    {
+        final MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance( "SHA-1" );
+        }
+        catch ( final NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( "SHA-1 is not available in this JVM!", e );
+        }
+
+        digest.update( settings.getBytes( UTF_8 ) );
+        digest.update( (byte) 0 );
+        if ( dictionary != null )
+        {
+            digest.update( dictionary, dictionaryOffset, dictionaryLength );
+        }
+        digest.update( (byte) 0 );
+        digest.update( data, offset, length );
+
+        final byte[] bytes = digest.digest();
+        final StringBuilder sb = new StringBuilder( bytes.length * 2 );
+        for ( final byte b : bytes )
+        {
+            sb.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) )
+              .append( Character.forDigit( b & 0xf, 16 ) );
+        }
+
+        return sb.toString();
+    }
+
+    public static String key( final String settings, final byte[] data, final int offset, final int length )
+    {
+        return key( settings, null, 0, 0, data, offset, length );
+    }
+
+    /**
+     * @return the cached bytes, or null on a miss
+     */
+    public byte[] get( final String key )
+    {
+        final File file = getFile( key );
+        if ( file.isFile() )
+        {
+            try
+            {
+                final byte[] data = Files.readAllBytes( file.toPath() );
+                file.setLastModified( System.currentTimeMillis() );
+                hits.incrementAndGet();
+                return data;
+            }
+            catch ( final IOException e )
+            {
+                // treat as a miss.
+            }
+        }
+
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put( final String key, final byte[] data, final int offset, final int length )
+    {
+        final File file = getFile( key );
+        final File dir = file.getParentFile();
+        if ( !dir.isDirectory() && !dir.mkdirs() )
+        {
+            return;
+        }
+
+        // write under a unique name, then rename, so concurrent readers never see a partial item. The name comes from createTempFile
+        // because builds in other JVMs may share the cache, and their thread ids are no help.
+        File tmp = null;
+        try
+        {
+            tmp = File.createTempFile( key + ".", ".tmp", dir );
+            final OutputStream out = new FileOutputStream( tmp );
+            try
+            {
+                out.write( data, offset, length );
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if ( !tmp.renameTo( file ) )
+            {
+                tmp.delete();
+            }
+        }
+        catch ( final IOException e )
+        {
+            if ( tmp != null )
+            {
+                tmp.delete();
+            }
+        }
+    }
+
+    /**
+     * Delete least recently used items until the cache fits in its maximum size.
+     */
+    public void evict()
+    {
+        final List<File> items = new ArrayList<File>();
+        long total = 0;
+
+        final File[] buckets = directory.listFiles();
+        if ( buckets == null )
+        {
+            return;
+        }
+
+        for ( final File bucket : buckets )
+        {
+            final File[] files = bucket.listFiles();
+            if ( files == null )
+            {
+                continue;
+            }
+
+            for ( final File file : files )
+            {
+                items.add( file );
+                total += file.length();
+            }
+        }
+
+        if ( total <= maxSize )
+        {
+            return;
+        }
+
+        Collections.sort( items, new Comparator<File>()
+        {
+            @Override
+            public int compare( final File first, final File second )
+            {
+                return Long.compare( first.lastModified(), second.lastModified() );
+            }
+        } );
+
+        for ( final File file : items )
+        {
+            if ( total <= maxSize )
+            {
+                break;
+            }
+
+            final long length = file.length();
+            if ( file.delete() )
+            {
+                total -= length;
+            }
+        }
+    }
+
+    public long getHits()
+    {
+        return hits.get();
+    }
+
+    public long getMisses()
+    {
+        return misses.get();
+    }
+
+    private File getFile( final String key )
+    {
+        return new File( new File( directory, key.substring( 0, 2 ) ), key );
+    }
+
+}
@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Names compression threads after their purpose and marks them as daemons, so a failed build never hangs on them.
+ */
+final class DaemonThreadFactory
+    implements ThreadFactory
+{
+    private final String prefix;
+
+    private final AtomicInteger counter = new AtomicInteger();
+
+    DaemonThreadFactory( final String prefix )
+    {
+        this.prefix = prefix;
+    }
+
+    @Override
+    public Thread newThread( final Runnable r )
+    {
+        final Thread t = new Thread( r, prefix + "-" + counter.incrementAndGet() );
+        t.setDaemon( true );
+        return t;
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Passes entries through from another source, replacing each file whose content is identical to that of an earlier file with a
+ * {@link ArchiveEntry#link(ArchiveEntry, String) link} to it. Since entries are checked in the order they are written, a link always
+ * follows the entry it refers to.
+ * <p>
+ * Only files sharing their size with an earlier file are hashed (SHA-256); the first file of each size is hashed only once a second one
+ * turns up. A small record is kept per distinct file size and per hashed file, so memory grows with the number of files, not their size.
+ */
+public class DeduplicatingEntrySource
+    extends ArchiveEntrySource
+{
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ArchiveEntrySource source;
+
+    /**
+     * First file seen of each size, until a second file of the same size forces it to be hashed.
+     */
+    private final Map<Long, ArchiveEntry> unhashed = new HashMap<Long, ArchiveEntry>();
+
+    private final Map<ByteBuffer, String> byDigest = new HashMap<ByteBuffer, String>();
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    private long duplicates;
+
+    private long duplicateBytes;
+
+    public DeduplicatingEntrySource( final ArchiveEntrySource source )
+    {
+        this.source = source;
+    }
+
+    @Override
+    public ArchiveEntry next()
+        throws IOException
+    {
+        final ArchiveEntry entry = source.next();
+        if ( entry == null || !entry.hasContent() || entry.getSize() == 0 )
+        {
+            // an empty file costs no more than a link to one.
+            return entry;
+        }
+
+        final Long size = entry.getSize();
+        if ( !unhashed.containsKey( size ) )
+        {
+            unhashed.put( size, entry );
+            return entry;
+        }
+
+        final ArchiveEntry first = unhashed.get( size );
+        if ( first != null )
+        {
+            unhashed.put( size, null );
+            byDigest.put( digest( first.getFile() ), first.getName() );
+        }
+
+        final ByteBuffer digest = digest( entry.getFile() );
+        final String original = byDigest.get( digest );
+        if ( original != null )
+        {
+            duplicates++;
+            duplicateBytes += entry.getSize();
+            return ArchiveEntry.link( entry, original );
+        }
+
+        byDigest.put( digest, entry.getName() );
+        return entry;
+    }
+
+    /**
+     * Number of files replaced by links so far.
+     */
+    public long getDuplicates()
+    {
+        return duplicates;
+    }
+
+    /**
+     * Total size of the files replaced by links so far.
+     */
+    public long getDuplicateBytes()
+    {
+        return duplicateBytes;
+    }
+
+    private ByteBuffer digest( final File file )
+        throws IOException
+    {
+        final MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance( "SHA-256" );
+        }
+        catch ( final NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( "SHA-256 is not available in this JVM!", e );
+        }
+
+        final InputStream in = new FileInputStream( file );
+        try
+        {
+            int read;
+            while ( ( read = in.read( buffer ) ) > 0 )
+            {
+                digest.update( buffer, 0, read );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        return ByteBuffer.wrap( digest.digest() );
+    }
+
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import java.io.IOException;
+
+/**
+ * An {@link ArchiveSink} that can copy a file's contents into its output itself, from file channel to file channel (sendfile, or
+ * copy_file_range where the platform has it), without the bytes passing through the Java heap. {@link MultiSinkArchiver} then calls
+ * {@link #transfer(ArchiveEntry)} between {@link #startEntry(ArchiveEntry)} and {@link #endEntry()} instead of
+ * {@link #write(byte[], int, int)}, and does not read the file at all if no other sink needs its contents.
+ */
+public interface DirectTransferSink
+    extends ArchiveSink
+{
+
+    /**
+     * Whether the contents of this file entry can be transferred directly. Called from the thread reading the source files, so it must not
+     * depend on the state of the sink.
+     */
+    boolean canTransfer( ArchiveEntry entry );
+
+    void transfer( ArchiveEntry entry )
+        throws IOException;
+
+}
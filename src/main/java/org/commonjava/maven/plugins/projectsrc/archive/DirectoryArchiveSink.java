@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * {@link ArchiveSink} for the <code>dir</code> format, which lays the entries out as plain files under the destination directory. File
+ * contents are copied by the OS when possible (see {@link DirectTransferSink}). A link becomes an independent copy of the file it refers to.
+ */
+public class DirectoryArchiveSink
+    implements DirectTransferSink
+{
+
+    private final String format;
+
+    private final File destination;
+
+    private ArchiveEntry current;
+
+    private File currentFile;
+
+    private FileOutputStream fileOut;
+
+    private OutputStream out;
+
+    public DirectoryArchiveSink( final String format, final File destination )
+    {
+        this.format = format;
+        this.destination = destination;
+    }
+
+    @Override
+    public String getFormat()
+    {
+        return format;
+    }
+
+    @Override
+    public File getDestination()
+    {
+        return destination;
+    }
+
+    @Override
+    public void startEntry( final ArchiveEntry entry )
+        throws IOException
+    {
+        current = entry;
+        currentFile = new File( destination, entry.getName() );
+        if ( entry.isDirectory() )
+        {
+            if ( !currentFile.isDirectory() && !currentFile.mkdirs() )
+            {
+                throw new IOException( "Cannot create directory: " + currentFile );
+            }
+        }
+        else
+        {
+            final File dir = currentFile.getParentFile();
+            if ( !dir.isDirectory() && !dir.mkdirs() )
+            {
+                throw new IOException( "Cannot create directory: " + dir );
+            }
+
+            if ( entry.isLink() )
+            {
+                Files.copy( new File( destination, entry.getLinkName() ).toPath(), currentFile.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING );
+                return;
+            }
+
+            fileOut = new FileOutputStream( currentFile );
+            out = new BufferedOutputStream( fileOut );
+        }
+    }
+
+    @Override
+    public void write( final byte[] buf, final int off, final int len )
+        throws IOException
+    {
+        out.write( buf, off, len );
+    }
+
+    @Override
+    public boolean canTransfer( final ArchiveEntry entry )
+    {
+        return true;
+    }
+
+    @Override
+    public void transfer( final ArchiveEntry entry )
+        throws IOException
+    {
+        // nothing has gone through the buffer, so the file's channel can be handed to the OS directly.
+        ArchiveSinks.transferFully( entry, fileOut.getChannel() );
+    }
+
+    @Override
+    public void endEntry()
+        throws IOException
+    {
+        if ( out != null )
+        {
+            out.close();
+            out = null;
+            fileOut = null;
+        }
+
+        if ( !current.isDirectory() && ( current.getMode() & 0100 ) != 0 )
+        {
+            currentFile.setExecutable( true, false );
+        }
+
+        currentFile.setLastModified( current.getLastModified() );
+    }
+
+    @Override
+    public void finish()
+    {
+    }
+
+    @Override
+    public void abort()
+    {
+        ArchiveSinks.closeQuietly( out );
+        try
+        {
+            FileUtils.deleteDirectory( destination );
+        }
+        catch ( final IOException e )
+        {
+            // like the other sinks, leave what can't be removed.
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import org.apache.commons.compress.archivers.zip.UnixStat;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Zip has no hard links, so the zip writers leave {@link ArchiveEntry#isLink() links} out of the archive and list them in a manifest at its
+ * root instead: one line per omitted file, holding its name and the name of the identical entry to copy it from, separated by a tab.
+ */
+public final class DuplicatesManifest
+{
+
+    public static final String NAME = "project-sources-duplicates.txt";
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    private final StringBuilder lines = new StringBuilder();
+
+    private long lastModified;
+
+    void add( final ArchiveEntry entry )
+    {
+        lines.append( entry.getName() )
+             .append( '\t' )
+             .append( entry.getLinkName() )
+             .append( '\n' );
+        lastModified = Math.max( lastModified, entry.getLastModified() );
+    }
+
+    /**
+     * Append the manifest to the archive, if any links were added.
+     */
+    void write( final ZipArchiveOutputStream zip )
+        throws IOException
+    {
+        if ( lines.length() == 0 )
+        {
+            return;
+        }
+
+        final byte[] content = lines.toString()
+                                    .getBytes( UTF_8 );
+        final ZipArchiveEntry ze = new ZipArchiveEntry( NAME );
+        ze.setTime( lastModified );
+        ze.setUnixMode( UnixStat.FILE_FLAG | ArchiveEntry.DEFAULT_FILE_MODE );
+        ze.setSize( content.length );
+
+        zip.putArchiveEntry( ze );
+        zip.write( content );
+        zip.closeArchiveEntry();
+    }
+
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import org.apache.commons.compress.utils.CountingOutputStream;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Zstd writer that ends a frame after every <code>frameSize</code> bytes of input, so each frame can be decompressed without the ones
+ * before it. The frames are concatenated into one file, which the <code>zstd</code> tool reads as a single stream. Where each frame starts
+ * is recorded in a {@link SeekIndex}.
+ */
+public class FramedZstdOutputStream
+    extends OutputStream
+{
+
+    public static final int DEFAULT_FRAME_SIZE = 1024 * 1024;
+
+    private final CountingOutputStream counter;
+
+    private final ZstdOutputStream zstd;
+
+    private final long frameSize;
+
+    private final SeekIndex seekIndex;
+
+    private long frameLength;
+
+    private boolean frameStarted;
+
+    public FramedZstdOutputStream( final OutputStream out, final int level, final int workers, final SeekIndex seekIndex )
+        throws IOException
+    {
+        this.counter = new CountingOutputStream( out );
+        this.zstd = new ZstdOutputStream( counter, level );
+        zstd.setChecksum( true );
+        zstd.setCloseFrameOnFlush( true );
+        if ( workers > 1 )
+        {
+            zstd.setWorkers( workers );
+        }
+
+        this.frameSize = seekIndex.getBlockSize();
+        this.seekIndex = seekIndex;
+    }
+
+    @Override
+    public void write( final int b )
+        throws IOException
+    {
+        write( new byte[] { (byte) b }, 0, 1 );
+    }
+
+    @Override
+    public void write( final byte[] b, int off, int len )
+        throws IOException
+    {
+        while ( len > 0 )
+        {
+            if ( !frameStarted )
+            {
+                seekIndex.addBlock( counter.getBytesWritten() );
+                frameStarted = true;
+            }
+
+            final int n = (int) Math.min( len, frameSize - frameLength );
+            zstd.write( b, off, n );
+            frameLength += n;
+            off += n;
+            len -= n;
+
+            if ( frameLength == frameSize )
+            {
+                // with close-frame-on-flush set, this ends the frame and pushes it all the way to the file.
+                zstd.flush();
+                frameLength = 0;
+                frameStarted = false;
+            }
+        }
+    }
+
+    /**
+     * Ignored: ending a frame anywhere but on a frame boundary would break the index. Everything is written by {@link #close()}.
+     */
+    @Override
+    public void flush()
+    {
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        zstd.close();
+    }
+
+}
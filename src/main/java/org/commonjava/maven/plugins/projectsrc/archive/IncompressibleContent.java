@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import static java.util.Arrays.asList;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Decides which entries are already compressed, so the writers can store them instead of spending CPU on deflating them again for almost
+ * no gain. Entries are recognized by file extension and, optionally, by the entropy of a sample of their first few KB: data that is close
+ * to 8 bits of entropy per byte leaves nothing for deflate to remove.
+ */
+public class IncompressibleContent
+{
+
+    /**
+     * Extensions of formats that are compressed by design: archives, compressed streams, images, audio, video and fonts.
+     */
+    public static final Set<String> DEFAULT_EXTENSIONS = Collections.unmodifiableSet(
+        new HashSet<String>( asList( "jar", "war", "ear", "rar", "aar", "apk", "zip", "7z", "gz", "tgz", "bz2", "tbz2", "xz", "txz", "lz",
+                                    "lzma", "lz4", "zst", "tzst", "z", "png", "jpg", "jpeg", "gif", "webp", "ico", "mp3", "ogg", "flac",
+                                    "m4a", "mp4", "m4v", "mov", "avi", "mkv", "webm", "woff", "woff2", "pdf", "docx", "xlsx", "pptx",
+                                    "odt", "ods", "odp" ) ) );
+
+    public static final int SAMPLE_SIZE = 4096;
+
+    /**
+     * Entropy, in bits per byte, at or above which a sample is considered incompressible. Source code sits around 4.5-5.5; compressed data
+     * measures a little under 8 on a 4KB sample, since a sample that short never hits all 256 byte values evenly.
+     */
+    public static final double ENTROPY_THRESHOLD = 7.5;
+
+    private final Set<String> extensions;
+
+    private final boolean sampleContent;
+
+    public IncompressibleContent( final boolean sampleContent )
+    {
+        this( DEFAULT_EXTENSIONS, sampleContent );
+    }
+
+    public IncompressibleContent( final Set<String> extensions, final boolean sampleContent )
+    {
+        this.extensions = extensions;
+        this.sampleContent = sampleContent;
+    }
+
+    /**
+     * Whether the entry's file should be stored, reading a sample of it if content sampling is enabled and the name alone doesn't tell.
+     */
+    public boolean isIncompressible( final ArchiveEntry entry )
+        throws IOException
+    {
+        if ( entry.isDirectory() )
+        {
+            return false;
+        }
+
+        if ( hasIncompressibleName( entry.getName() ) )
+        {
+            return true;
+        }
+
+        if ( !sampleContent || entry.getSize() < SAMPLE_SIZE )
+        {
+            return false;
+        }
+
+        final byte[] sample = new byte[SAMPLE_SIZE];
+        int length = 0;
+        final InputStream in = new FileInputStream( entry.getFile() );
+        try
+        {
+            int read;
+            while ( length < sample.length && ( read = in.read( sample, length, sample.length - length ) ) > 0 )
+            {
+                length += read;
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        return isHighEntropy( sample, 0, length );
+    }
+
+    /**
+     * Same as {@link #isIncompressible(ArchiveEntry)} for an entry whose content is already in memory.
+     */
+    public boolean isIncompressible( final ArchiveEntry entry, final byte[] data, final int length )
+    {
+        if ( entry.isDirectory() )
+        {
+            return false;
+        }
+
+        if ( hasIncompressibleName( entry.getName() ) )
+        {
+            return true;
+        }
+
+        return sampleContent && length >= SAMPLE_SIZE && isHighEntropy( data, 0, SAMPLE_SIZE );
+    }
+
+    public boolean hasIncompressibleName( final String name )
+    {
+        final int slash = name.lastIndexOf( '/' );
+        final int dot = name.lastIndexOf( '.' );
+        if ( dot <= slash + 1 || dot == name.length() - 1 )
+        {
+            // no extension, or a dot file like '.gitignore'.
+            return false;
+        }
+
+        return extensions.contains( name.substring( dot + 1 )
+                                        .toLowerCase( Locale.ENGLISH ) );
+    }
+
+    /**
+     * Shannon entropy of the byte values in the given range, compared against {@link #ENTROPY_THRESHOLD}.
+     */
+    public static boolean isHighEntropy( final byte[] data, final int offset, final int length )
+    {
+        if ( length == 0 )
+        {
+            return false;
+        }
+
+        final int[] counts = new int[256];
+        for ( int i = offset; i < offset + length; i++ )
+        {
+            counts[data[i] & 0xff]++;
+        }
+
+        double entropy = 0;
+        for ( final int count : counts )
+        {
+            if ( count > 0 )
+            {
+                final double p = (double) count / length;
+                entropy -= p * Math.log( p );
+            }
+        }
+
+        return entropy / Math.log( 2 ) >= ENTROPY_THRESHOLD;
+    }
+
+}
@@ -0,0 +1,408 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Writes the same set of entries to several {@link ArchiveSink}s in a single pass over the source tree. Each file is read exactly once, in
+ * chunks, and every chunk is handed to all sinks. Each sink runs on its own thread behind a bounded queue, so the formats compress concurrently
+ * and the overall time tends toward that of the slowest format rather than the sum of all of them.
+ * <p>
+ * Sinks implementing {@link DirectTransferSink} copy file contents themselves, file channel to file channel; a file is only read here if
+ * some other sink needs its bytes.
+ */
+public class MultiSinkArchiver
+{
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * Maximum number of pending operations per sink; bounds memory when one format is much slower than the others.
+     */
+    private static final int QUEUE_DEPTH = 256;
+
+    public void archive( final List<ArchiveEntry> entries, final List<ArchiveSink> sinks )
+        throws IOException
+    {
+        archive( ArchiveEntrySource.of( entries ), sinks );
+    }
+
+    /**
+     * Write entries as the source produces them. Nothing here holds on to an entry once it is written, so memory use does not depend on
+     * how many entries the source supplies.
+     */
+    public void archive( final ArchiveEntrySource entries, final List<ArchiveSink> sinks )
+        throws IOException
+    {
+        if ( sinks.size() == 1 )
+        {
+            archive( entries, sinks.get( 0 ) );
+            return;
+        }
+
+        final List<SinkWorker> workers = new ArrayList<SinkWorker>( sinks.size() );
+        for ( final ArchiveSink sink : sinks )
+        {
+            final SinkWorker worker = new SinkWorker( sink );
+            workers.add( worker );
+            worker.start();
+        }
+
+        boolean success = false;
+        try
+        {
+            final List<SinkWorker> readers = new ArrayList<SinkWorker>( workers.size() );
+            final List<SinkWorker> transferers = new ArrayList<SinkWorker>( workers.size() );
+            ArchiveEntry entry;
+            while ( ( entry = entries.next() ) != null )
+            {
+                dispatch( workers, new Op( Op.START, entry, null, 0 ) );
+
+                readers.clear();
+                transferers.clear();
+                for ( final SinkWorker worker : workers )
+                {
+                    if ( entry.hasContent() && canTransfer( worker.sink, entry ) )
+                    {
+                        transferers.add( worker );
+                    }
+                    else
+                    {
+                        readers.add( worker );
+                    }
+                }
+
+                if ( !transferers.isEmpty() )
+                {
+                    dispatch( transferers, new Op( Op.TRANSFER, entry, null, 0 ) );
+                }
+
+                if ( entry.hasContent() && !readers.isEmpty() )
+                {
+                    final InputStream in = new FileInputStream( entry.getFile() );
+                    try
+                    {
+                        long remaining = entry.getSize();
+                        while ( remaining > 0 )
+                        {
+                            final byte[] chunk = new byte[(int) Math.min( CHUNK_SIZE, remaining )];
+                            final int read = readFully( in, chunk, entry );
+                            remaining -= read;
+                            dispatch( readers, new Op( Op.DATA, null, chunk, read ) );
+                        }
+                    }
+                    finally
+                    {
+                        in.close();
+                    }
+                }
+                dispatch( workers, new Op( Op.END, null, null, 0 ) );
+                checkFailures( workers );
+            }
+
+            dispatch( workers, new Op( Op.FINISH, null, null, 0 ) );
+            join( workers );
+            checkFailures( workers );
+            success = true;
+        }
+        finally
+        {
+            if ( !success )
+            {
+                abort( workers );
+            }
+        }
+    }
+
+    /**
+     * Single-format case: no threads, no queues, just write straight through.
+     */
+    private void archive( final ArchiveEntrySource entries, final ArchiveSink sink )
+        throws IOException
+    {
+        boolean success = false;
+        try
+        {
+            final byte[] chunk = new byte[CHUNK_SIZE];
+            ArchiveEntry entry;
+            while ( ( entry = entries.next() ) != null )
+            {
+                sink.startEntry( entry );
+                if ( entry.hasContent() && canTransfer( sink, entry ) )
+                {
+                    ( (DirectTransferSink) sink ).transfer( entry );
+                }
+                else if ( entry.hasContent() )
+                {
+                    final InputStream in = new FileInputStream( entry.getFile() );
+                    try
+                    {
+                        long remaining = entry.getSize();
+                        while ( remaining > 0 )
+                        {
+                            final int read = readFully( in, chunk, (int) Math.min( CHUNK_SIZE, remaining ), entry );
+                            remaining -= read;
+                            sink.write( chunk, 0, read );
+                        }
+                    }
+                    finally
+                    {
+                        in.close();
+                    }
+                }
+                sink.endEntry();
+            }
+
+            sink.finish();
+            success = true;
+        }
+        finally
+        {
+            if ( !success )
+            {
+                sink.abort();
+            }
+        }
+    }
+
+    private static boolean canTransfer( final ArchiveSink sink, final ArchiveEntry entry )
+    {
+        return sink instanceof DirectTransferSink && ( (DirectTransferSink) sink ).canTransfer( entry );
+    }
+
+    private static int readFully( final InputStream in, final byte[] buf, final ArchiveEntry entry )
+        throws IOException
+    {
+        return readFully( in, buf, buf.length, entry );
+    }
+
+    private static int readFully( final InputStream in, final byte[] buf, final int len, final ArchiveEntry entry )
+        throws IOException
+    {
+        int total = 0;
+        while ( total < len )
+        {
+            final int read = in.read( buf, total, len - total );
+            if ( read < 0 )
+            {
+                throw new IOException( "File was truncated while archiving: " + entry.getFile() );
+            }
+            total += read;
+        }
+
+        return total;
+    }
+
+    private void dispatch( final List<SinkWorker> workers, final Op op )
+        throws IOException
+    {
+        try
+        {
+            for ( final SinkWorker worker : workers )
+            {
+                worker.queue.put( op );
+            }
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+            throw new InterruptedIOException( "Interrupted while archiving." );
+        }
+    }
+
+    private void checkFailures( final List<SinkWorker> workers )
+        throws IOException
+    {
+        for ( final SinkWorker worker : workers )
+        {
+            final Throwable error = worker.error;
+            if ( error instanceof IOException )
+            {
+                throw (IOException) error;
+            }
+            else if ( error != null )
+            {
+                throw new IOException( "Failed to write " + worker.sink.getFormat() + " archive: " + error.getMessage(), error );
+            }
+        }
+    }
+
+    private void join( final List<SinkWorker> workers )
+        throws IOException
+    {
+        try
+        {
+            for ( final SinkWorker worker : workers )
+            {
+                worker.join();
+            }
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+            throw new InterruptedIOException( "Interrupted while archiving." );
+        }
+    }
+
+    private void abort( final List<SinkWorker> workers )
+    {
+        for ( final SinkWorker worker : workers )
+        {
+            worker.queue.clear();
+            worker.queue.offer( new Op( Op.ABORT, null, null, 0 ) );
+        }
+
+        for ( final SinkWorker worker : workers )
+        {
+            try
+            {
+                worker.join();
+            }
+            catch ( final InterruptedException e )
+            {
+                Thread.currentThread()
+                      .interrupt();
+            }
+
+            // also removes the output of sinks that finished before another one failed.
+            worker.sink.abort();
+        }
+    }
+
+    private static final class Op
+    {
+        static final int START = 0;
+
+        static final int DATA = 1;
+
+        static final int END = 2;
+
+        static final int FINISH = 3;
+
+        static final int ABORT = 4;
+
+        static final int TRANSFER = 5;
+
+        final int type;
+
+        final ArchiveEntry entry;
+
+        final byte[] data;
+
+        final int length;
+
+        Op( final int type, final ArchiveEntry entry, final byte[] data, final int length )
+        {
+            this.type = type;
+            this.entry = entry;
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    private static final class SinkWorker
+        extends Thread
+    {
+        final ArchiveSink sink;
+
+        final BlockingQueue<Op> queue = new ArrayBlockingQueue<Op>( QUEUE_DEPTH );
+
+        volatile Throwable error;
+
+        SinkWorker( final ArchiveSink sink )
+        {
+            super( "projectsrc-" + sink.getFormat() );
+            setDaemon( true );
+            this.sink = sink;
+        }
+
+        @Override
+        public void run()
+        {
+            while ( true )
+            {
+                final Op op;
+                try
+                {
+                    op = queue.take();
+                }
+                catch ( final InterruptedException e )
+                {
+                    error = e;
+                    sink.abort();
+                    return;
+                }
+
+                if ( op.type == Op.ABORT )
+                {
+                    return;
+                }
+
+                if ( error != null )
+                {
+                    // keep draining so the reader never blocks on a dead sink.
+                    if ( op.type == Op.FINISH )
+                    {
+                        return;
+                    }
+                    continue;
+                }
+
+                try
+                {
+                    switch ( op.type )
+                    {
+                        case Op.START:
+                            sink.startEntry( op.entry );
+                            break;
+                        case Op.DATA:
+                            sink.write( op.data, 0, op.length );
+                            break;
+                        case Op.TRANSFER:
+                            ( (DirectTransferSink) sink ).transfer( op.entry );
+                            break;
+                        case Op.END:
+                            sink.endEntry();
+                            break;
+                        default:
+                            sink.finish();
+                            return;
+                    }
+                }
+                catch ( final Throwable e )
+                {
+                    error = e;
+                    sink.abort();
+                    if ( op.type == Op.FINISH )
+                    {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,412 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip writer that compresses fixed-size blocks of its input on a thread pool, in the manner of pigz. Each block is deflated independently
+ * (primed with the last 32k of the previous block as a dictionary) and ends on a sync flush, so the compressed blocks can simply be
+ * concatenated in order. The result is a single, standard gzip member that any gzip reader can decompress.
+ * <p>
+ * Optionally, a block whose bytes are already close to random (see {@link IncompressibleContent#isHighEntropy(byte[], int, int)}), such as
+ * one falling inside an archived jar or image, is written as stored deflate blocks instead of being compressed.
+ * <p>
+ * Given a {@link SeekIndex}, blocks are compressed without the previous block as dictionary, so that a reader can start inflating at any
+ * block, and the offset of each block in the output is recorded in the index.
+ */
+public class ParallelGzipOutputStream
+    extends OutputStream
+{
+
+    public static final int DEFAULT_BLOCK_SIZE = 128 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private static final byte[] HEADER = { 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    /**
+     * An empty, final block using fixed Huffman codes; terminates the deflate stream after the last sync-flushed block.
+     */
+    private static final byte[] FINAL_BLOCK = { 0x03, 0x00 };
+
+    private final OutputStream out;
+
+    private final int level;
+
+    private final int blockSize;
+
+    private final int maxPending;
+
+    private final WorkerPool pool;
+
+    private final boolean ownsPool;
+
+    private final LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+
+    private final CRC32 crc = new CRC32();
+
+    private final CompressionCache cache;
+
+    private final boolean storeIncompressible;
+
+    private final SeekIndex seekIndex;
+
+    private long compressedSize;
+
+    private long uncompressedSize;
+
+    private byte[] block;
+
+    private int blockLength;
+
+    private byte[] previousBlock;
+
+    private boolean closed;
+
+    public ParallelGzipOutputStream( final OutputStream out, final int threads, final int blockSize )
+        throws IOException
+    {
+        this( out, Deflater.DEFAULT_COMPRESSION, threads, blockSize );
+    }
+
+    public ParallelGzipOutputStream( final OutputStream out, final int level, final int threads, final int blockSize )
+        throws IOException
+    {
+        this( out, level, threads, blockSize, null );
+    }
+
+    public ParallelGzipOutputStream( final OutputStream out, final int level, final int threads, final int blockSize,
+                                     final CompressionCache cache )
+        throws IOException
+    {
+        this( out, level, threads, blockSize, cache, false );
+    }
+
+    public ParallelGzipOutputStream( final OutputStream out, final int level, final int threads, final int blockSize,
+                                     final CompressionCache cache, final boolean storeIncompressible )
+        throws IOException
+    {
+        this( out, level, threads, blockSize, cache, storeIncompressible, null );
+    }
+
+    public ParallelGzipOutputStream( final OutputStream out, final int level, final int threads, final int blockSize,
+                                     final CompressionCache cache, final boolean storeIncompressible, final SeekIndex seekIndex )
+        throws IOException
+    {
+        this( out, level, threads, blockSize, cache, storeIncompressible, seekIndex, null );
+    }
+
+    /**
+     * @param threads how many blocks may be compressed at once
+     * @param pool the threads and memory shared with the other compressors, or null to start threads of its own
+     */
+    public ParallelGzipOutputStream( final OutputStream out, final int level, final int threads, final int blockSize,
+                                     final CompressionCache cache, final boolean storeIncompressible, final SeekIndex seekIndex,
+                                     final WorkerPool pool )
+        throws IOException
+    {
+        if ( threads < 1 )
+        {
+            throw new IllegalArgumentException( "Thread count must be at least 1, was: " + threads );
+        }
+        if ( blockSize < 1 )
+        {
+            throw new IllegalArgumentException( "Block size must be positive, was: " + blockSize );
+        }
+
+        this.out = out;
+        this.level = level;
+        this.blockSize = blockSize;
+        this.maxPending = threads * 2;
+        this.cache = cache;
+        this.storeIncompressible = storeIncompressible;
+        this.seekIndex = seekIndex;
+        this.ownsPool = pool == null;
+        this.pool = pool == null ? new WorkerPool( threads, Long.MAX_VALUE, "projectsrc-gzip" ) : pool;
+        this.block = new byte[blockSize];
+
+        out.write( HEADER );
+        compressedSize = HEADER.length;
+    }
+
+    @Override
+    public void write( final int b )
+        throws IOException
+    {
+        ensureOpen();
+        block[blockLength++] = (byte) b;
+        crc.update( b );
+        uncompressedSize++;
+        if ( blockLength == blockSize )
+        {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write( final byte[] b, int off, int len )
+        throws IOException
+    {
+        ensureOpen();
+        crc.update( b, off, len );
+        uncompressedSize += len;
+        while ( len > 0 )
+        {
+            final int n = Math.min( len, blockSize - blockLength );
+            System.arraycopy( b, off, block, blockLength, n );
+            blockLength += n;
+            off += n;
+            len -= n;
+            if ( blockLength == blockSize )
+            {
+                submitBlock();
+            }
+        }
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        if ( closed )
+        {
+            return;
+        }
+
+        closed = true;
+        try
+        {
+            if ( blockLength > 0 )
+            {
+                submitBlock();
+            }
+
+            while ( !pending.isEmpty() )
+            {
+                writeNext();
+            }
+
+            out.write( FINAL_BLOCK );
+            writeInt( (int) crc.getValue() );
+            writeInt( (int) uncompressedSize );
+            out.flush();
+        }
+        finally
+        {
+            releasePending();
+            out.close();
+        }
+    }
+
+    private void submitBlock()
+        throws IOException
+    {
+        final byte[] dictionary = seekIndex == null ? previousBlock : null;
+        reserve( blockMemory() );
+        pending.add( pool.submit( new BlockCompressor( block, blockLength, dictionary, level, cache, storeIncompressible ) ) );
+
+        previousBlock = block;
+        block = new byte[blockSize];
+        blockLength = 0;
+
+        while ( pending.size() > maxPending )
+        {
+            writeNext();
+        }
+    }
+
+    private void writeNext()
+        throws IOException
+    {
+        final Future<byte[]> next = pending.removeFirst();
+        pool.release( blockMemory() );
+        try
+        {
+            final byte[] compressed = next.get();
+            if ( seekIndex != null )
+            {
+                seekIndex.addBlock( compressedSize );
+            }
+            out.write( compressed );
+            compressedSize += compressed.length;
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting for gzip block compression." );
+        }
+        catch ( final ExecutionException e )
+        {
+            throw new IOException( "Failed to compress gzip block: " + e.getCause()
+                                                                       .getMessage(), e.getCause() );
+        }
+    }
+
+    /**
+     * A block in flight holds its input and, once compressed, about as much output.
+     */
+    private long blockMemory()
+    {
+        return 2L * blockSize;
+    }
+
+    /**
+     * Take memory for the next block from the pool, writing out finished ones while it is used up.
+     */
+    private void reserve( final long bytes )
+        throws IOException
+    {
+        while ( !pool.tryReserve( bytes ) )
+        {
+            if ( pending.isEmpty() )
+            {
+                pool.overdraw( bytes );
+                return;
+            }
+            writeNext();
+        }
+    }
+
+    private void releasePending()
+    {
+        for ( final Future<?> future : pending )
+        {
+            future.cancel( true );
+        }
+        pool.release( pending.size() * blockMemory() );
+        pending.clear();
+        if ( ownsPool )
+        {
+            pool.shutdown();
+        }
+    }
+
+    private void writeInt( final int value )
+        throws IOException
+    {
+        out.write( value & 0xff );
+        out.write( ( value >> 8 ) & 0xff );
+        out.write( ( value >> 16 ) & 0xff );
+        out.write( ( value >> 24 ) & 0xff );
+    }
+
+    private void ensureOpen()
+        throws IOException
+    {
+        if ( closed )
+        {
+            throw new IOException( "Stream closed." );
+        }
+    }
+
+    private static final class BlockCompressor
+        implements Callable<byte[]>
+    {
+        private final byte[] data;
+
+        private final int length;
+
+        private final byte[] dictionary;
+
+        private final int level;
+
+        private final CompressionCache cache;
+
+        private final boolean storeIncompressible;
+
+        BlockCompressor( final byte[] data, final int length, final byte[] dictionary, final int level, final CompressionCache cache,
+                         final boolean storeIncompressible )
+        {
+            this.data = data;
+            this.length = length;
+            this.dictionary = dictionary;
+            this.level = level;
+            this.cache = cache;
+            this.storeIncompressible = storeIncompressible;
+        }
+
+        @Override
+        public byte[] call()
+        {
+            final int blockLevel =
+                storeIncompressible && IncompressibleContent.isHighEntropy( data, 0, length ) ? Deflater.NO_COMPRESSION : level;
+
+            final int dictLength = dictionary == null ? 0 : Math.min( DICTIONARY_SIZE, dictionary.length );
+            final int dictOffset = dictionary == null ? 0 : dictionary.length - dictLength;
+
+            String key = null;
+            if ( cache != null )
+            {
+                key = CompressionCache.key( "gzip-block:" + blockLevel, dictionary, dictOffset, dictLength, data, 0, length );
+                final byte[] cached = cache.get( key );
+                if ( cached != null )
+                {
+                    return cached;
+                }
+            }
+
+            final byte[] compressed = compress( blockLevel, dictOffset, dictLength );
+            if ( key != null )
+            {
+                cache.put( key, compressed, 0, compressed.length );
+            }
+
+            return compressed;
+        }
+
+        private byte[] compress( final int blockLevel, final int dictOffset, final int dictLength )
+        {
+            final Deflater deflater = new Deflater( blockLevel, true );
+            try
+            {
+                if ( dictionary != null )
+                {
+                    deflater.setDictionary( dictionary, dictOffset, dictLength );
+                }
+
+                deflater.setInput( data, 0, length );
+
+                final ByteArrayOutputStream result = new ByteArrayOutputStream( length / 2 + 64 );
+                final byte[] buf = new byte[Math.max( 4096, length / 4 )];
+                int n;
+                do
+                {
+                    n = deflater.deflate( buf, 0, buf.length, Deflater.SYNC_FLUSH );
+                    result.write( buf, 0, n );
+                }
+                while ( n == buf.length || !deflater.needsInput() );
+
+                return result.toByteArray();
+            }
+            finally
+            {
+                deflater.end();
+            }
+        }
+    }
+
+}
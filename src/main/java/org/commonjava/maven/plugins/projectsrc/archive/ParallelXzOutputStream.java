@@ -0,0 +1,437 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.UnsupportedOptionsException;
+import org.tukaani.xz.XZ;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Xz writer that compresses fixed-size blocks of its input on a thread pool, in the manner of <code>xz -T</code>. Each block is encoded
+ * independently as an xz block; the blocks are written in order into a single xz stream with one index covering all of them, so any xz
+ * reader can decompress the result (and multithreaded readers can decompress the blocks in parallel).
+ */
+public class ParallelXzOutputStream
+    extends OutputStream
+{
+
+    public static final int DEFAULT_PRESET = LZMA2Options.PRESET_DEFAULT;
+
+    private static final int MIN_BLOCK_SIZE = 1024 * 1024;
+
+    private static final int HEADER_SIZE = 12;
+
+    private static final int FOOTER_SIZE = 12;
+
+    private static final byte[] HEADER_MAGIC = { (byte) 0xfd, '7', 'z', 'X', 'Z', 0 };
+
+    private static final byte[] FOOTER_MAGIC = { 'Y', 'Z' };
+
+    private static final byte[] STREAM_FLAGS = { 0, XZ.CHECK_CRC64 };
+
+    private final OutputStream out;
+
+    private final int preset;
+
+    private final int blockSize;
+
+    private final long encoderMemory;
+
+    private final int maxPending;
+
+    private final WorkerPool pool;
+
+    private final boolean ownsPool;
+
+    private final LinkedList<Future<Block>> pending = new LinkedList<Future<Block>>();
+
+    private final ByteArrayOutputStream index = new ByteArrayOutputStream();
+
+    private long blockCount;
+
+    private byte[] block;
+
+    private int blockLength;
+
+    private boolean closed;
+
+    public ParallelXzOutputStream( final OutputStream out, final int preset, final int threads )
+        throws IOException
+    {
+        this( out, preset, threads, 0 );
+    }
+
+    /**
+     * @param blockSize uncompressed size of each independently compressed block, or 0 to use three times the preset's dictionary size
+     *            (the same default <code>xz -T</code> uses).
+     */
+    public ParallelXzOutputStream( final OutputStream out, final int preset, final int threads, final int blockSize )
+        throws IOException
+    {
+        this( out, preset, threads, blockSize, null );
+    }
+
+    /**
+     * @param threads how many blocks may be compressed at once
+     * @param pool the threads and memory shared with the other compressors, or null to start threads of its own
+     */
+    public ParallelXzOutputStream( final OutputStream out, final int preset, final int threads, final int blockSize,
+                                   final WorkerPool pool )
+        throws IOException
+    {
+        if ( threads < 1 )
+        {
+            throw new IllegalArgumentException( "Thread count must be at least 1, was: " + threads );
+        }
+        if ( blockSize < 0 )
+        {
+            throw new IllegalArgumentException( "Block size cannot be negative, was: " + blockSize );
+        }
+
+        final LZMA2Options options;
+        try
+        {
+            options = new LZMA2Options( preset );
+        }
+        catch ( final UnsupportedOptionsException e )
+        {
+            throw new IOException( "Invalid xz compression level: " + preset, e );
+        }
+
+        this.out = out;
+        this.preset = preset;
+        this.blockSize = blockSize > 0 ? blockSize : Math.max( MIN_BLOCK_SIZE, options.getDictSize() * 3 );
+        this.encoderMemory = options.getEncoderMemoryUsage() * 1024L;
+        this.maxPending = threads;
+        this.ownsPool = pool == null;
+        this.pool = pool == null ? new WorkerPool( threads, Long.MAX_VALUE, "projectsrc-xz" ) : pool;
+
+        out.write( HEADER_MAGIC );
+        out.write( STREAM_FLAGS );
+        writeCrc32( out, STREAM_FLAGS, 0, STREAM_FLAGS.length );
+    }
+
+    @Override
+    public void write( final int b )
+        throws IOException
+    {
+        write( new byte[] { (byte) b }, 0, 1 );
+    }
+
+    @Override
+    public void write( final byte[] b, int off, int len )
+        throws IOException
+    {
+        ensureOpen();
+        while ( len > 0 )
+        {
+            if ( block == null )
+            {
+                // allocated lazily, since blocks are large and the last one may never be needed.
+                block = new byte[blockSize];
+            }
+
+            final int n = Math.min( len, blockSize - blockLength );
+            System.arraycopy( b, off, block, blockLength, n );
+            blockLength += n;
+            off += n;
+            len -= n;
+            if ( blockLength == blockSize )
+            {
+                submitBlock();
+            }
+        }
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        if ( closed )
+        {
+            return;
+        }
+
+        closed = true;
+        try
+        {
+            if ( blockLength > 0 )
+            {
+                submitBlock();
+            }
+
+            while ( !pending.isEmpty() )
+            {
+                writeNext();
+            }
+
+            writeIndexAndFooter();
+            out.flush();
+        }
+        finally
+        {
+            releasePending();
+            out.close();
+        }
+    }
+
+    private void submitBlock()
+        throws IOException
+    {
+        reserve( blockMemory() );
+        pending.add( pool.submit( new BlockCompressor( block, blockLength, preset ) ) );
+
+        block = null;
+        blockLength = 0;
+
+        while ( pending.size() > maxPending )
+        {
+            writeNext();
+        }
+    }
+
+    private void writeNext()
+        throws IOException
+    {
+        final Future<Block> next = pending.removeFirst();
+        pool.release( blockMemory() );
+        final Block compressed;
+        try
+        {
+            compressed = next.get();
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting for xz block compression." );
+        }
+        catch ( final ExecutionException e )
+        {
+            throw new IOException( "Failed to compress xz block: " + e.getCause()
+                                                                     .getMessage(), e.getCause() );
+        }
+
+        out.write( compressed.data, compressed.offset, compressed.length );
+        writeVarint( index, compressed.unpaddedSize );
+        writeVarint( index, compressed.uncompressedSize );
+        blockCount++;
+    }
+
+    /**
+     * A block in flight holds its input and, once compressed, about as much output, plus the state of the encoder compressing it (most of
+     * it the match finder, about 94MB at the default preset).
+     */
+    private long blockMemory()
+    {
+        return 2L * blockSize + encoderMemory;
+    }
+
+    /**
+     * Take memory for the next block from the pool, writing out finished ones while it is used up.
+     */
+    private void reserve( final long bytes )
+        throws IOException
+    {
+        while ( !pool.tryReserve( bytes ) )
+        {
+            if ( pending.isEmpty() )
+            {
+                pool.overdraw( bytes );
+                return;
+            }
+            writeNext();
+        }
+    }
+
+    private void releasePending()
+    {
+        for ( final Future<?> future : pending )
+        {
+            future.cancel( true );
+        }
+        pool.release( pending.size() * blockMemory() );
+        pending.clear();
+        if ( ownsPool )
+        {
+            pool.shutdown();
+        }
+    }
+
+    private void writeIndexAndFooter()
+        throws IOException
+    {
+        final ByteArrayOutputStream buf = new ByteArrayOutputStream( index.size() + 16 );
+        buf.write( 0 );
+        writeVarint( buf, blockCount );
+        index.writeTo( buf );
+        while ( buf.size() % 4 != 0 )
+        {
+            buf.write( 0 );
+        }
+
+        final byte[] indexBytes = buf.toByteArray();
+        out.write( indexBytes );
+        writeCrc32( out, indexBytes, 0, indexBytes.length );
+
+        final long backwardSize = ( indexBytes.length + 4 ) / 4 - 1;
+        final byte[] footer = new byte[6];
+        for ( int i = 0; i < 4; i++ )
+        {
+            footer[i] = (byte) ( backwardSize >>> ( 8 * i ) );
+        }
+        footer[4] = STREAM_FLAGS[0];
+        footer[5] = STREAM_FLAGS[1];
+
+        writeCrc32( out, footer, 0, footer.length );
+        out.write( footer );
+        out.write( FOOTER_MAGIC );
+    }
+
+    private static void writeCrc32( final OutputStream out, final byte[] data, final int off, final int len )
+        throws IOException
+    {
+        final CRC32 crc = new CRC32();
+        crc.update( data, off, len );
+        final long value = crc.getValue();
+        for ( int i = 0; i < 4; i++ )
+        {
+            out.write( (int) ( value >>> ( 8 * i ) ) & 0xff );
+        }
+    }
+
+    private static void writeVarint( final ByteArrayOutputStream out, long value )
+    {
+        while ( value >= 0x80 )
+        {
+            out.write( (int) ( value & 0x7f ) | 0x80 );
+            value >>>= 7;
+        }
+        out.write( (int) value );
+    }
+
+    private void ensureOpen()
+        throws IOException
+    {
+        if ( closed )
+        {
+            throw new IOException( "Stream closed." );
+        }
+    }
+
+    /**
+     * One compressed xz block, as a slice of a complete single-block xz stream, along with the sizes its index record needs.
+     */
+    private static final class Block
+    {
+        private final byte[] data;
+
+        private final int offset;
+
+        private final int length;
+
+        private final long unpaddedSize;
+
+        private final long uncompressedSize;
+
+        Block( final byte[] data, final int offset, final int length, final long unpaddedSize, final long uncompressedSize )
+        {
+            this.data = data;
+            this.offset = offset;
+            this.length = length;
+            this.unpaddedSize = unpaddedSize;
+            this.uncompressedSize = uncompressedSize;
+        }
+    }
+
+    /**
+     * Compresses one block as a complete xz stream, then cuts the block out of it. The stream's own index holds exactly one record, which
+     * gives the block's unpadded and uncompressed sizes for the combined index.
+     */
+    private static final class BlockCompressor
+        implements Callable<Block>
+    {
+        private final byte[] data;
+
+        private final int length;
+
+        private final int preset;
+
+        BlockCompressor( final byte[] data, final int length, final int preset )
+        {
+            this.data = data;
+            this.length = length;
+            this.preset = preset;
+        }
+
+        @Override
+        public Block call()
+            throws IOException
+        {
+            final ByteArrayOutputStream result = new ByteArrayOutputStream( length / 3 + 1024 );
+            final XZOutputStream xz = new XZOutputStream( result, new LZMA2Options( preset ), XZ.CHECK_CRC64 );
+            xz.write( data, 0, length );
+            xz.finish();
+
+            final byte[] stream = result.toByteArray();
+            final int footerStart = stream.length - FOOTER_SIZE;
+            final long backwardSize = ( stream[footerStart + 4] & 0xffL ) | ( stream[footerStart + 5] & 0xffL ) << 8
+                | ( stream[footerStart + 6] & 0xffL ) << 16 | ( stream[footerStart + 7] & 0xffL ) << 24;
+            final int indexStart = (int) ( footerStart - ( backwardSize + 1 ) * 4 );
+
+            final int[] pos = { indexStart + 1 };
+            final long records = readVarint( stream, pos );
+            if ( stream[indexStart] != 0 || records != 1 )
+            {
+                throw new IOException( "Unexpected xz index layout for a single block." );
+            }
+
+            final long unpaddedSize = readVarint( stream, pos );
+            final long uncompressedSize = readVarint( stream, pos );
+            final int paddedSize = (int) ( ( unpaddedSize + 3 ) & ~3L );
+
+            return new Block( stream, HEADER_SIZE, paddedSize, unpaddedSize, uncompressedSize );
+        }
+
+        private static long readVarint( final byte[] buf, final int[] pos )
+        {
+            long value = 0;
+            int shift = 0;
+            int b;
+            do
+            {
+                b = buf[pos[0]++] & 0xff;
+                value |= (long) ( b & 0x7f ) << shift;
+                shift += 7;
+            }
+            while ( ( b & 0x80 ) != 0 );
+
+            return value;
+        }
+    }
+
+}
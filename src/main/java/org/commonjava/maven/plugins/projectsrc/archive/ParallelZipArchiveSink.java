@@ -0,0 +1,476 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * {@link ArchiveSink} for the zip format that deflates entries on a thread pool. Each file up to {@link #DEFAULT_BUFFER_THRESHOLD} bytes is
+ * buffered in memory and compressed independently; the results are written to the archive as raw entries, strictly in the order the entries
+ * were started, so the output is deterministic. Larger files are written inline (after all pending entries), which keeps memory bounded.
+ * <p>
+ * Given a {@link CompressionCache}, buffered entries whose content was deflated by an earlier build are copied raw from the cache rather than
+ * compressed again. Given an {@link IncompressibleContent}, entries it recognizes are stored without trying to deflate them. Links are
+ * listed in a {@link DuplicatesManifest}.
+ */
+public class ParallelZipArchiveSink
+    implements ArchiveSink
+{
+
+    public static final int DEFAULT_BUFFER_THRESHOLD = 1024 * 1024;
+
+    private final String format;
+
+    private final File destination;
+
+    private final ZipArchiveOutputStream zip;
+
+    private final WorkerPool pool;
+
+    private final boolean ownsPool;
+
+    private final int maxPending;
+
+    private final int level;
+
+    private final CompressionCache cache;
+
+    private final IncompressibleContent incompressible;
+
+    private final DuplicatesManifest duplicates = new DuplicatesManifest();
+
+    private final LinkedList<Future<DeflatedEntry>> pending = new LinkedList<Future<DeflatedEntry>>();
+
+    /**
+     * Memory taken from the pool for each pending entry, in the same order.
+     */
+    private final LinkedList<Long> reservations = new LinkedList<Long>();
+
+    private ArchiveEntry current;
+
+    private byte[] buffer;
+
+    private int bufferLength;
+
+    public ParallelZipArchiveSink( final String format, final File destination, final int threads )
+        throws IOException
+    {
+        this( format, destination, threads, Deflater.DEFAULT_COMPRESSION );
+    }
+
+    public ParallelZipArchiveSink( final String format, final File destination, final int threads, final int level )
+        throws IOException
+    {
+        this( format, destination, threads, level, null );
+    }
+
+    public ParallelZipArchiveSink( final String format, final File destination, final int threads, final int level,
+                                   final CompressionCache cache )
+        throws IOException
+    {
+        this( format, destination, threads, level, cache, null );
+    }
+
+    public ParallelZipArchiveSink( final String format, final File destination, final int threads, final int level,
+                                   final CompressionCache cache, final IncompressibleContent incompressible )
+        throws IOException
+    {
+        this( format, destination, threads, level, cache, incompressible, null );
+    }
+
+    /**
+     * @param threads how many entries may be deflated at once
+     * @param pool the threads and memory shared with the other compressors, or null to start threads of its own
+     */
+    public ParallelZipArchiveSink( final String format, final File destination, final int threads, final int level,
+                                   final CompressionCache cache, final IncompressibleContent incompressible, final WorkerPool pool )
+        throws IOException
+    {
+        if ( threads < 1 )
+        {
+            throw new IllegalArgumentException( "Thread count must be at least 1, was: " + threads );
+        }
+
+        this.format = format;
+        this.destination = destination;
+        this.level = level;
+        this.cache = cache;
+        this.incompressible = incompressible;
+        this.maxPending = threads * 4;
+        this.zip = new ZipArchiveOutputStream( destination );
+        zip.setEncoding( "UTF-8" );
+        zip.setLevel( level );
+        this.ownsPool = pool == null;
+        this.pool = pool == null ? new WorkerPool( threads, Long.MAX_VALUE, "projectsrc-zip" ) : pool;
+    }
+
+    @Override
+    public String getFormat()
+    {
+        return format;
+    }
+
+    @Override
+    public File getDestination()
+    {
+        return destination;
+    }
+
+    @Override
+    public void startEntry( final ArchiveEntry entry )
+        throws IOException
+    {
+        current = entry;
+        if ( entry.isDirectory() )
+        {
+            return;
+        }
+
+        if ( entry.isLink() )
+        {
+            duplicates.add( entry );
+            return;
+        }
+
+        if ( entry.getSize() <= DEFAULT_BUFFER_THRESHOLD )
+        {
+            buffer = new byte[(int) entry.getSize()];
+            bufferLength = 0;
+        }
+        else
+        {
+            // too big to hold in memory; flush everything queued ahead of it, then stream it through.
+            drain();
+            final ZipArchiveEntry ze = ZipArchiveSink.toZipEntry( entry );
+            if ( incompressible != null && incompressible.isIncompressible( entry ) )
+            {
+                ze.setMethod( ZipArchiveEntry.STORED );
+            }
+            zip.putArchiveEntry( ze );
+        }
+    }
+
+    @Override
+    public void write( final byte[] buf, final int off, final int len )
+        throws IOException
+    {
+        if ( buffer != null )
+        {
+            System.arraycopy( buf, off, buffer, bufferLength, len );
+            bufferLength += len;
+        }
+        else
+        {
+            zip.write( buf, off, len );
+        }
+    }
+
+    @Override
+    public void endEntry()
+        throws IOException
+    {
+        if ( current.isLink() )
+        {
+            // listed in the manifest instead.
+            current = null;
+            return;
+        }
+
+        if ( current.isDirectory() )
+        {
+            final FutureTask<DeflatedEntry> done =
+                new FutureTask<DeflatedEntry>( new DeflateTask( ZipArchiveSink.toZipEntry( current ), null, 0, level, null ) );
+            done.run();
+            enqueue( done, 0 );
+        }
+        else if ( buffer != null )
+        {
+            final boolean store = incompressible != null && incompressible.isIncompressible( current, buffer, bufferLength );
+            final int entryLevel = store ? Deflater.NO_COMPRESSION : level;
+            // the buffer, and about as much again for its deflated copy.
+            final long memory = 2L * bufferLength;
+            reserve( memory );
+            enqueue( pool.submit( new DeflateTask( ZipArchiveSink.toZipEntry( current ), buffer, bufferLength, entryLevel, cache ) ),
+                     memory );
+            buffer = null;
+        }
+        else
+        {
+            zip.closeArchiveEntry();
+        }
+
+        current = null;
+    }
+
+    @Override
+    public void finish()
+        throws IOException
+    {
+        try
+        {
+            drain();
+            duplicates.write( zip );
+            zip.finish();
+            zip.close();
+        }
+        finally
+        {
+            releasePending();
+        }
+    }
+
+    @Override
+    public void abort()
+    {
+        releasePending();
+        ArchiveSinks.closeQuietly( zip );
+        destination.delete();
+    }
+
+    private void enqueue( final Future<DeflatedEntry> future, final long memory )
+        throws IOException
+    {
+        pending.add( future );
+        reservations.add( memory );
+        while ( pending.size() > maxPending )
+        {
+            writeNext();
+        }
+    }
+
+    private void drain()
+        throws IOException
+    {
+        while ( !pending.isEmpty() )
+        {
+            writeNext();
+        }
+    }
+
+    private void writeNext()
+        throws IOException
+    {
+        final Future<DeflatedEntry> next = pending.removeFirst();
+        pool.release( reservations.removeFirst() );
+        final DeflatedEntry deflated;
+        try
+        {
+            deflated = next.get();
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting for zip entry compression." );
+        }
+        catch ( final ExecutionException e )
+        {
+            throw new IOException( "Failed to compress zip entry: " + e.getCause()
+                                                                       .getMessage(), e.getCause() );
+        }
+
+        zip.addRawArchiveEntry( deflated.entry, new ByteArrayInputStream( deflated.data, 0, deflated.length ) );
+    }
+
+    /**
+     * Take memory for the next entry from the pool, writing out finished ones while it is used up.
+     */
+    private void reserve( final long bytes )
+        throws IOException
+    {
+        while ( !pool.tryReserve( bytes ) )
+        {
+            if ( pending.isEmpty() )
+            {
+                pool.overdraw( bytes );
+                return;
+            }
+            writeNext();
+        }
+    }
+
+    private void releasePending()
+    {
+        for ( final Future<?> future : pending )
+        {
+            future.cancel( true );
+        }
+        for ( final Long memory : reservations )
+        {
+            pool.release( memory );
+        }
+        pending.clear();
+        reservations.clear();
+        if ( ownsPool )
+        {
+            pool.shutdown();
+        }
+    }
+
+    private static final class DeflatedEntry
+    {
+        final ZipArchiveEntry entry;
+
+        final byte[] data;
+
+        final int length;
+
+        DeflatedEntry( final ZipArchiveEntry entry, final byte[] data, final int length )
+        {
+            this.entry = entry;
+            this.data = data;
+            this.length = length;
+        }
+    }
+
+    private static final class DeflateTask
+        implements Callable<DeflatedEntry>
+    {
+        private final ZipArchiveEntry entry;
+
+        private final byte[] data;
+
+        private final int length;
+
+        private final int level;
+
+        private final CompressionCache cache;
+
+        DeflateTask( final ZipArchiveEntry entry, final byte[] data, final int length, final int level, final CompressionCache cache )
+        {
+            this.entry = entry;
+            this.data = data;
+            this.length = length;
+            this.level = level;
+            this.cache = cache;
+        }
+
+        @Override
+        public DeflatedEntry call()
+        {
+            final CRC32 crc = new CRC32();
+            if ( length > 0 )
+            {
+                crc.update( data, 0, length );
+            }
+            entry.setCrc( crc.getValue() );
+            entry.setSize( length );
+
+            if ( entry.isDirectory() || length == 0 )
+            {
+                entry.setMethod( ZipArchiveEntry.STORED );
+                entry.setCompressedSize( 0 );
+                return new DeflatedEntry( entry, new byte[0], 0 );
+            }
+
+            if ( level == Deflater.NO_COMPRESSION )
+            {
+                // already compressed; deflating it again would only cost time.
+                return stored();
+            }
+
+            String key = null;
+            if ( cache != null )
+            {
+                key = CompressionCache.key( "zip-entry:" + level, data, 0, length );
+                final byte[] cached = cache.get( key );
+                if ( cached != null )
+                {
+                    // an empty item records that deflating this content didn't pay off.
+                    return cached.length == 0 ? stored() : deflated( cached, cached.length );
+                }
+            }
+
+            final DeflatedEntry result = deflate();
+            if ( key != null )
+            {
+                if ( result.entry.getMethod() == ZipArchiveEntry.STORED )
+                {
+                    cache.put( key, result.data, 0, 0 );
+                }
+                else
+                {
+                    cache.put( key, result.data, 0, result.length );
+                }
+            }
+
+            return result;
+        }
+
+        private DeflatedEntry deflate()
+        {
+            final Deflater deflater = new Deflater( level, true );
+            try
+            {
+                deflater.setInput( data, 0, length );
+                deflater.finish();
+
+                byte[] out = new byte[length + length / 1000 + 64];
+                int outLength = 0;
+                while ( !deflater.finished() )
+                {
+                    if ( outLength == out.length )
+                    {
+                        final byte[] grown = new byte[out.length * 2];
+                        System.arraycopy( out, 0, grown, 0, outLength );
+                        out = grown;
+                    }
+                    outLength += deflater.deflate( out, outLength, out.length - outLength );
+                }
+
+                if ( outLength >= length )
+                {
+                    // deflate didn't help; store the entry as-is.
+                    return stored();
+                }
+
+                return deflated( out, outLength );
+            }
+            finally
+            {
+                deflater.end();
+            }
+        }
+
+        private DeflatedEntry stored()
+        {
+            entry.setMethod( ZipArchiveEntry.STORED );
+            entry.setCompressedSize( length );
+            return new DeflatedEntry( entry, data, length );
+        }
+
+        private DeflatedEntry deflated( final byte[] compressed, final int compressedLength )
+        {
+            entry.setMethod( ZipArchiveEntry.DEFLATED );
+            entry.setCompressedSize( compressedLength );
+            return new DeflatedEntry( entry, compressed, compressedLength );
+        }
+    }
+
+}
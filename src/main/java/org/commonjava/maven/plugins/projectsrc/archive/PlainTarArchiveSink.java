@@ -0,0 +1,248 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.zip.ZipEncoding;
+import org.apache.commons.compress.archivers.zip.ZipEncodingHelper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+
+/**
+ * {@link ArchiveSink} for the uncompressed <code>tar</code> format that writes straight to the archive's file channel, so file contents can
+ * be transferred into it by the OS instead of being copied through the heap. Headers are produced by commons-compress'
+ * {@link TarArchiveEntry}, with the same GNU long-name and star big-number handling as {@link TarArchiveSink}, so both produce the same bytes.
+ */
+public class PlainTarArchiveSink
+    implements DirectTransferSink
+{
+
+    private static final int RECORD_SIZE = 512;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String format;
+
+    private final File destination;
+
+    private final FileOutputStream out;
+
+    private final FileChannel channel;
+
+    private final ZipEncoding encoding = ZipEncodingHelper.getZipEncoding( "UTF-8" );
+
+    private final byte[] record = new byte[RECORD_SIZE];
+
+    private final ByteBuffer buffer = ByteBuffer.allocate( BUFFER_SIZE );
+
+    private final ChecksumSet checksums;
+
+    private ArchiveEntry current;
+
+    private long remaining;
+
+    public PlainTarArchiveSink( final String format, final File destination )
+        throws IOException
+    {
+        this( format, destination, null );
+    }
+
+    /**
+     * @param checksums digests to feed with every byte of the archive, or null. Since transferred file contents never pass through this
+     *            class, giving checksums turns off direct transfer.
+     */
+    public PlainTarArchiveSink( final String format, final File destination, final ChecksumSet checksums )
+        throws IOException
+    {
+        this.checksums = checksums;
+        this.format = format;
+        this.destination = destination;
+        this.out = new FileOutputStream( destination );
+        this.channel = out.getChannel();
+    }
+
+    @Override
+    public String getFormat()
+    {
+        return format;
+    }
+
+    @Override
+    public File getDestination()
+    {
+        return destination;
+    }
+
+    @Override
+    public void startEntry( final ArchiveEntry entry )
+        throws IOException
+    {
+        final TarArchiveEntry te = TarArchiveSink.toTarEntry( entry );
+
+        writeLongName( te, te.getName(), TarConstants.LF_GNUTYPE_LONGNAME );
+        if ( entry.isLink() )
+        {
+            writeLongName( te, te.getLinkName(), TarConstants.LF_GNUTYPE_LONGLINK );
+        }
+
+        writeHeader( te );
+        current = entry;
+        remaining = entry.hasContent() ? entry.getSize() : 0;
+    }
+
+    /**
+     * GNU long names: when a name doesn't fit the header, a pseudo-entry holding the full name precedes the real header, as
+     * TarArchiveOutputStream writes it.
+     */
+    private void writeLongName( final TarArchiveEntry te, final String value, final byte type )
+        throws IOException
+    {
+        final ByteBuffer name = encoding.encode( value );
+        final int nameLength = name.limit() - name.position();
+        if ( nameLength < TarConstants.NAMELEN )
+        {
+            return;
+        }
+
+        final TarArchiveEntry longName = new TarArchiveEntry( TarConstants.GNU_LONGLINK, type );
+        longName.setSize( nameLength + 1L );
+        final long modTime = te.getModTime()
+                               .getTime() / 1000;
+        longName.setModTime( modTime < 0 || modTime > TarConstants.MAXSIZE ? new Date( 0 ) : te.getModTime() );
+
+        writeHeader( longName );
+        put( name.array(), name.arrayOffset() + name.position(), nameLength );
+        put( new byte[] { 0 }, 0, 1 );
+        pad( nameLength + 1L );
+    }
+
+    @Override
+    public void write( final byte[] buf, final int off, final int len )
+        throws IOException
+    {
+        if ( len > remaining )
+        {
+            throw new IOException( "Wrote more than the " + current.getSize() + " bytes of " + current.getName() );
+        }
+
+        put( buf, off, len );
+        remaining -= len;
+    }
+
+    @Override
+    public boolean canTransfer( final ArchiveEntry entry )
+    {
+        return checksums == null;
+    }
+
+    @Override
+    public void transfer( final ArchiveEntry entry )
+        throws IOException
+    {
+        flushBuffer();
+        ArchiveSinks.transferFully( entry, channel );
+        remaining = 0;
+    }
+
+    @Override
+    public void endEntry()
+        throws IOException
+    {
+        if ( remaining > 0 )
+        {
+            throw new IOException( "Entry " + current.getName() + " closed " + remaining + " bytes short of its size." );
+        }
+
+        if ( current.hasContent() )
+        {
+            pad( current.getSize() );
+        }
+        current = null;
+    }
+
+    @Override
+    public void finish()
+        throws IOException
+    {
+        // two empty records mark the end of the archive. Like TarArchiveOutputStream's default, the archive is not padded any further.
+        put( new byte[2 * RECORD_SIZE], 0, 2 * RECORD_SIZE );
+        flushBuffer();
+        out.close();
+    }
+
+    @Override
+    public void abort()
+    {
+        ArchiveSinks.closeQuietly( out );
+        destination.delete();
+    }
+
+    private void writeHeader( final TarArchiveEntry te )
+        throws IOException
+    {
+        te.writeEntryHeader( record, encoding, true );
+        put( record, 0, RECORD_SIZE );
+    }
+
+    private void pad( final long size )
+        throws IOException
+    {
+        final int partial = (int) ( size % RECORD_SIZE );
+        if ( partial > 0 )
+        {
+            put( new byte[RECORD_SIZE - partial], 0, RECORD_SIZE - partial );
+        }
+    }
+
+    private void put( final byte[] buf, int off, int len )
+        throws IOException
+    {
+        while ( len > 0 )
+        {
+            if ( !buffer.hasRemaining() )
+            {
+                flushBuffer();
+            }
+
+            final int n = Math.min( len, buffer.remaining() );
+            buffer.put( buf, off, n );
+            off += n;
+            len -= n;
+        }
+    }
+
+    private void flushBuffer()
+        throws IOException
+    {
+        buffer.flip();
+        if ( checksums != null )
+        {
+            checksums.update( buffer );
+        }
+        while ( buffer.hasRemaining() )
+        {
+            channel.write( buffer );
+        }
+        buffer.clear();
+    }
+
+}
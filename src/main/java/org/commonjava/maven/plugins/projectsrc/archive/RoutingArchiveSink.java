@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hands each entry to the sinks of the directories its file lies in, renamed to its path relative to that directory under the route's own
+ * prefix. Used to write an archive per module from the single pass over the whole tree: every file is read once, whatever the number of
+ * modules it belongs to. The routed sinks are written one after the other on the caller's thread, so the number of routing sinks given to
+ * {@link MultiSinkArchiver} sets how many module archives are compressed at once.
+ * <p>
+ * Links to identical content can't be routed, since their target may lie in another directory; entries must not be deduplicated.
+ */
+public class RoutingArchiveSink
+    implements ArchiveSink
+{
+
+    /**
+     * One directory and the sink that gets its entries.
+     */
+    public static final class Route
+    {
+        private final Path path;
+
+        private final String prefix;
+
+        private final ArchiveSink sink;
+
+        /**
+         * @param directory the directory whose files go to <code>sink</code>
+         * @param prefix what entry names start with in that sink: a root folder followed by '/', or nothing
+         */
+        public Route( final File directory, final String prefix, final ArchiveSink sink )
+        {
+            this.path = normalize( directory );
+            this.prefix = prefix;
+            this.sink = sink;
+        }
+
+        public ArchiveSink getSink()
+        {
+            return sink;
+        }
+
+        /**
+         * The name of <code>file</code> in this route's archive, or null if it lies outside the directory.
+         */
+        String route( final File file, final boolean directory )
+        {
+            // the scanned files may come from a file set such as "." and carry "./" segments.
+            final Path filePath = normalize( file );
+            if ( filePath.equals( path ) )
+            {
+                return directory && prefix.length() > 0 ? prefix : null;
+            }
+            if ( !filePath.startsWith( path ) )
+            {
+                return null;
+            }
+
+            return prefix + path.relativize( filePath )
+                                .toString()
+                                .replace( File.separatorChar, '/' );
+        }
+
+        private static Path normalize( final File file )
+        {
+            return file.toPath()
+                       .toAbsolutePath()
+                       .normalize();
+        }
+    }
+
+    private final List<Route> routes;
+
+    private final List<ArchiveSink> current = new ArrayList<ArchiveSink>();
+
+    public RoutingArchiveSink( final List<Route> routes )
+    {
+        this.routes = routes;
+    }
+
+    @Override
+    public String getFormat()
+    {
+        return "routed";
+    }
+
+    /**
+     * Null: the archives are those of the routed sinks.
+     */
+    @Override
+    public File getDestination()
+    {
+        return null;
+    }
+
+    @Override
+    public void startEntry( final ArchiveEntry entry )
+        throws IOException
+    {
+        if ( entry.isLink() )
+        {
+            throw new IOException( "Cannot route a link to another entry: " + entry.getName() );
+        }
+
+        current.clear();
+        if ( entry.getFile() == null )
+        {
+            return;
+        }
+
+        for ( final Route route : routes )
+        {
+            final String name = route.route( entry.getFile(), entry.isDirectory() );
+            if ( name != null )
+            {
+                route.sink.startEntry( entry.isDirectory() ? ArchiveEntry.directory( name, entry.getFile(), entry.getLastModified(),
+                                                                                     entry.getMode() )
+                                : ArchiveEntry.file( name, entry.getFile(), entry.getSize(), entry.getLastModified(),
+                                                     entry.getMode() ) );
+                current.add( route.sink );
+            }
+        }
+    }
+
+    @Override
+    public void write( final byte[] buf, final int off, final int len )
+        throws IOException
+    {
+        for ( final ArchiveSink sink : current )
+        {
+            sink.write( buf, off, len );
+        }
+    }
+
+    @Override
+    public void endEntry()
+        throws IOException
+    {
+        for ( final ArchiveSink sink : current )
+        {
+            sink.endEntry();
+        }
+        current.clear();
+    }
+
+    @Override
+    public void finish()
+        throws IOException
+    {
+        for ( final Route route : routes )
+        {
+            route.sink.finish();
+        }
+    }
+
+    @Override
+    public void abort()
+    {
+        for ( final Route route : routes )
+        {
+            route.sink.abort();
+        }
+    }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index of a compressed tar whose compressed stream is made of blocks that can each be decompressed on their own: independent deflate
+ * blocks within the gzip member, or separate zstd frames. Every block holds the same number of uncompressed bytes, so the block that holds
+ * an uncompressed offset is found by division.
+ * <p>
+ * The index is a UTF-8 text file next to the archive (<code>archive.index</code>). Its first line is <code>format</code>, a tab, and the
+ * archive format. Each following line describes one file in the archive: the offset in the archive of the block where the file's content
+ * starts, the offset of the content within the uncompressed block, the size of the content, and the entry name, separated by tabs. To
+ * read a file, seek to the block, decompress from there (raw deflate for gzip, zstd frames for zstd), skip to the offset within the block
+ * and read <code>size</code> bytes. Directories and hard links have no content and are not listed.
+ */
+public final class SeekIndex
+{
+
+    public static final String EXTENSION = ".index";
+
+    private final String format;
+
+    private final long blockSize;
+
+    private final List<Long> blocks = new ArrayList<Long>();
+
+    private final List<String> names = new ArrayList<String>();
+
+    private final List<Long> offsets = new ArrayList<Long>();
+
+    private final List<Long> sizes = new ArrayList<Long>();
+
+    public SeekIndex( final String format, final long blockSize )
+    {
+        this.format = format;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * The index file belonging to <code>archive</code>.
+     */
+    public static File getFile( final File archive )
+    {
+        return new File( archive.getPath() + EXTENSION );
+    }
+
+    public long getBlockSize()
+    {
+        return blockSize;
+    }
+
+    /**
+     * Record where the next block starts in the archive. Blocks are added in order, as the compressor writes them.
+     */
+    void addBlock( final long archiveOffset )
+    {
+        blocks.add( archiveOffset );
+    }
+
+    /**
+     * Record a file whose content starts at <code>offset</code> in the uncompressed tar stream.
+     */
+    void addEntry( final String name, final long offset, final long size )
+    {
+        names.add( name );
+        offsets.add( offset );
+        sizes.add( size );
+    }
+
+    /**
+     * Write the index next to <code>archive</code>, once the archive is complete.
+     *
+     * @return the index file
+     */
+    public File write( final File archive )
+        throws IOException
+    {
+        final File file = getFile( archive );
+        final Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" ) );
+        try
+        {
+            writer.write( "format\t" + format + "\n" );
+            for ( int i = 0; i < names.size(); i++ )
+            {
+                final long offset = offsets.get( i );
+                final int block = (int) ( offset / blockSize );
+                if ( block >= blocks.size() )
+                {
+                    throw new IOException( "No compressed block was written for offset " + offset + " of " + names.get( i ) );
+                }
+
+                writer.write( blocks.get( block ) + "\t" + ( offset % blockSize ) + "\t" + sizes.get( i ) + "\t" + names.get( i ) + "\n" );
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+
+        return file;
+    }
+
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.compress.archivers.zip.UnixStat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * {@link ArchiveSink} for the tar family of formats. Compression (if any) is applied by the stream handed in by {@link ArchiveSinks}.
+ * {@link ArchiveEntry#isLink() Links} are written as hard links.
+ */
+public class TarArchiveSink
+    implements ArchiveSink
+{
+
+    private final String format;
+
+    private final File destination;
+
+    private final TarArchiveOutputStream tar;
+
+    private final SeekIndex seekIndex;
+
+    public TarArchiveSink( final String format, final File destination, final OutputStream out )
+    {
+        this( format, destination, out, null );
+    }
+
+    /**
+     * @param seekIndex index to record the uncompressed offset of each file's content in, or null
+     */
+    public TarArchiveSink( final String format, final File destination, final OutputStream out, final SeekIndex seekIndex )
+    {
+        this.seekIndex = seekIndex;
+        this.format = format;
+        this.destination = destination;
+        this.tar = new TarArchiveOutputStream( out, "UTF-8" );
+        tar.setLongFileMode( TarArchiveOutputStream.LONGFILE_GNU );
+        tar.setBigNumberMode( TarArchiveOutputStream.BIGNUMBER_STAR );
+    }
+
+    @Override
+    public String getFormat()
+    {
+        return format;
+    }
+
+    @Override
+    public File getDestination()
+    {
+        return destination;
+    }
+
+    @Override
+    public void startEntry( final ArchiveEntry entry )
+        throws IOException
+    {
+        tar.putArchiveEntry( toTarEntry( entry ) );
+        if ( seekIndex != null && entry.hasContent() )
+        {
+            // the header records are written through by now, so this is where the content starts.
+            seekIndex.addEntry( entry.getName(), tar.getBytesWritten(), entry.getSize() );
+        }
+    }
+
+    static TarArchiveEntry toTarEntry( final ArchiveEntry entry )
+    {
+        final TarArchiveEntry te;
+        if ( entry.isLink() )
+        {
+            te = new TarArchiveEntry( entry.getName(), TarConstants.LF_LINK );
+            te.setLinkName( entry.getLinkName() );
+        }
+        else
+        {
+            te = new TarArchiveEntry( entry.getName() );
+        }
+        te.setModTime( entry.getLastModified() );
+        te.setMode( ( entry.isDirectory() ? UnixStat.DIR_FLAG : UnixStat.FILE_FLAG ) | entry.getMode() );
+        if ( entry.hasContent() )
+        {
+            te.setSize( entry.getSize() );
+        }
+
+        return te;
+    }
+
+    @Override
+    public void write( final byte[] buf, final int off, final int len )
+        throws IOException
+    {
+        tar.write( buf, off, len );
+    }
+
+    @Override
+    public void endEntry()
+        throws IOException
+    {
+        tar.closeArchiveEntry();
+    }
+
+    @Override
+    public void finish()
+        throws IOException
+    {
+        tar.finish();
+        tar.close();
+    }
+
+    @Override
+    public void abort()
+    {
+        ArchiveSinks.closeQuietly( tar );
+        destination.delete();
+    }
+
+}
@@ -0,0 +1,316 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The threads and memory that the parallel compressors of one run share: a single executor, so gzip blocks, xz blocks and zip entries of
+ * every format being written queue up for the same threads, and a budget for the blocks they hold in flight (uncompressed input,
+ * compressed output waiting to be written, and for xz the encoder's own state). Compressors running threads of their own, as zstd does
+ * natively, borrow them from the executor ({@link #borrowThreads(int)}), which shrinks by as many while they run.
+ * <p>
+ * {@link #forBuild(int, long, int)} sizes the pool from the build: by default the processors this process may actually use (the JVM's
+ * count, lowered to the CPU quota of its cgroup) divided by the number of modules Maven builds at once, so a <code>-T 4</code> build
+ * in a 4-CPU container doesn't end up with four times as many busy threads as CPUs. Idle threads exit after a few seconds.
+ */
+public final class WorkerPool
+{
+
+    private static final long KEEP_ALIVE_SECONDS = 5;
+
+    private static final File CGROUP_ROOT = new File( "/sys/fs/cgroup" );
+
+    private final int threads;
+
+    private final long maxMemory;
+
+    private final ThreadPoolExecutor executor;
+
+    private long reserved;
+
+    private int borrowed;
+
+    public WorkerPool( final int threads, final long maxMemory, final String name )
+    {
+        if ( threads < 1 )
+        {
+            throw new IllegalArgumentException( "Thread count must be at least 1, was: " + threads );
+        }
+        if ( maxMemory < 1 )
+        {
+            throw new IllegalArgumentException( "Memory budget must be positive, was: " + maxMemory );
+        }
+
+        this.threads = threads;
+        this.maxMemory = maxMemory;
+        this.executor = new ThreadPoolExecutor( threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                                                new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory( name ) );
+        executor.allowCoreThreadTimeOut( true );
+    }
+
+    /**
+     * @param threads the configured thread count, or 0 to derive it from the processors available and <code>degreeOfConcurrency</code>
+     * @param maxMemory the configured budget in bytes, or 0 for a quarter of the maximum heap
+     * @param degreeOfConcurrency how many modules Maven builds at once (<code>-T</code>)
+     */
+    public static WorkerPool forBuild( final int threads, final long maxMemory, final int degreeOfConcurrency )
+    {
+        final int size = threads > 0 ? threads : Math.max( 1, getEffectiveProcessors() / Math.max( 1, degreeOfConcurrency ) );
+        final long memory = maxMemory > 0 ? maxMemory : Math.max( 1, Runtime.getRuntime()
+                                                                         .maxMemory() / 4 );
+        return new WorkerPool( size, memory, "projectsrc-worker" );
+    }
+
+    /**
+     * The JVM's processor count, lowered to the CPU quota of the cgroup (v1 or v2) the process runs in, if it has one. Recent JVMs do this
+     * themselves; older ones, and some cgroup layouts, don't.
+     */
+    public static int getEffectiveProcessors()
+    {
+        final int processors = Runtime.getRuntime()
+                                      .availableProcessors();
+        final double quota = getCpuQuota();
+        return quota > 0 ? Math.max( 1, Math.min( processors, (int) Math.ceil( quota ) ) ) : processors;
+    }
+
+    /**
+     * The lowest CPU quota, in CPUs, set on the process' cgroup or any cgroup above it; 0 if there is none or it can't be read.
+     */
+    static double getCpuQuota()
+    {
+        double quota = 0;
+        try
+        {
+            for ( final String line : readLines( new File( "/proc/self/cgroup" ) ) )
+            {
+                // hierarchy-id:controllers:path; v2 has an empty controller list.
+                final String[] fields = line.split( ":", 3 );
+                if ( fields.length < 3 )
+                {
+                    continue;
+                }
+
+                if ( fields[1].length() == 0 )
+                {
+                    quota = lowest( quota, getV2Quota( CGROUP_ROOT, fields[2] ) );
+                }
+                else
+                {
+                    for ( final String controller : fields[1].split( "," ) )
+                    {
+                        if ( "cpu".equals( controller ) )
+                        {
+                            quota = lowest( quota, getV1Quota( fields[1], fields[2] ) );
+                        }
+                    }
+                }
+            }
+        }
+        catch ( final IOException e )
+        {
+            // not Linux, or no cgroups: no quota.
+        }
+
+        return quota;
+    }
+
+    private static double getV2Quota( final File root, final String path )
+        throws IOException
+    {
+        double quota = 0;
+        // a container sees its own cgroup as the root, whatever /proc/self/cgroup says.
+        for ( File dir = new File( root, path ); dir != null && dir.getPath()
+                                                                  .startsWith( root.getPath() ); dir = dir.getParentFile() )
+        {
+            final File cpuMax = new File( dir, "cpu.max" );
+            if ( cpuMax.isFile() )
+            {
+                final String[] fields = readLines( cpuMax ).get( 0 )
+                                                          .trim()
+                                                          .split( "\\s+" );
+                if ( fields.length == 2 && !"max".equals( fields[0] ) )
+                {
+                    quota = lowest( quota, Double.parseDouble( fields[0] ) / Double.parseDouble( fields[1] ) );
+                }
+            }
+        }
+
+        return quota;
+    }
+
+    private static double getV1Quota( final String controllers, final String path )
+        throws IOException
+    {
+        double quota = 0;
+        for ( final File dir : new File[] { new File( new File( CGROUP_ROOT, controllers ), path ), new File( CGROUP_ROOT, controllers ),
+            new File( new File( CGROUP_ROOT, "cpu" ), path ), new File( CGROUP_ROOT, "cpu" ) } )
+        {
+            final File quotaFile = new File( dir, "cpu.cfs_quota_us" );
+            final File periodFile = new File( dir, "cpu.cfs_period_us" );
+            if ( quotaFile.isFile() && periodFile.isFile() )
+            {
+                final long quotaMicros = Long.parseLong( readLines( quotaFile ).get( 0 )
+                                                                               .trim() );
+                final long periodMicros = Long.parseLong( readLines( periodFile ).get( 0 )
+                                                                                 .trim() );
+                if ( quotaMicros > 0 && periodMicros > 0 )
+                {
+                    quota = lowest( quota, (double) quotaMicros / periodMicros );
+                }
+            }
+        }
+
+        return quota;
+    }
+
+    private static double lowest( final double quota, final double other )
+    {
+        return other > 0 && ( quota == 0 || other < quota ) ? other : quota;
+    }
+
+    private static List<String> readLines( final File file )
+        throws IOException
+    {
+        final List<String> lines = new ArrayList<String>();
+        final BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( file ), "UTF-8" ) );
+        try
+        {
+            String line;
+            while ( ( line = reader.readLine() ) != null )
+            {
+                lines.add( line );
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+
+        if ( lines.isEmpty() )
+        {
+            throw new IOException( "Empty file: " + file );
+        }
+
+        return lines;
+    }
+
+    public int getThreads()
+    {
+        return threads;
+    }
+
+    public long getMaxMemory()
+    {
+        return maxMemory;
+    }
+
+    /**
+     * The executor shared by every parallel compressor using this pool. Its tasks must never wait for one another.
+     */
+    public ExecutorService getExecutor()
+    {
+        return executor;
+    }
+
+    public <T> Future<T> submit( final Callable<T> task )
+    {
+        return executor.submit( task );
+    }
+
+    /**
+     * Take <code>bytes</code> from the memory budget if they are available right now. A request larger than the whole budget is treated as
+     * one for the whole budget.
+     */
+    public synchronized boolean tryReserve( final long bytes )
+    {
+        final long amount = Math.min( bytes, maxMemory );
+        if ( reserved + amount > maxMemory )
+        {
+            return false;
+        }
+
+        reserved += amount;
+        return true;
+    }
+
+    /**
+     * Take <code>bytes</code> even though the budget is used up. For a compressor with nothing in flight: waiting instead could mean
+     * waiting for memory held by compressors that are themselves waiting, through the archiver's queues, for this one. The budget is thus
+     * exceeded by at most one block per compressor.
+     */
+    public synchronized void overdraw( final long bytes )
+    {
+        reserved += Math.min( bytes, maxMemory );
+    }
+
+    public synchronized void release( final long bytes )
+    {
+        reserved -= Math.min( bytes, maxMemory );
+    }
+
+    /**
+     * Take up to <code>wanted</code> of the pool's threads for a compressor that runs threads of its own, shrinking the executor by as many
+     * until they are given back with {@link #returnThreads(int)}. The executor always keeps one thread.
+     *
+     * @return how many threads the compressor may run, possibly 0
+     */
+    public synchronized int borrowThreads( final int wanted )
+    {
+        final int granted = Math.max( 0, Math.min( wanted, threads - borrowed - 1 ) );
+        if ( granted > 0 )
+        {
+            borrowed += granted;
+            final int size = threads - borrowed;
+            executor.setCorePoolSize( size );
+            executor.setMaximumPoolSize( size );
+        }
+
+        return granted;
+    }
+
+    public synchronized void returnThreads( final int count )
+    {
+        if ( count > 0 )
+        {
+            borrowed -= count;
+            final int size = threads - borrowed;
+            executor.setMaximumPoolSize( size );
+            executor.setCorePoolSize( size );
+        }
+    }
+
+    /**
+     * Stop the threads; only for a pool that no compressor uses any more.
+     */
+    public void shutdown()
+    {
+        executor.shutdownNow();
+    }
+
+}
@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.archive;
+
+import org.apache.commons.compress.archivers.zip.UnixStat;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * {@link ArchiveSink} for the zip format. Given an {@link IncompressibleContent}, entries it recognizes are stored rather than deflated.
+ * Links are listed in a {@link DuplicatesManifest}.
+ */
+public class ZipArchiveSink
+    implements ArchiveSink
+{
+
+    private final String format;
+
+    private final File destination;
+
+    private final ZipArchiveOutputStream zip;
+
+    private final IncompressibleContent incompressible;
+
+    private final DuplicatesManifest duplicates = new DuplicatesManifest();
+
+    private ArchiveEntry current;
+
+    public ZipArchiveSink( final String format, final File destination )
+        throws IOException
+    {
+        this( format, destination, null );
+    }
+
+    public ZipArchiveSink( final String format, final File destination, final IncompressibleContent incompressible )
+        throws IOException
+    {
+        this.format = format;
+        this.destination = destination;
+        this.incompressible = incompressible;
+        this.zip = new ZipArchiveOutputStream( destination );
+        zip.setEncoding( "UTF-8" );
+    }
+
+    @Override
+    public String getFormat()
+    {
+        return format;
+    }
+
+    @Override
+    public File getDestination()
+    {
+        return destination;
+    }
+
+    @Override
+    public void startEntry( final ArchiveEntry entry )
+        throws IOException
+    {
+        current = entry;
+        if ( entry.isLink() )
+        {
+            duplicates.add( entry );
+            return;
+        }
+
+        final ZipArchiveEntry ze = toZipEntry( entry );
+        if ( incompressible != null && incompressible.isIncompressible( entry ) )
+        {
+            // writing to a file, so the stream can go back and fill in the CRC once the content has been written.
+            ze.setMethod( ZipArchiveEntry.STORED );
+        }
+
+        zip.putArchiveEntry( ze );
+    }
+
+    @Override
+    public void write( final byte[] buf, final int off, final int len )
+        throws IOException
+    {
+        zip.write( buf, off, len );
+    }
+
+    @Override
+    public void endEntry()
+        throws IOException
+    {
+        if ( !current.isLink() )
+        {
+            zip.closeArchiveEntry();
+        }
+        current = null;
+    }
+
+    @Override
+    public void finish()
+        throws IOException
+    {
+        duplicates.write( zip );
+        zip.finish();
+        zip.close();
+    }
+
+    static ZipArchiveEntry toZipEntry( final ArchiveEntry entry )
+    {
+        final ZipArchiveEntry ze = new ZipArchiveEntry( entry.getName() );
+        ze.setTime( entry.getLastModified() );
+        ze.setUnixMode( ( entry.isDirectory() ? UnixStat.DIR_FLAG : UnixStat.FILE_FLAG ) | entry.getMode() );
+        if ( !entry.isDirectory() )
+        {
+            ze.setSize( entry.getSize() );
+        }
+
+        return ze;
+    }
+
+    @Override
+    public void abort()
+    {
+        ArchiveSinks.closeQuietly( zip );
+        destination.delete();
+    }
+
+}
@@ -0,0 +1,344 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.delta;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.xz.XZCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.commonjava.maven.plugins.projectsrc.archive.DuplicatesManifest;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * The contents of an earlier project-sources archive, reduced to what a delta needs: the path, size and SHA-256 digest of every file, and
+ * the path of every directory. Paths are relative to the archive's root folder (when it has one) and use '/' separators; directory paths end
+ * with '/'. Hard links in tar archives and the {@link DuplicatesManifest} of zip archives written with deduplication are resolved to the
+ * content they refer to.
+ */
+public final class BaselineArchive
+{
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+
+    private final String rootFolder;
+
+    private final Map<String, Item> items;
+
+    private BaselineArchive( final File file, final String rootFolder, final Map<String, Item> items )
+    {
+        this.file = file;
+        this.rootFolder = rootFolder;
+        this.items = items;
+    }
+
+    /**
+     * Read a zip or tar archive (plain, or compressed with gzip, bzip2, xz or zstd), picking the format from the file extension.
+     *
+     * @param stripRootFolder whether to remove the single top-level folder all entries are nested in, if there is one
+     */
+    public static BaselineArchive read( final File file, final boolean stripRootFolder )
+        throws IOException
+    {
+        final Map<String, Item> items = new LinkedHashMap<String, Item>();
+        final Map<String, String> links = new LinkedHashMap<String, String>();
+        if ( file.getName()
+                 .endsWith( ".zip" ) )
+        {
+            readZip( file, items, links );
+        }
+        else
+        {
+            readTar( file, items, links );
+        }
+
+        for ( final Map.Entry<String, String> link : links.entrySet() )
+        {
+            final Item target = items.get( link.getValue() );
+            if ( target == null )
+            {
+                throw new IOException( "Broken link in " + file + ": " + link.getKey() + " refers to missing " + link.getValue() );
+            }
+            items.put( link.getKey(), target );
+        }
+
+        final String rootFolder = stripRootFolder ? findRootFolder( items.keySet() ) : "";
+        return new BaselineArchive( file, rootFolder, relativize( items, rootFolder ) );
+    }
+
+    public File getFile()
+    {
+        return file;
+    }
+
+    /**
+     * The root folder removed from every path, with its trailing '/', or an empty string if none was.
+     */
+    public String getRootFolder()
+    {
+        return rootFolder;
+    }
+
+    public Set<String> getPaths()
+    {
+        return items.keySet();
+    }
+
+    public boolean contains( final String path )
+    {
+        return items.containsKey( path );
+    }
+
+    /**
+     * Size of the file at <code>path</code>, or -1 if there is no such file.
+     */
+    public long getSize( final String path )
+    {
+        final Item item = items.get( path );
+        return item == null || item.digest == null ? -1 : item.size;
+    }
+
+    /**
+     * SHA-256 digest of the file at <code>path</code>, or null if there is no such file.
+     */
+    public byte[] getDigest( final String path )
+    {
+        final Item item = items.get( path );
+        return item == null ? null : item.digest;
+    }
+
+    private static void readTar( final File file, final Map<String, Item> items, final Map<String, String> links )
+        throws IOException
+    {
+        final TarArchiveInputStream tar = new TarArchiveInputStream( decompress( file ), "UTF-8" );
+        try
+        {
+            TarArchiveEntry entry;
+            while ( ( entry = tar.getNextTarEntry() ) != null )
+            {
+                if ( entry.isDirectory() )
+                {
+                    items.put( directoryName( entry.getName() ), Item.DIRECTORY );
+                }
+                else if ( entry.isLink() )
+                {
+                    links.put( entry.getName(), entry.getLinkName() );
+                }
+                else if ( entry.isFile() )
+                {
+                    items.put( entry.getName(), new Item( entry.getSize(), digest( tar ) ) );
+                }
+            }
+        }
+        finally
+        {
+            tar.close();
+        }
+    }
+
+    private static InputStream decompress( final File file )
+        throws IOException
+    {
+        final String name = file.getName();
+        final InputStream in = new BufferedInputStream( new FileInputStream( file ), BUFFER_SIZE );
+        try
+        {
+            if ( name.endsWith( ".tar.gz" ) || name.endsWith( ".tgz" ) )
+            {
+                return new GzipCompressorInputStream( in, true );
+            }
+            else if ( name.endsWith( ".tar.bz2" ) || name.endsWith( ".tbz2" ) )
+            {
+                return new BZip2CompressorInputStream( in, true );
+            }
+            else if ( name.endsWith( ".tar.xz" ) || name.endsWith( ".txz" ) )
+            {
+                return new XZCompressorInputStream( in, true );
+            }
+            else if ( name.endsWith( ".tar.zst" ) || name.endsWith( ".tzst" ) )
+            {
+                return new ZstdCompressorInputStream( in );
+            }
+            else if ( name.endsWith( ".tar" ) )
+            {
+                return in;
+            }
+        }
+        catch ( final IOException e )
+        {
+            in.close();
+            throw e;
+        }
+
+        in.close();
+        throw new IOException( "Cannot read baseline archive " + file + ": unsupported format." );
+    }
+
+    private static void readZip( final File file, final Map<String, Item> items, final Map<String, String> links )
+        throws IOException
+    {
+        final ZipFile zip = new ZipFile( file, "UTF-8" );
+        try
+        {
+            final Enumeration<ZipArchiveEntry> entries = zip.getEntriesInPhysicalOrder();
+            while ( entries.hasMoreElements() )
+            {
+                final ZipArchiveEntry entry = entries.nextElement();
+                final InputStream in = entry.isDirectory() ? null : zip.getInputStream( entry );
+                try
+                {
+                    if ( entry.isDirectory() )
+                    {
+                        items.put( directoryName( entry.getName() ), Item.DIRECTORY );
+                    }
+                    else if ( DuplicatesManifest.NAME.equals( entry.getName() ) )
+                    {
+                        readDuplicates( in, links );
+                    }
+                    else
+                    {
+                        items.put( entry.getName(), new Item( entry.getSize(), digest( in ) ) );
+                    }
+                }
+                finally
+                {
+                    if ( in != null )
+                    {
+                        in.close();
+                    }
+                }
+            }
+        }
+        finally
+        {
+            zip.close();
+        }
+    }
+
+    private static void readDuplicates( final InputStream in, final Map<String, String> links )
+        throws IOException
+    {
+        final BufferedReader reader = new BufferedReader( new InputStreamReader( in, "UTF-8" ) );
+        String line;
+        while ( ( line = reader.readLine() ) != null )
+        {
+            final int tab = line.indexOf( '\t' );
+            if ( tab > 0 )
+            {
+                links.put( line.substring( 0, tab ), line.substring( tab + 1 ) );
+            }
+        }
+    }
+
+    /**
+     * The single top-level folder all names are nested in, with its trailing '/', or an empty string if there is none.
+     */
+    private static String findRootFolder( final Set<String> names )
+    {
+        String prefix = null;
+        for ( final String name : names )
+        {
+            final int slash = name.indexOf( '/' );
+            final String first = slash < 0 ? null : name.substring( 0, slash + 1 );
+            if ( first == null || ( prefix != null && !prefix.equals( first ) ) )
+            {
+                return "";
+            }
+            prefix = first;
+        }
+
+        return prefix == null ? "" : prefix;
+    }
+
+    private static Map<String, Item> relativize( final Map<String, Item> items, final String rootFolder )
+    {
+        final Map<String, Item> result = new TreeMap<String, Item>();
+        for ( final Map.Entry<String, Item> item : items.entrySet() )
+        {
+            final String path = item.getKey()
+                                    .substring( rootFolder.length() );
+            if ( path.length() > 0 )
+            {
+                result.put( path, item.getValue() );
+            }
+        }
+
+        return result;
+    }
+
+    private static String directoryName( final String name )
+    {
+        return name.endsWith( "/" ) ? name : name + "/";
+    }
+
+    static byte[] digest( final InputStream in )
+        throws IOException
+    {
+        final MessageDigest digest;
+        try
+        {
+            digest = MessageDigest.getInstance( "SHA-256" );
+        }
+        catch ( final NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( "SHA-256 is not available in this JVM!", e );
+        }
+
+        final byte[] buf = new byte[BUFFER_SIZE];
+        int read;
+        while ( ( read = in.read( buf ) ) > -1 )
+        {
+            digest.update( buf, 0, read );
+        }
+
+        return digest.digest();
+    }
+
+    private static final class Item
+    {
+        static final Item DIRECTORY = new Item( -1, null );
+
+        final long size;
+
+        final byte[] digest;
+
+        Item( final long size, final byte[] digest )
+        {
+            this.size = size;
+            this.digest = digest;
+        }
+    }
+
+}
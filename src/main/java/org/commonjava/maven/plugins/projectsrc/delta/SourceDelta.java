@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.delta;
+
+import org.commonjava.maven.plugins.projectsrc.archive.ArchiveEntry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Difference between the scanned source tree and a {@link BaselineArchive}: the files that were added or modified (plus any new
+ * directories), which go into the delta archive, and the paths that no longer exist. Extracting the baseline, deleting the removed paths
+ * and then extracting the delta over it reproduces the current tree. For that, the delta's entries and the deleted paths are named under the
+ * baseline's root folder rather than the current one, which usually holds a different version.
+ * <p>
+ * A file whose size differs from the baseline's is modified without further ado; only files of the same size are hashed to compare them.
+ */
+public final class SourceDelta
+{
+
+    /**
+     * Name of the list of deleted paths, at the root of the delta archive. Each path is named as in the baseline archive, root folder
+     * included.
+     */
+    public static final String DELETED_MANIFEST = "project-sources-deleted.txt";
+
+    private final List<ArchiveEntry> changed;
+
+    private final List<String> deleted;
+
+    private final int added;
+
+    private final int modified;
+
+    private final long lastModified;
+
+    private SourceDelta( final List<ArchiveEntry> changed, final List<String> deleted, final int added, final int modified,
+                         final long lastModified )
+    {
+        this.changed = changed;
+        this.deleted = deleted;
+        this.added = added;
+        this.modified = modified;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * @param entries the scanned entries, in archive order
+     * @param prefix the prefix of every entry name, i.e. the root folder and a '/' (or an empty string)
+     */
+    public static SourceDelta compute( final BaselineArchive baseline, final List<ArchiveEntry> entries, final String prefix )
+        throws IOException
+    {
+        final String rootFolder = baseline.getRootFolder();
+        final List<ArchiveEntry> changed = new ArrayList<ArchiveEntry>();
+        final Set<String> current = new HashSet<String>();
+        int added = 0;
+        int modified = 0;
+        long newest = 0;
+        long newestChanged = 0;
+        for ( final ArchiveEntry entry : entries )
+        {
+            final String path = entry.getName()
+                                     .substring( prefix.length() );
+            if ( path.length() == 0 )
+            {
+                continue;
+            }
+
+            current.add( path );
+            newest = Math.max( newest, entry.getLastModified() );
+            final int before = changed.size();
+            if ( entry.isDirectory() )
+            {
+                if ( !baseline.contains( path ) )
+                {
+                    changed.add( ArchiveEntry.renamed( entry, rootFolder + path ) );
+                }
+            }
+            else if ( baseline.getSize( path ) < 0 )
+            {
+                changed.add( ArchiveEntry.renamed( entry, rootFolder + path ) );
+                added++;
+            }
+            else if ( baseline.getSize( path ) != entry.getSize() || !Arrays.equals( baseline.getDigest( path ), digest( entry ) ) )
+            {
+                changed.add( ArchiveEntry.renamed( entry, rootFolder + path ) );
+                modified++;
+            }
+
+            if ( changed.size() > before )
+            {
+                newestChanged = Math.max( newestChanged, entry.getLastModified() );
+            }
+        }
+
+        final List<String> deleted = new ArrayList<String>();
+        for ( final String path : baseline.getPaths() )
+        {
+            // a directory that became a file (or the reverse) shows up under the other name, so it is replaced too.
+            if ( !current.contains( path ) )
+            {
+                deleted.add( rootFolder + path );
+            }
+        }
+
+        return new SourceDelta( changed, Collections.unmodifiableList( deleted ), added, modified,
+                                changed.isEmpty() ? newest : newestChanged );
+    }
+
+    /**
+     * Entries to write to the delta archive, in archive order, named under the baseline's root folder.
+     */
+    public List<ArchiveEntry> getChanged()
+    {
+        return changed;
+    }
+
+    /**
+     * Paths present in the baseline but not in the current tree, named as in the baseline (root folder included), sorted. Directory paths
+     * end with '/'.
+     */
+    public List<String> getDeleted()
+    {
+        return deleted;
+    }
+
+    /**
+     * Write the deleted paths, one per line, for inclusion in the delta archive as {@link #DELETED_MANIFEST}.
+     */
+    public void writeDeleted( final File file )
+        throws IOException
+    {
+        final File dir = file.getParentFile();
+        if ( !dir.isDirectory() && !dir.mkdirs() )
+        {
+            throw new IOException( "Cannot create directory: " + dir );
+        }
+
+        final Writer writer = new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" );
+        try
+        {
+            for ( final String path : deleted )
+            {
+                writer.write( path );
+                writer.write( '\n' );
+            }
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    /**
+     * Modification time for {@link #DELETED_MANIFEST}: the newest of the changed entries, or of all entries if nothing but deletions
+     * changed, so that the same trees always give the same delta archive.
+     */
+    public long getLastModified()
+    {
+        return lastModified;
+    }
+
+    public int getAdded()
+    {
+        return added;
+    }
+
+    public int getModified()
+    {
+        return modified;
+    }
+
+    private static byte[] digest( final ArchiveEntry entry )
+        throws IOException
+    {
+        final InputStream in = new FileInputStream( entry.getFile() );
+        try
+        {
+            return BaselineArchive.digest( in );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.incremental;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Remembers, per archive format, the source fingerprint an archive was built from along with the size and timestamp of the archive itself.
+ * An archive can be reused only if the fingerprint still matches and the file on disk is the one that was written.
+ */
+public class FingerprintStore
+{
+
+    public static final String FILENAME = "project-sources.fingerprints";
+
+    private static final String FINGERPRINT = ".fingerprint";
+
+    private static final String LENGTH = ".length";
+
+    private static final String LAST_MODIFIED = ".lastModified";
+
+    private final File file;
+
+    private final Properties props = new Properties();
+
+    public FingerprintStore( final File workDirectory )
+    {
+        this.file = new File( workDirectory, FILENAME );
+    }
+
+    public FingerprintStore load()
+        throws IOException
+    {
+        props.clear();
+        if ( file.isFile() )
+        {
+            final InputStream in = new FileInputStream( file );
+            try
+            {
+                props.load( in );
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+
+        return this;
+    }
+
+    public boolean isUpToDate( final String format, final String fingerprint, final File archive )
+    {
+        return archive.isFile() && fingerprint.equals( props.getProperty( format + FINGERPRINT ) )
+            && Long.toString( archive.length() )
+                   .equals( props.getProperty( format + LENGTH ) )
+            && Long.toString( archive.lastModified() )
+                   .equals( props.getProperty( format + LAST_MODIFIED ) );
+    }
+
+    public void update( final String format, final String fingerprint, final File archive )
+    {
+        props.setProperty( format + FINGERPRINT, fingerprint );
+        props.setProperty( format + LENGTH, Long.toString( archive.length() ) );
+        props.setProperty( format + LAST_MODIFIED, Long.toString( archive.lastModified() ) );
+    }
+
+    public void save()
+        throws IOException
+    {
+        final File dir = file.getParentFile();
+        if ( !dir.isDirectory() && !dir.mkdirs() )
+        {
+            throw new IOException( "Cannot create directory: " + dir );
+        }
+
+        final OutputStream out = new FileOutputStream( file );
+        try
+        {
+            props.store( out, "project-sources archive fingerprints" );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.incremental;
+
+import org.commonjava.maven.plugins.projectsrc.archive.ArchiveEntry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+/**
+ * Computes a digest over the scanned source tree (entry paths, sizes, modification times and modes, plus optionally file contents) and the
+ * settings that shape the archive. Two builds with the same fingerprint produce equivalent archives.
+ * <p>
+ * Directory timestamps are left out on purpose: they change whenever an excluded file (a build log, the target directory) comes or goes,
+ * which would defeat the point of the fingerprint.
+ */
+public final class SourceFingerprint
+{
+
+    /**
+     * Content digests remembered from an earlier computation, for files whose size and modification time haven't changed.
+     */
+    public interface DigestCache
+    {
+        byte[] get( File file, long size, long lastModified );
+
+        void put( File file, long size, long lastModified, byte[] digest );
+    }
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private SourceFingerprint()
+    {
+    }
+
+    /**
+     * @param entries the scanned entries, in archive order
+     * @param hashContents whether to digest file contents too, rather than trusting size and modification time
+     * @param settings anything else that affects the archive contents or layout (format, root folder, ...)
+     */
+    public static String compute( final List<ArchiveEntry> entries, final boolean hashContents, final String... settings )
+        throws IOException
+    {
+        return compute( entries, hashContents, null, settings );
+    }
+
+    /**
+     * @param digests where to look up and keep the digest of each file's contents, or null to read every file
+     */
+    public static String compute( final List<ArchiveEntry> entries, final boolean hashContents, final DigestCache digests,
+                                  final String... settings )
+        throws IOException
+    {
+        final MessageDigest digest = newDigest();
+        for ( final String setting : settings )
+        {
+            update( digest, String.valueOf( setting ) );
+        }
+
+        final byte[] buf = hashContents ? new byte[BUFFER_SIZE] : null;
+        for ( final ArchiveEntry entry : entries )
+        {
+            update( digest, entry.getName() );
+            update( digest, Integer.toOctalString( entry.getMode() ) );
+            if ( entry.isDirectory() )
+            {
+                continue;
+            }
+
+            update( digest, Long.toString( entry.getSize() ) );
+            update( digest, Long.toString( entry.getLastModified() ) );
+            if ( hashContents )
+            {
+                byte[] contents = digests == null ? null : digests.get( entry.getFile(), entry.getSize(), entry.getLastModified() );
+                if ( contents == null )
+                {
+                    contents = digestContents( entry.getFile(), buf );
+                    if ( digests != null )
+                    {
+                        digests.put( entry.getFile(), entry.getSize(), entry.getLastModified(), contents );
+                    }
+                }
+                digest.update( contents );
+            }
+        }
+
+        return toHex( digest.digest() );
+    }
+
+    private static byte[] digestContents( final File file, final byte[] buf )
+        throws IOException
+    {
+        final MessageDigest digest = newDigest();
+        final InputStream in = new FileInputStream( file );
+        try
+        {
+            int read;
+            while ( ( read = in.read( buf ) ) > -1 )
+            {
+                digest.update( buf, 0, read );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        return digest.digest();
+    }
+
+    private static void update( final MessageDigest digest, final String value )
+    {
+        digest.update( value.getBytes( UTF_8 ) );
+        digest.update( (byte) 0 );
+    }
+
+    static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance( "SHA-1" );
+        }
+        catch ( final NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( "SHA-1 is not available in this JVM!", e );
+        }
+    }
+
+    static String toHex( final byte[] bytes )
+    {
+        final StringBuilder sb = new StringBuilder( bytes.length * 2 );
+        for ( final byte b : bytes )
+        {
+            sb.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) )
+              .append( Character.forDigit( b & 0xf, 16 ) );
+        }
+
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,342 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.report;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Timings and sizes collected over one run of the archive goal: wall time per phase, and per format the engine that produced it, the time it
+ * took, and how much went in and came out. Written as JSON for dashboards, and condensed into a one-line summary for the build log.
+ * <p>
+ * Input figures (files and bytes read) are only known when the plugin scanned the source tree itself; formats produced by the assembly
+ * archiver without a scan report them as <code>null</code>.
+ */
+public class ArchiveReport
+{
+
+    public static final String FILENAME = "project-sources-report.json";
+
+    public static final String ENGINE_NATIVE = "native";
+
+    public static final String ENGINE_ASSEMBLY = "assembly";
+
+    public static final String ENGINE_REUSED = "reused";
+
+    private final String projectId;
+
+    private final long startNanos = System.nanoTime();
+
+    private final Date started = new Date();
+
+    private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+
+    private final List<FormatResult> formats = new ArrayList<FormatResult>();
+
+    private long files = -1;
+
+    private long bytesRead = -1;
+
+    private long totalNanos = -1;
+
+    public ArchiveReport( final String projectId )
+    {
+        this.projectId = projectId;
+    }
+
+    /**
+     * Record the time since <code>startNanos</code> (from {@link System#nanoTime()}) against the named phase, adding to any time already
+     * recorded for it.
+     *
+     * @return the current {@link System#nanoTime()}, for timing the next phase.
+     */
+    public long phase( final String name, final long startNanos )
+    {
+        final long now = System.nanoTime();
+        final Long previous = phases.get( name );
+        phases.put( name, ( previous == null ? 0 : previous ) + now - startNanos );
+        return now;
+    }
+
+    /**
+     * Record the size of the scanned source tree.
+     */
+    public void setInput( final long files, final long bytesRead )
+    {
+        this.files = files;
+        this.bytesRead = bytesRead;
+    }
+
+    /**
+     * Record the archive produced for one format.
+     */
+    public void format( final String format, final String engine, final long nanos, final File destination )
+    {
+        formats.add( new FormatResult( format, engine, nanos, sizeOf( destination ) ) );
+    }
+
+    /**
+     * Stop the overall clock.
+     */
+    public void finish()
+    {
+        totalNanos = System.nanoTime() - startNanos;
+    }
+
+    public String getSummary()
+    {
+        final StringBuilder sb = new StringBuilder( "Project sources: " );
+        sb.append( formats.size() )
+          .append( " format(s) in " )
+          .append( seconds( totalNanos ) )
+          .append( " (" );
+
+        boolean first = true;
+        for ( final Map.Entry<String, Long> phase : phases.entrySet() )
+        {
+            if ( !first )
+            {
+                sb.append( ", " );
+            }
+            first = false;
+            sb.append( phase.getKey() )
+              .append( ' ' )
+              .append( seconds( phase.getValue() ) );
+        }
+        sb.append( ')' );
+
+        if ( files > -1 )
+        {
+            sb.append( "; " )
+              .append( files )
+              .append( " files, " )
+              .append( megabytes( bytesRead ) );
+        }
+
+        for ( final FormatResult result : formats )
+        {
+            sb.append( "; " )
+              .append( result.format )
+              .append( ' ' )
+              .append( megabytes( result.bytesWritten ) );
+            if ( bytesRead > 0 )
+            {
+                sb.append( String.format( Locale.ROOT, " (%.1f%%)", 100.0 * result.bytesWritten / bytesRead ) );
+            }
+            if ( !ENGINE_NATIVE.equals( result.engine ) )
+            {
+                sb.append( ' ' )
+                  .append( result.engine );
+            }
+        }
+
+        return sb.toString();
+    }
+
+    public void write( final File file )
+        throws IOException
+    {
+        final File dir = file.getParentFile();
+        if ( dir != null && !dir.isDirectory() && !dir.mkdirs() )
+        {
+            throw new IOException( "Cannot create directory: " + dir );
+        }
+
+        final Writer writer = new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" );
+        try
+        {
+            writer.write( toJson() );
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    public String toJson()
+    {
+        final SimpleDateFormat iso = new SimpleDateFormat( "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT );
+        iso.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+
+        final StringBuilder sb = new StringBuilder( "{\n" );
+        sb.append( "  \"project\": " )
+          .append( quote( projectId ) )
+          .append( ",\n" );
+        sb.append( "  \"started\": " )
+          .append( quote( iso.format( started ) ) )
+          .append( ",\n" );
+        sb.append( "  \"totalMillis\": " )
+          .append( millis( totalNanos ) )
+          .append( ",\n" );
+        sb.append( "  \"files\": " )
+          .append( orNull( files ) )
+          .append( ",\n" );
+        sb.append( "  \"bytesRead\": " )
+          .append( orNull( bytesRead ) )
+          .append( ",\n" );
+
+        sb.append( "  \"phases\": [" );
+        boolean first = true;
+        for ( final Map.Entry<String, Long> phase : phases.entrySet() )
+        {
+            sb.append( first ? "\n" : ",\n" );
+            first = false;
+            sb.append( "    { \"name\": " )
+              .append( quote( phase.getKey() ) )
+              .append( ", \"millis\": " )
+              .append( millis( phase.getValue() ) )
+              .append( " }" );
+        }
+        sb.append( first ? "],\n" : "\n  ],\n" );
+
+        sb.append( "  \"formats\": [" );
+        first = true;
+        for ( final FormatResult result : formats )
+        {
+            sb.append( first ? "\n" : ",\n" );
+            first = false;
+            sb.append( "    { \"format\": " )
+              .append( quote( result.format ) )
+              .append( ", \"engine\": " )
+              .append( quote( result.engine ) )
+              .append( ", \"millis\": " )
+              .append( millis( result.nanos ) )
+              .append( ", \"files\": " )
+              .append( orNull( files ) )
+              .append( ", \"bytesRead\": " )
+              .append( orNull( bytesRead ) )
+              .append( ", \"bytesWritten\": " )
+              .append( result.bytesWritten )
+              .append( ", \"compressionRatio\": " )
+              .append( bytesRead > 0 ? String.format( Locale.ROOT, "%.4f", (double) result.bytesWritten / bytesRead ) : "null" );
+            if ( bytesRead > -1 && result.nanos > 0 )
+            {
+                sb.append( ", \"megabytesPerSecond\": " )
+                  .append( String.format( Locale.ROOT, "%.2f", bytesRead / ( 1024.0 * 1024.0 ) / ( result.nanos / 1e9 ) ) );
+            }
+            sb.append( " }" );
+        }
+        sb.append( first ? "]\n" : "\n  ]\n" );
+
+        return sb.append( "}\n" )
+                 .toString();
+    }
+
+    private static long sizeOf( final File file )
+    {
+        if ( file == null )
+        {
+            return 0;
+        }
+        if ( !file.isDirectory() )
+        {
+            return file.length();
+        }
+
+        long size = 0;
+        final File[] children = file.listFiles();
+        if ( children != null )
+        {
+            for ( final File child : children )
+            {
+                size += sizeOf( child );
+            }
+        }
+
+        return size;
+    }
+
+    private static long millis( final long nanos )
+    {
+        return nanos < 0 ? 0 : nanos / 1000000;
+    }
+
+    private static String seconds( final long nanos )
+    {
+        return String.format( Locale.ROOT, "%.2fs", millis( nanos ) / 1000.0 );
+    }
+
+    static String megabytes( final long bytes )
+    {
+        return String.format( Locale.ROOT, "%.1fMB", bytes / ( 1024.0 * 1024.0 ) );
+    }
+
+    private static String orNull( final long value )
+    {
+        return value < 0 ? "null" : Long.toString( value );
+    }
+
+    static String quote( final String value )
+    {
+        if ( value == null )
+        {
+            return "null";
+        }
+
+        final StringBuilder sb = new StringBuilder( value.length() + 2 ).append( '"' );
+        for ( int i = 0; i < value.length(); i++ )
+        {
+            final char c = value.charAt( i );
+            if ( c == '"' || c == '\\' )
+            {
+                sb.append( '\\' )
+                  .append( c );
+            }
+            else if ( c < 0x20 )
+            {
+                sb.append( String.format( Locale.ROOT, "\\u%04x", (int) c ) );
+            }
+            else
+            {
+                sb.append( c );
+            }
+        }
+
+        return sb.append( '"' )
+                 .toString();
+    }
+
+    private static final class FormatResult
+    {
+        private final String format;
+
+        private final String engine;
+
+        private final long nanos;
+
+        private final long bytesWritten;
+
+        FormatResult( final String format, final String engine, final long nanos, final long bytesWritten )
+        {
+            this.format = format;
+            this.engine = engine;
+            this.nanos = nanos;
+            this.bytesWritten = bytesWritten;
+        }
+    }
+
+}
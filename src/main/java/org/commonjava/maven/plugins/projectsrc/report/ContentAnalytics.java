@@ -0,0 +1,393 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.report;
+
+import org.commonjava.maven.plugins.projectsrc.archive.ArchiveEntry;
+import org.commonjava.maven.plugins.projectsrc.archive.ArchiveSink;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Where the size and time of an archive go: raw and compressed bytes per directory and per file extension, and the wall time spent on each
+ * directory. It is fed as one more sink of the single pass, so it sees every entry the archives get without reading anything again.
+ * <p>
+ * Compressed sizes are those of each file deflated on its own at the default level, as zip stores it; the tar formats compress across
+ * files and usually do somewhat better, but the proportions hold. The time charged to a file is the wall time from the end of the previous
+ * entry to the end of this one, as seen by this sink's thread, so it includes reading the file and waiting for the slowest format, and the
+ * times of all files add up to the time of the pass.
+ */
+public class ContentAnalytics
+    implements ArchiveSink
+{
+
+    public static final String SUFFIX = "-analytics.json";
+
+    public static final int DEFAULT_TOP = 20;
+
+    private static final String NO_EXTENSION = "(none)";
+
+    private final File destination;
+
+    private final String prefix;
+
+    private final int top;
+
+    private final Map<String, Totals> directories = new HashMap<String, Totals>();
+
+    private final Map<String, Totals> extensions = new HashMap<String, Totals>();
+
+    private final Totals overall = new Totals( "" );
+
+    private final Deflater deflater = new Deflater( Deflater.DEFAULT_COMPRESSION, true );
+
+    private final byte[] buf = new byte[64 * 1024];
+
+    private ArchiveEntry current;
+
+    private long raw;
+
+    private long compressed;
+
+    private long lastEnd = -1;
+
+    /**
+     * @param destination the report file, normally {@link #getFile(File)} of the archive
+     * @param prefix the root folder every entry name starts with; it is not listed among the directories
+     * @param top how many directories and extensions to list in each ranking
+     */
+    public ContentAnalytics( final File destination, final String prefix, final int top )
+    {
+        this.destination = destination;
+        this.prefix = prefix;
+        this.top = top;
+    }
+
+    /**
+     * The report file for an archive written to <code>outputDirectory</code> as <code>fullName</code>.
+     */
+    public static File getFile( final File outputDirectory, final String fullName )
+    {
+        return new File( outputDirectory, fullName + SUFFIX );
+    }
+
+    @Override
+    public String getFormat()
+    {
+        return "analytics";
+    }
+
+    @Override
+    public File getDestination()
+    {
+        return destination;
+    }
+
+    @Override
+    public void startEntry( final ArchiveEntry entry )
+    {
+        if ( lastEnd < 0 )
+        {
+            lastEnd = System.nanoTime();
+        }
+
+        current = entry;
+        raw = 0;
+        compressed = 0;
+        deflater.reset();
+    }
+
+    @Override
+    public void write( final byte[] b, final int off, final int len )
+    {
+        raw += len;
+        deflater.setInput( b, off, len );
+        while ( !deflater.needsInput() )
+        {
+            compressed += deflater.deflate( buf );
+        }
+    }
+
+    @Override
+    public void endEntry()
+    {
+        final long now = System.nanoTime();
+        final long nanos = now - lastEnd;
+        lastEnd = now;
+
+        final ArchiveEntry entry = current;
+        current = null;
+        if ( entry.isDirectory() )
+        {
+            return;
+        }
+
+        if ( raw > 0 )
+        {
+            deflater.finish();
+            while ( !deflater.finished() )
+            {
+                compressed += deflater.deflate( buf );
+            }
+            // stored instead when deflating doesn't help, as zip would.
+            compressed = Math.min( compressed, raw );
+        }
+
+        final String name = entry.getName();
+        overall.add( raw, compressed, nanos );
+        totals( extensions, getExtension( name ) ).add( raw, compressed, nanos );
+        for ( int idx = name.lastIndexOf( '/' ); idx > -1; idx = name.lastIndexOf( '/', idx - 1 ) )
+        {
+            final String dir = name.substring( 0, idx + 1 );
+            if ( !dir.equals( prefix ) )
+            {
+                totals( directories, dir ).add( raw, compressed, nanos );
+            }
+        }
+    }
+
+    @Override
+    public void finish()
+    {
+        deflater.end();
+    }
+
+    @Override
+    public void abort()
+    {
+        deflater.end();
+    }
+
+    private static Totals totals( final Map<String, Totals> map, final String key )
+    {
+        Totals totals = map.get( key );
+        if ( totals == null )
+        {
+            totals = new Totals( key );
+            map.put( key, totals );
+        }
+
+        return totals;
+    }
+
+    private static String getExtension( final String name )
+    {
+        final String file = name.substring( name.lastIndexOf( '/' ) + 1 );
+        final int dot = file.lastIndexOf( '.' );
+        // dot files such as .gitignore have no extension.
+        return dot < 1 || dot == file.length() - 1 ? NO_EXTENSION : file.substring( dot + 1 )
+                                                                          .toLowerCase( Locale.ROOT );
+    }
+
+    private List<Totals> ranked( final Map<String, Totals> map, final Comparator<Totals> order )
+    {
+        final List<Totals> list = new ArrayList<Totals>( map.values() );
+        Collections.sort( list, order );
+        return list.size() > top ? list.subList( 0, top ) : list;
+    }
+
+    /**
+     * Lines for the build log: totals, then the directories and extensions taking the most compressed space, then the slowest directories.
+     */
+    public List<String> getSummary()
+    {
+        final List<String> lines = new ArrayList<String>();
+        lines.add( String.format( Locale.ROOT, "Project sources analytics: %d files, %s raw, %s deflated (%s).", overall.files,
+                                  ArchiveReport.megabytes( overall.raw ), ArchiveReport.megabytes( overall.compressed ),
+                                  percent( overall ) ) );
+
+        final int shown = Math.min( top, 5 );
+        lines.add( "Largest directories (deflated):" );
+        for ( final Totals dir : head( ranked( directories, BY_COMPRESSED ), shown ) )
+        {
+            lines.add( "  " + describe( dir ) );
+        }
+        lines.add( "Largest extensions (deflated):" );
+        for ( final Totals ext : head( ranked( extensions, BY_COMPRESSED ), shown ) )
+        {
+            lines.add( "  " + describe( ext ) );
+        }
+        lines.add( "Slowest directories:" );
+        for ( final Totals dir : head( ranked( directories, BY_TIME ), shown ) )
+        {
+            lines.add( String.format( Locale.ROOT, "  %.2fs %s", dir.nanos / 1e9, dir.key ) );
+        }
+
+        return lines;
+    }
+
+    private static List<Totals> head( final List<Totals> list, final int count )
+    {
+        return list.size() > count ? list.subList( 0, count ) : list;
+    }
+
+    private static String describe( final Totals totals )
+    {
+        return String.format( Locale.ROOT, "%s %s in %d files (%s raw, %s)", ArchiveReport.megabytes( totals.compressed ), totals.key,
+                              totals.files, ArchiveReport.megabytes( totals.raw ), percent( totals ) );
+    }
+
+    private static String percent( final Totals totals )
+    {
+        return totals.raw == 0 ? "n/a" : String.format( Locale.ROOT, "%.1f%%", 100.0 * totals.compressed / totals.raw );
+    }
+
+    public void write()
+        throws IOException
+    {
+        final File dir = destination.getParentFile();
+        if ( dir != null && !dir.isDirectory() && !dir.mkdirs() )
+        {
+            throw new IOException( "Cannot create directory: " + dir );
+        }
+
+        final Writer writer = new OutputStreamWriter( new FileOutputStream( destination ), "UTF-8" );
+        try
+        {
+            writer.write( toJson() );
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    public String toJson()
+    {
+        final StringBuilder sb = new StringBuilder( "{\n" );
+        sb.append( "  \"files\": " )
+          .append( overall.files )
+          .append( ",\n" );
+        sb.append( "  \"bytes\": " )
+          .append( overall.raw )
+          .append( ",\n" );
+        sb.append( "  \"compressedBytes\": " )
+          .append( overall.compressed )
+          .append( ",\n" );
+        sb.append( "  \"millis\": " )
+          .append( overall.nanos / 1000000 )
+          .append( ",\n" );
+
+        appendList( sb, "directoriesByBytes", ranked( directories, BY_RAW ), "path" );
+        sb.append( ",\n" );
+        appendList( sb, "directoriesByCompressedBytes", ranked( directories, BY_COMPRESSED ), "path" );
+        sb.append( ",\n" );
+        appendList( sb, "directoriesByTime", ranked( directories, BY_TIME ), "path" );
+        sb.append( ",\n" );
+        appendList( sb, "extensionsByBytes", ranked( extensions, BY_RAW ), "extension" );
+        sb.append( ",\n" );
+        appendList( sb, "extensionsByCompressedBytes", ranked( extensions, BY_COMPRESSED ), "extension" );
+        sb.append( "\n" );
+
+        return sb.append( "}\n" )
+                 .toString();
+    }
+
+    private static void appendList( final StringBuilder sb, final String name, final List<Totals> list, final String keyName )
+    {
+        sb.append( "  " )
+          .append( ArchiveReport.quote( name ) )
+          .append( ": [" );
+        boolean first = true;
+        for ( final Totals totals : list )
+        {
+            sb.append( first ? "\n" : ",\n" );
+            first = false;
+            sb.append( "    { \"" )
+              .append( keyName )
+              .append( "\": " )
+              .append( ArchiveReport.quote( totals.key ) )
+              .append( ", \"files\": " )
+              .append( totals.files )
+              .append( ", \"bytes\": " )
+              .append( totals.raw )
+              .append( ", \"compressedBytes\": " )
+              .append( totals.compressed )
+              .append( ", \"compressionRatio\": " )
+              .append( totals.raw == 0 ? "null" : String.format( Locale.ROOT, "%.4f", (double) totals.compressed / totals.raw ) )
+              .append( ", \"millis\": " )
+              .append( totals.nanos / 1000000 )
+              .append( " }" );
+        }
+        sb.append( first ? "]" : "\n  ]" );
+    }
+
+    private static final Comparator<Totals> BY_RAW = new Comparator<Totals>()
+    {
+        @Override
+        public int compare( final Totals first, final Totals second )
+        {
+            return first.raw == second.raw ? first.key.compareTo( second.key ) : first.raw > second.raw ? -1 : 1;
+        }
+    };
+
+    private static final Comparator<Totals> BY_COMPRESSED = new Comparator<Totals>()
+    {
+        @Override
+        public int compare( final Totals first, final Totals second )
+        {
+            return first.compressed == second.compressed ? first.key.compareTo( second.key )
+                            : first.compressed > second.compressed ? -1 : 1;
+        }
+    };
+
+    private static final Comparator<Totals> BY_TIME = new Comparator<Totals>()
+    {
+        @Override
+        public int compare( final Totals first, final Totals second )
+        {
+            return first.nanos == second.nanos ? first.key.compareTo( second.key ) : first.nanos > second.nanos ? -1 : 1;
+        }
+    };
+
+    private static final class Totals
+    {
+        private final String key;
+
+        private long files;
+
+        private long raw;
+
+        private long compressed;
+
+        private long nanos;
+
+        Totals( final String key )
+        {
+            this.key = key;
+        }
+
+        void add( final long raw, final long compressed, final long nanos )
+        {
+            this.files++;
+            this.raw += raw;
+            this.compressed += compressed;
+            this.nanos += nanos;
+        }
+    }
+
+}
@@ -0,0 +1,552 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.report;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipEncoding;
+import org.apache.commons.compress.archivers.zip.ZipEncodingHelper;
+import org.apache.commons.compress.utils.CountingOutputStream;
+import org.commonjava.maven.plugins.projectsrc.archive.ArchiveEntry;
+import org.commonjava.maven.plugins.projectsrc.archive.ArchiveSinks;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * What an archive of the scanned entries would hold and roughly how large each format would be, without writing it. File count and total
+ * size are exact, and so is the size of a plain tar, which only depends on names and sizes. Compressed sizes are predicted from a sample:
+ * chunks of {@value #CHUNK_SIZE} bytes are read at evenly spaced points of the concatenated content (so every file weighs in proportion to
+ * its size) and compressed as each format would, and the ratio obtained is applied to the whole. The tar headers and padding are sampled
+ * and compressed separately.
+ */
+public class SizeEstimate
+{
+
+    public static final String FILENAME = "project-sources-estimate.json";
+
+    public static final long DEFAULT_SAMPLE_SIZE = 4L * 1024 * 1024;
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final int LARGEST_DIRECTORIES = 10;
+
+    private static final int HEADER_SAMPLE = 256;
+
+    private static final int TAR_RECORD = 512;
+
+    private static final int TAR_NAME_LENGTH = 100;
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    private final String projectId;
+
+    private long files;
+
+    private long directories;
+
+    private long bytes;
+
+    private long sampledBytes;
+
+    private final List<DirectorySize> largest = new ArrayList<DirectorySize>();
+
+    private final Map<String, Long> predicted = new LinkedHashMap<String, Long>();
+
+    public SizeEstimate( final String projectId )
+    {
+        this.projectId = projectId;
+    }
+
+    /**
+     * Estimate every format for the given entries, in archive order.
+     *
+     * @param prefix the root folder every entry name starts with (see
+     *            {@link org.commonjava.maven.plugins.projectsrc.scan.ProjectSourcesScanner#getEntryPrefix(String)}); it is not listed
+     *            among the largest directories
+     * @param sinkFactory provides the compressors, with the configured levels
+     * @return the predicted size of each format, or -1 for formats the plugin can't write itself
+     */
+    public Map<String, Long> estimate( final List<ArchiveEntry> entries, final String prefix, final List<String> formats,
+                                       final ArchiveSinks sinkFactory, final long sampleSize )
+        throws IOException
+    {
+        final Map<String, long[]> directorySizes = new HashMap<String, long[]>();
+        for ( final ArchiveEntry entry : entries )
+        {
+            if ( entry.isDirectory() )
+            {
+                directories++;
+                continue;
+            }
+
+            files++;
+            bytes += entry.getSize();
+
+            final String name = entry.getName();
+            for ( int idx = name.lastIndexOf( '/' ); idx > -1; idx = name.lastIndexOf( '/', idx - 1 ) )
+            {
+                final String dir = name.substring( 0, idx + 1 );
+                long[] size = directorySizes.get( dir );
+                if ( size == null )
+                {
+                    size = new long[2];
+                    directorySizes.put( dir, size );
+                }
+                size[0] += entry.getSize();
+                size[1]++;
+            }
+        }
+        findLargest( directorySizes, prefix );
+
+        final List<byte[]> sample = sample( entries, sampleSize );
+        final List<byte[]> structure = sampleTarStructure( entries );
+        final long tarSize = tarSize( entries );
+        for ( final String format : formats )
+        {
+            long size = -1;
+            if ( "dir".equals( format ) )
+            {
+                size = bytes;
+            }
+            else if ( "zip".equals( format ) )
+            {
+                size = zipSize( entries, sample );
+            }
+            else if ( "tar".equals( format ) )
+            {
+                size = tarSize;
+            }
+            else if ( ArchiveSinks.isSupported( format ) )
+            {
+                size = (long) ( bytes * streamRatio( format, sinkFactory, sample )
+                    + ( tarSize - bytes ) * streamRatio( format, sinkFactory, structure ) );
+            }
+
+            predicted.put( format, size );
+        }
+
+        return predicted;
+    }
+
+    /**
+     * Chunks read at evenly spaced points of the content of all files taken end to end.
+     */
+    private List<byte[]> sample( final List<ArchiveEntry> entries, final long sampleSize )
+        throws IOException
+    {
+        final List<ArchiveEntry> contents = new ArrayList<ArchiveEntry>();
+        for ( final ArchiveEntry entry : entries )
+        {
+            if ( entry.hasContent() && entry.getSize() > 0 && entry.getFile() != null )
+            {
+                contents.add( entry );
+            }
+        }
+
+        final List<byte[]> chunks = new ArrayList<byte[]>();
+        if ( contents.isEmpty() )
+        {
+            return chunks;
+        }
+
+        if ( bytes <= sampleSize )
+        {
+            // small enough to take everything, which makes the prediction as good as it gets.
+            for ( final ArchiveEntry entry : contents )
+            {
+                final byte[] content = read( entry.getFile(), 0, (int) entry.getSize() );
+                chunks.add( content );
+                sampledBytes += content.length;
+            }
+
+            return chunks;
+        }
+
+        // each chunk is read from the content taken end to end, running on into the next files, so small files are sampled as often as
+        // their share of the bytes and no more. A sample size under one chunk still reads one, and content under one chunk is read from
+        // the start.
+        final long count = Math.max( 1, sampleSize / CHUNK_SIZE );
+        final long span = Math.max( 0, bytes - CHUNK_SIZE );
+        int file = 0;
+        long fileStart = 0;
+        for ( long i = 0; i < count; i++ )
+        {
+            long position = (long) ( ( i + 0.5 ) * span / count );
+            while ( fileStart + contents.get( file )
+                                        .getSize() <= position )
+            {
+                fileStart += contents.get( file )
+                                     .getSize();
+                file++;
+            }
+
+            final ByteArrayOutputStream chunk = new ByteArrayOutputStream( CHUNK_SIZE );
+            long next = fileStart;
+            for ( int f = file; f < contents.size() && chunk.size() < CHUNK_SIZE; f++ )
+            {
+                final ArchiveEntry entry = contents.get( f );
+                final long offset = position - next;
+                final int length = (int) Math.min( CHUNK_SIZE - chunk.size(), entry.getSize() - offset );
+                chunk.write( read( entry.getFile(), offset, length ) );
+                next += entry.getSize();
+                position = next;
+            }
+
+            chunks.add( chunk.toByteArray() );
+            sampledBytes += chunk.size();
+        }
+
+        return chunks;
+    }
+
+    private static byte[] read( final File file, final long offset, final int length )
+        throws IOException
+    {
+        final RandomAccessFile in = new RandomAccessFile( file, "r" );
+        try
+        {
+            in.seek( offset );
+            final byte[] buf = new byte[length];
+            int total = 0;
+            int n;
+            while ( total < length && ( n = in.read( buf, total, length - total ) ) > -1 )
+            {
+                total += n;
+            }
+
+            if ( total < length )
+            {
+                final byte[] shorter = new byte[total];
+                System.arraycopy( buf, 0, shorter, 0, total );
+                return shorter;
+            }
+
+            return buf;
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Headers and padding of up to {@value #HEADER_SAMPLE} entries spread over the archive, to see how well a format compresses the tar
+     * structure around the content.
+     */
+    private static List<byte[]> sampleTarStructure( final List<ArchiveEntry> entries )
+        throws IOException
+    {
+        final ZipEncoding encoding = ZipEncodingHelper.getZipEncoding( "UTF-8" );
+        final List<byte[]> records = new ArrayList<byte[]>();
+        final int step = Math.max( 1, entries.size() / HEADER_SAMPLE );
+        for ( int i = 0; i < entries.size(); i += step )
+        {
+            final ArchiveEntry entry = entries.get( i );
+            final TarArchiveEntry te = new TarArchiveEntry( entry.getName() );
+            te.setModTime( entry.getLastModified() );
+            te.setMode( entry.getMode() );
+            te.setSize( entry.hasContent() ? entry.getSize() : 0 );
+
+            final byte[] header = new byte[TAR_RECORD];
+            te.writeEntryHeader( header, encoding, true );
+            records.add( header );
+            records.add( new byte[(int) ( padded( te.getSize() ) - te.getSize() )] );
+        }
+
+        return records;
+    }
+
+    /**
+     * Ratio of compressed to uncompressed size for the sample as one stream, as the tar formats compress it.
+     */
+    private static double streamRatio( final String format, final ArchiveSinks sinkFactory, final List<byte[]> sample )
+        throws IOException
+    {
+        long sampled = 0;
+        for ( final byte[] chunk : sample )
+        {
+            sampled += chunk.length;
+        }
+        if ( sampled == 0 )
+        {
+            return 1;
+        }
+
+        final CountingOutputStream counter = new CountingOutputStream( new OutputStream()
+        {
+            @Override
+            public void write( final int b )
+            {
+            }
+
+            @Override
+            public void write( final byte[] b, final int off, final int len )
+            {
+            }
+        } );
+
+        final OutputStream compressor = sinkFactory.newCompressor( format, counter );
+        try
+        {
+            for ( final byte[] chunk : sample )
+            {
+                compressor.write( chunk );
+            }
+        }
+        finally
+        {
+            compressor.close();
+        }
+
+        return (double) counter.getBytesWritten() / sampled;
+    }
+
+    /**
+     * A tar is a header record per entry (plus one for a long name and its records), then the content padded to whole records, then two
+     * empty records.
+     */
+    static long tarSize( final List<ArchiveEntry> entries )
+    {
+        long size = 2 * TAR_RECORD;
+        for ( final ArchiveEntry entry : entries )
+        {
+            size += TAR_RECORD + longNameSize( entry.getName() );
+            if ( entry.isLink() )
+            {
+                size += longNameSize( entry.getLinkName() );
+            }
+            if ( entry.hasContent() )
+            {
+                size += padded( entry.getSize() );
+            }
+        }
+
+        return size;
+    }
+
+    private static long longNameSize( final String name )
+    {
+        final int length = name.getBytes( UTF_8 ).length;
+        return length < TAR_NAME_LENGTH ? 0 : TAR_RECORD + padded( length + 1L );
+    }
+
+    private static long padded( final long size )
+    {
+        return ( size + TAR_RECORD - 1 ) / TAR_RECORD * TAR_RECORD;
+    }
+
+    /**
+     * Zip deflates each file on its own, so the chunks are compressed separately too. Each entry adds a local header and a central directory
+     * record, both holding the name.
+     */
+    private long zipSize( final List<ArchiveEntry> entries, final List<byte[]> sample )
+    {
+        long compressed = 0;
+        final Deflater deflater = new Deflater( Deflater.DEFAULT_COMPRESSION, true );
+        try
+        {
+            final byte[] buf = new byte[CHUNK_SIZE + 1024];
+            for ( final byte[] chunk : sample )
+            {
+                deflater.reset();
+                deflater.setInput( chunk );
+                deflater.finish();
+                long length = 0;
+                while ( !deflater.finished() )
+                {
+                    length += deflater.deflate( buf );
+                }
+                // stored instead when deflating doesn't help.
+                compressed += Math.min( length, chunk.length );
+            }
+        }
+        finally
+        {
+            deflater.end();
+        }
+
+        final double ratio = sampledBytes == 0 ? 1 : (double) compressed / sampledBytes;
+        long size = (long) ( bytes * ratio ) + 22;
+        for ( final ArchiveEntry entry : entries )
+        {
+            size += 30 + 46 + 2L * entry.getName()
+                                        .getBytes( UTF_8 ).length;
+        }
+
+        return size;
+    }
+
+    private void findLargest( final Map<String, long[]> directorySizes, final String prefix )
+    {
+        for ( final Map.Entry<String, long[]> dir : directorySizes.entrySet() )
+        {
+            if ( !dir.getKey()
+                     .equals( prefix ) )
+            {
+                largest.add( new DirectorySize( dir.getKey(), dir.getValue()[0], dir.getValue()[1] ) );
+            }
+        }
+
+        Collections.sort( largest, new Comparator<DirectorySize>()
+        {
+            @Override
+            public int compare( final DirectorySize first, final DirectorySize second )
+            {
+                return first.bytes == second.bytes ? first.path.compareTo( second.path )
+                                : first.bytes > second.bytes ? -1 : 1;
+            }
+        } );
+
+        if ( largest.size() > LARGEST_DIRECTORIES )
+        {
+            largest.subList( LARGEST_DIRECTORIES, largest.size() )
+                   .clear();
+        }
+    }
+
+    /**
+     * Lines for the build log: totals, predicted size per format, then the largest directories.
+     */
+    public List<String> getSummary()
+    {
+        final List<String> lines = new ArrayList<String>();
+        lines.add( String.format( Locale.ROOT, "Project sources estimate: %d files in %d directories, %s (sampled %s).", files,
+                                  directories, ArchiveReport.megabytes( bytes ), ArchiveReport.megabytes( sampledBytes ) ) );
+        for ( final Map.Entry<String, Long> format : predicted.entrySet() )
+        {
+            final long size = format.getValue();
+            lines.add( "  " + format.getKey() + ": "
+                + ( size < 0 ? "cannot estimate (not written by the plugin)" : "~" + ArchiveReport.megabytes( size ) ) );
+        }
+        if ( !largest.isEmpty() )
+        {
+            lines.add( "Largest directories:" );
+            for ( final DirectorySize dir : largest )
+            {
+                lines.add( String.format( Locale.ROOT, "  %s %s in %d files", ArchiveReport.megabytes( dir.bytes ), dir.path,
+                                          dir.files ) );
+            }
+        }
+
+        return lines;
+    }
+
+    public void write( final File file )
+        throws IOException
+    {
+        final File dir = file.getParentFile();
+        if ( dir != null && !dir.isDirectory() && !dir.mkdirs() )
+        {
+            throw new IOException( "Cannot create directory: " + dir );
+        }
+
+        final Writer writer = new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" );
+        try
+        {
+            writer.write( toJson() );
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+    public String toJson()
+    {
+        final StringBuilder sb = new StringBuilder( "{\n" );
+        sb.append( "  \"project\": " )
+          .append( ArchiveReport.quote( projectId ) )
+          .append( ",\n" );
+        sb.append( "  \"files\": " )
+          .append( files )
+          .append( ",\n" );
+        sb.append( "  \"directories\": " )
+          .append( directories )
+          .append( ",\n" );
+        sb.append( "  \"bytes\": " )
+          .append( bytes )
+          .append( ",\n" );
+        sb.append( "  \"sampledBytes\": " )
+          .append( sampledBytes )
+          .append( ",\n" );
+
+        sb.append( "  \"formats\": [" );
+        boolean first = true;
+        for ( final Map.Entry<String, Long> format : predicted.entrySet() )
+        {
+            sb.append( first ? "\n" : ",\n" );
+            first = false;
+            sb.append( "    { \"format\": " )
+              .append( ArchiveReport.quote( format.getKey() ) )
+              .append( ", \"estimatedBytes\": " )
+              .append( format.getValue() < 0 ? "null" : Long.toString( format.getValue() ) )
+              .append( " }" );
+        }
+        sb.append( first ? "],\n" : "\n  ],\n" );
+
+        sb.append( "  \"largestDirectories\": [" );
+        first = true;
+        for ( final DirectorySize dir : largest )
+        {
+            sb.append( first ? "\n" : ",\n" );
+            first = false;
+            sb.append( "    { \"path\": " )
+              .append( ArchiveReport.quote( dir.path ) )
+              .append( ", \"files\": " )
+              .append( dir.files )
+              .append( ", \"bytes\": " )
+              .append( dir.bytes )
+              .append( " }" );
+        }
+        sb.append( first ? "]\n" : "\n  ]\n" );
+
+        return sb.append( "}\n" )
+                 .toString();
+    }
+
+    private static final class DirectorySize
+    {
+        private final String path;
+
+        private final long bytes;
+
+        private final long files;
+
+        DirectorySize( final String path, final long bytes, final long files )
+        {
+            this.path = path;
+            this.bytes = bytes;
+            this.files = files;
+        }
+    }
+
+}
@@ -0,0 +1,405 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.scan;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the list of tracked files straight from a git index file (<code>.git/index</code>, versions 2 to 4), without forking a
+ * <code>git</code> process and without any network access. Only stage-0 (merged) entries for regular files and symlinks are returned;
+ * submodules and entries marked skip-worktree have nothing in the working tree to archive.
+ * <p>
+ * A split index (<code>core.splitIndex</code>) or a sparse index (<code>index.sparse</code>) doesn't list every tracked file by itself;
+ * reading one fails with an {@link IncompleteIndexException}. So does the index of a repository whose object ids are neither SHA-1 nor
+ * SHA-256 (<code>extensions.objectFormat</code>), since the length of an entry depends on them.
+ */
+public final class GitIndexReader
+{
+
+    /**
+     * One tracked file, as recorded in the index.
+     */
+    public static final class Entry
+    {
+        private final String path;
+
+        private final int mode;
+
+        Entry( final String path, final int mode )
+        {
+            this.path = path;
+            this.mode = mode;
+        }
+
+        /**
+         * Path relative to the top of the work tree, always using '/'.
+         */
+        public String getPath()
+        {
+            return path;
+        }
+
+        /**
+         * The git object mode, e.g. 0100644, 0100755 or 0120000 for a symlink.
+         */
+        public int getMode()
+        {
+            return mode;
+        }
+    }
+
+    /**
+     * The index needs data from elsewhere to list every tracked file: a shared index (split index), or the trees of collapsed sparse
+     * directories. Also thrown for an object format whose ids have an unknown length.
+     */
+    public static final class IncompleteIndexException
+        extends IOException
+    {
+        private static final long serialVersionUID = 1L;
+
+        IncompleteIndexException( final String message )
+        {
+            super( message );
+        }
+    }
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    private static final int SIGNATURE = 0x44495243; // "DIRC"
+
+    private static final int TYPE_MASK = 0170000;
+
+    private static final int TYPE_FILE = 0100000;
+
+    private static final int TYPE_SYMLINK = 0120000;
+
+    private static final int TYPE_DIRECTORY = 0040000;
+
+    private static final int EXTENSION_HEADER = 8;
+
+    private static final int SHA1_LENGTH = 20;
+
+    private static final int SHA256_LENGTH = 32;
+
+    private static final int FLAG_EXTENDED = 0x4000;
+
+    private static final int FLAG_STAGE = 0x3000;
+
+    private static final int EXTENDED_SKIP_WORKTREE = 0x4000;
+
+    private static final int NAME_MASK = 0xfff;
+
+    private GitIndexReader()
+    {
+    }
+
+    /**
+     * Find the work tree containing <code>directory</code> (looking upward), following <code>.git</code> files used by worktrees and
+     * submodules.
+     *
+     * @return the work tree root, or null if the directory isn't inside a git work tree with an index
+     */
+    public static File findWorkTree( final File directory )
+    {
+        File dir = directory.getAbsoluteFile();
+        while ( dir != null )
+        {
+            if ( getIndexFile( dir ) != null )
+            {
+                return dir;
+            }
+            dir = dir.getParentFile();
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the index file for the given work tree root, or null if there is none
+     */
+    public static File getIndexFile( final File workTree )
+    {
+        final File gitDir = getGitDir( workTree );
+        if ( gitDir == null )
+        {
+            return null;
+        }
+
+        final File index = new File( gitDir, "index" );
+        return index.isFile() ? index : null;
+    }
+
+    /**
+     * @return the git directory of the given work tree root (<code>.git</code>, or where a <code>.git</code> file points), or null if there
+     *         is none
+     */
+    public static File getGitDir( final File workTree )
+    {
+        final File dotGit = new File( workTree, ".git" );
+        File gitDir = null;
+        if ( dotGit.isDirectory() )
+        {
+            gitDir = dotGit;
+        }
+        else if ( dotGit.isFile() )
+        {
+            try
+            {
+                final String content = new String( Files.readAllBytes( dotGit.toPath() ), UTF_8 ).trim();
+                if ( content.startsWith( "gitdir:" ) )
+                {
+                    gitDir = new File( content.substring( "gitdir:".length() )
+                                              .trim() );
+                    if ( !gitDir.isAbsolute() )
+                    {
+                        gitDir = new File( workTree, gitDir.getPath() );
+                    }
+                }
+            }
+            catch ( final IOException e )
+            {
+                return null;
+            }
+        }
+
+        return gitDir;
+    }
+
+    public static List<Entry> read( final File indexFile )
+        throws IOException
+    {
+        // object ids, and the checksum at the end of the file, are as long as the repository's hashes.
+        final int idLength = getObjectIdLength( indexFile.getParentFile() );
+        final ByteBuffer buf = ByteBuffer.wrap( Files.readAllBytes( indexFile.toPath() ) );
+        try
+        {
+            if ( buf.getInt() != SIGNATURE )
+            {
+                throw new IOException( "Not a git index file: " + indexFile );
+            }
+
+            final int version = buf.getInt();
+            if ( version < 2 || version > 4 )
+            {
+                throw new IOException( "Unsupported git index version " + version + ": " + indexFile );
+            }
+
+            final int count = buf.getInt();
+            final List<Entry> entries = new ArrayList<Entry>( count );
+            byte[] previousPath = new byte[0];
+            for ( int i = 0; i < count; i++ )
+            {
+                final int start = buf.position();
+
+                buf.position( start + 24 ); // ctime, mtime, dev, ino
+                final int mode = buf.getInt();
+                buf.position( buf.position() + 12 + idLength ); // uid, gid, size, object id
+                final int flags = buf.getShort() & 0xffff;
+                int extendedFlags = 0;
+                if ( version >= 3 && ( flags & FLAG_EXTENDED ) != 0 )
+                {
+                    extendedFlags = buf.getShort() & 0xffff;
+                }
+
+                final byte[] path;
+                if ( version == 4 )
+                {
+                    path = readPrefixCompressedPath( buf, previousPath );
+                }
+                else
+                {
+                    path = readPaddedPath( buf, start, flags & NAME_MASK );
+                }
+                previousPath = path;
+
+                final int type = mode & TYPE_MASK;
+                if ( type == TYPE_DIRECTORY )
+                {
+                    throw new IncompleteIndexException( "Sparse directory entry " + new String( path, UTF_8 ) + " in git index: "
+                        + indexFile );
+                }
+                if ( ( flags & FLAG_STAGE ) != 0 || ( extendedFlags & EXTENDED_SKIP_WORKTREE ) != 0
+                    || ( type != TYPE_FILE && type != TYPE_SYMLINK ) )
+                {
+                    continue;
+                }
+
+                entries.add( new Entry( new String( path, UTF_8 ), mode ) );
+            }
+
+            checkExtensions( buf, idLength, indexFile );
+            return entries;
+        }
+        catch ( final BufferUnderflowException e )
+        {
+            throw new IOException( "Truncated git index file: " + indexFile, e );
+        }
+        catch ( final IllegalArgumentException e )
+        {
+            throw new IOException( "Corrupt git index file: " + indexFile, e );
+        }
+    }
+
+    /**
+     * Go through the extensions after the entries. Git itself refuses an index with an extension it doesn't know whose signature doesn't
+     * start with an upper-case letter, since the entries can't be understood without it; <code>link</code> (split index) and
+     * <code>sdir</code> (sparse index) are such extensions. What is left after the last extension is the checksum of the file.
+     */
+    private static void checkExtensions( final ByteBuffer buf, final int checksumLength, final File indexFile )
+        throws IncompleteIndexException
+    {
+        while ( buf.remaining() >= EXTENSION_HEADER + checksumLength )
+        {
+            final byte[] signature = new byte[4];
+            buf.get( signature );
+            final long size = buf.getInt() & 0xffffffffL;
+            if ( size > buf.remaining() - checksumLength )
+            {
+                // not an extension after all, but the checksum.
+                return;
+            }
+
+            if ( signature[0] < 'A' || signature[0] > 'Z' )
+            {
+                throw new IncompleteIndexException( "Git index needs the '" + new String( signature, UTF_8 )
+                    + "' extension, which can't be read: " + indexFile );
+            }
+
+            buf.position( buf.position() + (int) size );
+        }
+    }
+
+    /**
+     * The length of the repository's object ids, from <code>extensions.objectFormat</code> in its config. A linked work tree's git
+     * directory points to the repository's own through its <code>commondir</code> file.
+     */
+    private static int getObjectIdLength( final File gitDir )
+        throws IOException
+    {
+        File commonDir = gitDir;
+        final File commonDirFile = new File( gitDir, "commondir" );
+        if ( commonDirFile.isFile() )
+        {
+            commonDir = new File( new String( Files.readAllBytes( commonDirFile.toPath() ), UTF_8 ).trim() );
+            if ( !commonDir.isAbsolute() )
+            {
+                commonDir = new File( gitDir, commonDir.getPath() );
+            }
+        }
+
+        final File config = new File( commonDir, "config" );
+        if ( !config.isFile() )
+        {
+            return SHA1_LENGTH;
+        }
+
+        String section = null;
+        String format = "sha1";
+        for ( final String raw : Files.readAllLines( config.toPath(), UTF_8 ) )
+        {
+            final String line = raw.trim();
+            if ( line.startsWith( "[" ) && line.endsWith( "]" ) )
+            {
+                section = line.substring( 1, line.length() - 1 )
+                              .trim()
+                              .toLowerCase();
+            }
+            else if ( "extensions".equals( section ) )
+            {
+                final int eq = line.indexOf( '=' );
+                if ( eq > 0 && "objectformat".equalsIgnoreCase( line.substring( 0, eq )
+                                                                    .trim() ) )
+                {
+                    format = line.substring( eq + 1 )
+                                 .trim()
+                                 .toLowerCase();
+                }
+            }
+        }
+
+        if ( "sha1".equals( format ) )
+        {
+            return SHA1_LENGTH;
+        }
+        else if ( "sha256".equals( format ) )
+        {
+            return SHA256_LENGTH;
+        }
+
+        throw new IncompleteIndexException( "Git repository uses object format '" + format + "', which can't be read: " + config );
+    }
+
+    /**
+     * Versions 2 and 3: NUL-terminated path, then NUL padding so the whole entry is a multiple of 8 bytes.
+     */
+    private static byte[] readPaddedPath( final ByteBuffer buf, final int entryStart, final int nameLength )
+    {
+        final byte[] path;
+        if ( nameLength < NAME_MASK )
+        {
+            path = new byte[nameLength];
+            buf.get( path );
+        }
+        else
+        {
+            // the length didn't fit in the flags; scan for the terminator.
+            final ByteArrayOutputStream name = new ByteArrayOutputStream();
+            byte b;
+            while ( ( b = buf.get( buf.position() ) ) != 0 )
+            {
+                name.write( b );
+                buf.get();
+            }
+            path = name.toByteArray();
+        }
+
+        final int length = buf.position() - entryStart;
+        buf.position( entryStart + ( ( length + 8 ) & ~7 ) );
+        return path;
+    }
+
+    /**
+     * Version 4: strip N bytes from the end of the previous path, then append the NUL-terminated remainder.
+     */
+    private static byte[] readPrefixCompressedPath( final ByteBuffer buf, final byte[] previousPath )
+    {
+        int b = buf.get() & 0xff;
+        long strip = b & 0x7f;
+        while ( ( b & 0x80 ) != 0 )
+        {
+            b = buf.get() & 0xff;
+            strip = ( ( strip + 1 ) << 7 ) | ( b & 0x7f );
+        }
+
+        final ByteArrayOutputStream name = new ByteArrayOutputStream();
+        name.write( previousPath, 0, previousPath.length - (int) strip );
+        while ( ( b = buf.get() ) != 0 )
+        {
+            name.write( b );
+        }
+
+        return name.toByteArray();
+    }
+
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The ignore rules in effect in one directory of a tree walk: those of the <code>.gitignore</code> files in it and in every directory
+ * above it (up to the top of the git work tree), <code>.git/info/exclude</code>, and the <code>.hgignore</code> at the top of a Mercurial
+ * repository. Rules from a deeper file take precedence over those from a file further up, as in git.
+ * <p>
+ * A filter is immutable. {@link #descend(String)} gives the filter for a subdirectory and {@link #load(File)} adds the rules of an ignore
+ * file found there, so each directory of the walk costs one trie step per ignore file still able to match, and no path is ever matched
+ * from its start again.
+ */
+public final class IgnoreFilter
+{
+
+    public static final String GITIGNORE = ".gitignore";
+
+    public static final String HGIGNORE = ".hgignore";
+
+    private static final IgnoreFilter EMPTY = new IgnoreFilter( new ArrayList<Active>() );
+
+    private final List<Active> active;
+
+    private IgnoreFilter( final List<Active> active )
+    {
+        this.active = active;
+    }
+
+    /**
+     * The filter for <code>directory</code>, without the rules of its own <code>.gitignore</code> (add them with {@link #load(File)}). The
+     * ignore files between the top of the enclosing git or Mercurial repository and the directory are read on the way down.
+     */
+    public static IgnoreFilter forDirectory( final File directory )
+        throws IOException
+    {
+        final Path target = directory.getAbsoluteFile()
+                                     .toPath()
+                                     .normalize();
+
+        final File workTree = findGitRoot( directory );
+        final Path gitRoot = workTree == null ? null : workTree.getAbsoluteFile()
+                                                               .toPath()
+                                                               .normalize();
+        final File hgRepository = findHgRoot( directory );
+        final Path hgRoot = hgRepository == null ? null : hgRepository.toPath()
+                                                                     .normalize();
+
+        Path top = target;
+        if ( gitRoot != null && target.startsWith( gitRoot ) )
+        {
+            top = gitRoot;
+        }
+        if ( hgRoot != null && target.startsWith( hgRoot ) && hgRoot.getNameCount() < top.getNameCount() )
+        {
+            top = hgRoot;
+        }
+
+        IgnoreFilter filter = EMPTY;
+        Path dir = top;
+        for ( int i = top.getNameCount(); ; i++ )
+        {
+            if ( dir.equals( gitRoot ) )
+            {
+                final File gitDir = GitIndexReader.getGitDir( workTree );
+                if ( gitDir != null )
+                {
+                    filter = filter.load( new File( gitDir, "info/exclude" ) );
+                }
+            }
+            if ( dir.equals( hgRoot ) )
+            {
+                filter = filter.load( new File( hgRepository, HGIGNORE ) );
+            }
+            if ( i >= target.getNameCount() )
+            {
+                return filter;
+            }
+
+            filter = filter.load( dir.resolve( GITIGNORE )
+                                     .toFile() );
+
+            final String name = target.getName( i )
+                                      .toString();
+            filter = filter.descend( name );
+            dir = dir.resolve( name );
+        }
+    }
+
+    /**
+     * Unlike {@link GitIndexReader#findWorkTree(File)}, this doesn't need an index: a fresh clone's ignore rules apply just the same.
+     */
+    private static File findGitRoot( final File directory )
+    {
+        File dir = directory.getAbsoluteFile();
+        while ( dir != null )
+        {
+            if ( GitIndexReader.getGitDir( dir ) != null )
+            {
+                return dir;
+            }
+            dir = dir.getParentFile();
+        }
+
+        return null;
+    }
+
+    private static File findHgRoot( final File directory )
+    {
+        File dir = directory.getAbsoluteFile();
+        while ( dir != null )
+        {
+            if ( new File( dir, ".hg" ).isDirectory() )
+            {
+                return dir;
+            }
+            dir = dir.getParentFile();
+        }
+
+        return null;
+    }
+
+    /**
+     * Add the rules of an ignore file in the current directory, if it exists.
+     */
+    public IgnoreFilter load( final File ignoreFile )
+        throws IOException
+    {
+        if ( !ignoreFile.isFile() )
+        {
+            return this;
+        }
+
+        final IgnoreRules rules = IgnoreRules.read( ignoreFile );
+        final List<Active> next = new ArrayList<Active>( active.size() + 1 );
+        next.addAll( active );
+        next.add( new Active( rules, rules.start(), "" ) );
+        return new IgnoreFilter( next );
+    }
+
+    /**
+     * Whether the child <code>name</code> of the current directory is ignored.
+     */
+    public boolean isIgnored( final String name, final boolean directory )
+    {
+        // deepest ignore file first; the first one with an opinion decides.
+        for ( int i = active.size() - 1; i > -1; i-- )
+        {
+            final Active current = active.get( i );
+            if ( current.rules.hasRegexp() && current.rules.matchesRegexp( current.child( name ) ) )
+            {
+                return true;
+            }
+
+            final int rule = current.rules.match( current.rules.step( current.states, name ), directory );
+            if ( rule > -1 )
+            {
+                return !current.rules.isNegated( rule );
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * The filter for the child directory <code>name</code>. Ignore files that can no longer match anything below it are dropped.
+     */
+    public IgnoreFilter descend( final String name )
+    {
+        if ( active.isEmpty() )
+        {
+            return this;
+        }
+
+        final List<Active> next = new ArrayList<Active>( active.size() );
+        for ( final Active current : active )
+        {
+            final List<IgnoreRules.Node> states = current.rules.step( current.states, name );
+            if ( !states.isEmpty() || current.rules.hasRegexp() )
+            {
+                next.add( new Active( current.rules, states, current.rules.hasRegexp() ? current.child( name ) : "" ) );
+            }
+        }
+
+        return new IgnoreFilter( next );
+    }
+
+    private static final class Active
+    {
+        private final IgnoreRules rules;
+
+        private final List<IgnoreRules.Node> states;
+
+        /**
+         * Path of the current directory relative to the ignore file, for regexps only.
+         */
+        private final String path;
+
+        Active( final IgnoreRules rules, final List<IgnoreRules.Node> states, final String path )
+        {
+            this.rules = rules;
+            this.states = states;
+            this.path = path;
+        }
+
+        String child( final String name )
+        {
+            return path.length() == 0 ? name : path + "/" + name;
+        }
+    }
+
+}
@@ -0,0 +1,576 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The patterns of one ignore file (<code>.gitignore</code>, <code>.git/info/exclude</code> or <code>.hgignore</code>), compiled into a
+ * trie over path segments. Literal segments are looked up by hash, so matching a path costs about one step per segment however many
+ * patterns there are; only segments with wildcards are matched against a (per-segment) regular expression. <code>**</code> becomes a node
+ * that stays active across any number of segments, and a pattern without a slash is rooted under such a node so it matches at any depth.
+ * <p>
+ * Matching is incremental: {@link #start()} gives the states for the directory holding the ignore file, and {@link #step(List, String)}
+ * moves them down by one path segment, so a tree walk carries each directory's states to its children instead of matching whole paths.
+ * Like git, the last matching pattern decides, and a negated pattern (<code>!pattern</code>) re-includes what an earlier one excluded.
+ * Mercurial's regexp patterns can't be put in the trie; they are joined into a single expression, searched in the path relative to the
+ * ignore file.
+ */
+public final class IgnoreRules
+{
+
+    private static final Charset UTF_8 = Charset.forName( "UTF-8" );
+
+    private static final String ANY_DEPTH = "**";
+
+    private final Node root = new Node();
+
+    private final BitSet negated = new BitSet();
+
+    private final List<String> regexps = new ArrayList<String>();
+
+    private Pattern regexp;
+
+    private int ruleCount;
+
+    private IgnoreRules()
+    {
+    }
+
+    /**
+     * Read an ignore file, in Mercurial syntax if it is named <code>.hgignore</code> and in git syntax otherwise.
+     */
+    public static IgnoreRules read( final File file )
+        throws IOException
+    {
+        final List<String> lines = Files.readAllLines( file.toPath(), UTF_8 );
+        return IgnoreFilter.HGIGNORE.equals( file.getName() ) ? parseHgignore( lines ) : parseGitignore( lines );
+    }
+
+    /**
+     * Compile patterns in <code>.gitignore</code> syntax.
+     */
+    public static IgnoreRules parseGitignore( final List<String> lines )
+    {
+        final IgnoreRules rules = new IgnoreRules();
+        for ( final String raw : lines )
+        {
+            if ( raw.startsWith( "#" ) )
+            {
+                continue;
+            }
+
+            String line = raw;
+            while ( line.endsWith( " " ) && !line.endsWith( "\\ " ) )
+            {
+                line = line.substring( 0, line.length() - 1 );
+            }
+
+            boolean negate = false;
+            if ( line.startsWith( "!" ) )
+            {
+                negate = true;
+                line = line.substring( 1 );
+            }
+            else if ( line.startsWith( "\\!" ) || line.startsWith( "\\#" ) )
+            {
+                line = line.substring( 1 );
+            }
+
+            boolean directoryOnly = false;
+            while ( line.endsWith( "/" ) )
+            {
+                directoryOnly = true;
+                line = line.substring( 0, line.length() - 1 );
+            }
+
+            // a slash anywhere but at the end ties the pattern to the directory of the ignore file.
+            final boolean anchored = line.indexOf( '/' ) > -1;
+            if ( line.startsWith( "/" ) )
+            {
+                line = line.substring( 1 );
+            }
+
+            if ( line.length() > 0 )
+            {
+                rules.add( line, anchored, directoryOnly, negate );
+            }
+        }
+
+        rules.compileRegexps();
+        return rules;
+    }
+
+    /**
+     * Compile patterns in <code>.hgignore</code> syntax: <code>syntax: regexp</code> (the default), <code>syntax: glob</code>, and the
+     * <code>re:</code>, <code>glob:</code> and <code>rootglob:</code> prefixes. Glob patterns match at any depth unless given as
+     * <code>rootglob:</code>; regexps are searched anywhere in the path. Other pattern kinds are skipped.
+     */
+    public static IgnoreRules parseHgignore( final List<String> lines )
+    {
+        final IgnoreRules rules = new IgnoreRules();
+        String syntax = "regexp";
+        for ( final String raw : lines )
+        {
+            String line = stripHgComment( raw ).trim();
+            if ( line.length() == 0 )
+            {
+                continue;
+            }
+
+            if ( line.startsWith( "syntax:" ) )
+            {
+                syntax = line.substring( "syntax:".length() )
+                             .trim();
+                continue;
+            }
+
+            String kind = syntax;
+            final int colon = line.indexOf( ':' );
+            if ( colon > 0 )
+            {
+                final String prefix = line.substring( 0, colon );
+                if ( "re".equals( prefix ) || "regexp".equals( prefix ) || "glob".equals( prefix ) || "rootglob".equals( prefix ) )
+                {
+                    kind = prefix;
+                    line = line.substring( colon + 1 );
+                }
+            }
+
+            if ( "re".equals( kind ) || "regexp".equals( kind ) )
+            {
+                rules.regexps.add( line );
+            }
+            else if ( "glob".equals( kind ) || "rootglob".equals( kind ) )
+            {
+                while ( line.startsWith( "/" ) )
+                {
+                    line = line.substring( 1 );
+                }
+                if ( line.length() > 0 )
+                {
+                    rules.add( line, "rootglob".equals( kind ), false, false );
+                }
+            }
+        }
+
+        rules.compileRegexps();
+        return rules;
+    }
+
+    private static String stripHgComment( final String line )
+    {
+        int idx = line.indexOf( '#' );
+        while ( idx > 0 && line.charAt( idx - 1 ) == '\\' )
+        {
+            idx = line.indexOf( '#', idx + 1 );
+        }
+
+        return ( idx < 0 ? line : line.substring( 0, idx ) ).replace( "\\#", "#" );
+    }
+
+    private void add( final String pattern, final boolean anchored, final boolean directoryOnly, final boolean negate )
+    {
+        final List<String> segments = new ArrayList<String>();
+        for ( final String segment : pattern.split( "/" ) )
+        {
+            if ( segment.length() > 0 )
+            {
+                segments.add( segment );
+            }
+        }
+
+        Node node = root;
+        if ( !anchored )
+        {
+            node = node.anyDepth();
+        }
+
+        for ( int i = 0; i < segments.size(); i++ )
+        {
+            final String segment = segments.get( i );
+            if ( ANY_DEPTH.equals( segment ) )
+            {
+                // a trailing ** needs at least one segment: "dir/**" matches what's inside dir, not dir itself.
+                node = i == segments.size() - 1 ? node.anyChildren() : node.anyDepth();
+            }
+            else if ( "*".equals( segment ) )
+            {
+                node = node.anyChild();
+            }
+            else if ( isLiteral( segment ) )
+            {
+                node = node.literal( segment );
+            }
+            else
+            {
+                node = node.glob( segment );
+            }
+        }
+
+        final int rule = ruleCount++;
+        if ( directoryOnly )
+        {
+            node.directoryRule = rule;
+        }
+        else
+        {
+            node.rule = rule;
+        }
+
+        if ( negate )
+        {
+            negated.set( rule );
+        }
+    }
+
+    private void compileRegexps()
+    {
+        if ( regexps.isEmpty() )
+        {
+            return;
+        }
+
+        final StringBuilder sb = new StringBuilder();
+        for ( final String re : regexps )
+        {
+            try
+            {
+                Pattern.compile( re );
+            }
+            catch ( final PatternSyntaxException e )
+            {
+                // a pattern Python accepts but Java doesn't; leave it out rather than fail the build.
+                continue;
+            }
+
+            if ( sb.length() > 0 )
+            {
+                sb.append( '|' );
+            }
+            sb.append( "(?:" )
+              .append( re )
+              .append( ')' );
+        }
+
+        regexp = sb.length() > 0 ? Pattern.compile( sb.toString() ) : null;
+    }
+
+    /**
+     * The states for the directory the ignore file is in.
+     */
+    List<Node> start()
+    {
+        final List<Node> states = new ArrayList<Node>( 2 );
+        addWithClosure( states, root );
+        return states;
+    }
+
+    /**
+     * The states after moving from a directory down into its child <code>name</code>; empty once no pattern can match any more.
+     */
+    List<Node> step( final List<Node> states, final String name )
+    {
+        if ( states.isEmpty() )
+        {
+            return states;
+        }
+
+        final List<Node> next = new ArrayList<Node>( 2 );
+        for ( final Node state : states )
+        {
+            if ( state.loop )
+            {
+                addWithClosure( next, state );
+            }
+            if ( state.literals != null )
+            {
+                addWithClosure( next, state.literals.get( name ) );
+            }
+            if ( state.globs != null )
+            {
+                for ( final Map.Entry<Pattern, Node> glob : state.globs.entrySet() )
+                {
+                    if ( glob.getKey()
+                             .matcher( name )
+                             .matches() )
+                    {
+                        addWithClosure( next, glob.getValue() );
+                    }
+                }
+            }
+            addWithClosure( next, state.anyChild );
+            addWithClosure( next, state.anyChildren );
+        }
+
+        return next.isEmpty() ? Collections.<Node> emptyList() : next;
+    }
+
+    /**
+     * The last rule matching a path that ended in <code>states</code>, or -1 if none does.
+     */
+    int match( final List<Node> states, final boolean directory )
+    {
+        int rule = -1;
+        for ( final Node state : states )
+        {
+            rule = Math.max( rule, state.rule );
+            if ( directory )
+            {
+                rule = Math.max( rule, state.directoryRule );
+            }
+        }
+
+        return rule;
+    }
+
+    boolean isNegated( final int rule )
+    {
+        return negated.get( rule );
+    }
+
+    boolean hasRegexp()
+    {
+        return regexp != null;
+    }
+
+    /**
+     * Whether a Mercurial regexp matches <code>path</code>, relative to the ignore file and using '/'.
+     */
+    boolean matchesRegexp( final String path )
+    {
+        return regexp != null && regexp.matcher( path )
+                                       .find();
+    }
+
+    private static void addWithClosure( final List<Node> states, final Node node )
+    {
+        if ( node == null || states.contains( node ) )
+        {
+            return;
+        }
+
+        states.add( node );
+        addWithClosure( states, node.anyDepth );
+    }
+
+    private static boolean isLiteral( final String segment )
+    {
+        for ( int i = 0; i < segment.length(); i++ )
+        {
+            final char c = segment.charAt( i );
+            if ( c == '*' || c == '?' || c == '[' || c == '\\' )
+            {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * One path segment of a glob (no '/'), as a regular expression.
+     */
+    static String toRegex( final String glob )
+    {
+        final StringBuilder sb = new StringBuilder();
+        for ( int i = 0; i < glob.length(); i++ )
+        {
+            final char c = glob.charAt( i );
+            if ( c == '*' )
+            {
+                sb.append( ".*" );
+            }
+            else if ( c == '?' )
+            {
+                sb.append( '.' );
+            }
+            else if ( c == '\\' && i + 1 < glob.length() )
+            {
+                appendLiteral( sb, glob.charAt( ++i ) );
+            }
+            else if ( c == '[' && bracketEnd( glob, i ) > -1 )
+            {
+                final int end = bracketEnd( glob, i );
+                int j = i + 1;
+                sb.append( '[' );
+                if ( glob.charAt( j ) == '!' || glob.charAt( j ) == '^' )
+                {
+                    sb.append( '^' );
+                    j++;
+                }
+                for ( ; j < end; j++ )
+                {
+                    final char d = glob.charAt( j );
+                    if ( d == '[' || d == ']' || d == '&' || d == '\\' )
+                    {
+                        sb.append( '\\' );
+                    }
+                    sb.append( d );
+                }
+                sb.append( ']' );
+                i = end;
+            }
+            else
+            {
+                appendLiteral( sb, c );
+            }
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Where the bracket expression opening at <code>start</code> closes, or -1 if it doesn't. A ']' right after the opening bracket (and
+     * its negation) is part of the set.
+     */
+    private static int bracketEnd( final String glob, final int start )
+    {
+        int j = start + 1;
+        if ( j < glob.length() && ( glob.charAt( j ) == '!' || glob.charAt( j ) == '^' ) )
+        {
+            j++;
+        }
+        if ( j < glob.length() && glob.charAt( j ) == ']' )
+        {
+            j++;
+        }
+
+        return glob.indexOf( ']', j );
+    }
+
+    private static void appendLiteral( final StringBuilder sb, final char c )
+    {
+        if ( !Character.isLetterOrDigit( c ) && c < 128 )
+        {
+            sb.append( '\\' );
+        }
+        sb.append( c );
+    }
+
+    /**
+     * A point in the trie. The rule fields hold the last rule ending here (for any path, and for directories only), or -1.
+     */
+    static final class Node
+    {
+        private Map<String, Node> literals;
+
+        private Map<Pattern, Node> globs;
+
+        private Map<String, Pattern> globPatterns;
+
+        private Node anyChild;
+
+        private Node anyChildren;
+
+        private Node anyDepth;
+
+        private boolean loop;
+
+        private int rule = -1;
+
+        private int directoryRule = -1;
+
+        Node literal( final String segment )
+        {
+            if ( literals == null )
+            {
+                literals = new HashMap<String, Node>();
+            }
+
+            Node node = literals.get( segment );
+            if ( node == null )
+            {
+                node = new Node();
+                literals.put( segment, node );
+            }
+
+            return node;
+        }
+
+        Node glob( final String segment )
+        {
+            if ( globs == null )
+            {
+                globs = new HashMap<Pattern, Node>();
+                globPatterns = new HashMap<String, Pattern>();
+            }
+
+            Pattern pattern = globPatterns.get( segment );
+            if ( pattern == null )
+            {
+                pattern = Pattern.compile( toRegex( segment ) );
+                globPatterns.put( segment, pattern );
+                globs.put( pattern, new Node() );
+            }
+
+            return globs.get( pattern );
+        }
+
+        /**
+         * Exactly one segment (<code>*</code>).
+         */
+        Node anyChild()
+        {
+            if ( anyChild == null )
+            {
+                anyChild = new Node();
+            }
+
+            return anyChild;
+        }
+
+        /**
+         * One or more segments (a trailing <code>**</code>).
+         */
+        Node anyChildren()
+        {
+            if ( anyChildren == null )
+            {
+                anyChildren = new Node();
+                anyChildren.loop = true;
+            }
+
+            return anyChildren;
+        }
+
+        /**
+         * Zero or more segments (a leading or inner <code>**</code>, or the implied one before a pattern without a slash).
+         */
+        Node anyDepth()
+        {
+            if ( anyDepth == null )
+            {
+                anyDepth = new Node();
+                anyDepth.loop = true;
+            }
+
+            return anyDepth;
+        }
+    }
+
+}
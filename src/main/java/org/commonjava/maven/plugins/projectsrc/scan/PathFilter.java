@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.scan;
+
+import org.codehaus.plexus.util.AbstractScanner;
+import org.codehaus.plexus.util.MatchPatterns;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ant-style include/exclude matching with the same semantics as plexus' DirectoryScanner, with patterns tokenized once up front. Paths use
+ * the platform separator and are relative to the file set directory.
+ */
+public class PathFilter
+{
+
+    private static final String ALL = "**";
+
+    private final MatchPatterns includes;
+
+    private final MatchPatterns excludes;
+
+    private final MatchPatterns prunedDirectories;
+
+    private final boolean includeAll;
+
+    public PathFilter( final List<String> includes, final List<String> excludes, final boolean useDefaultExcludes )
+    {
+        final List<String> inc = normalize( includes );
+        this.includeAll = inc.isEmpty() || inc.contains( ALL );
+        this.includes = MatchPatterns.from( inc.isEmpty() ? Collections.singletonList( ALL ) : inc );
+
+        final List<String> exc = new ArrayList<String>( normalize( excludes ) );
+        if ( useDefaultExcludes )
+        {
+            exc.addAll( normalize( Arrays.asList( AbstractScanner.DEFAULTEXCLUDES ) ) );
+        }
+        this.excludes = MatchPatterns.from( exc );
+
+        // "dir/**" excludes dir and everything in it; such directories needn't be entered at all.
+        final String suffix = File.separator + ALL;
+        final List<String> pruned = new ArrayList<String>();
+        for ( final String pattern : exc )
+        {
+            if ( pattern.endsWith( suffix ) )
+            {
+                pruned.add( pattern.substring( 0, pattern.length() - suffix.length() ) );
+            }
+        }
+        this.prunedDirectories = MatchPatterns.from( pruned );
+    }
+
+    /**
+     * Whether the path is included and not excluded.
+     */
+    public boolean isSelected( final String path )
+    {
+        return includes.matches( path, true ) && !excludes.matches( path, true );
+    }
+
+    /**
+     * Whether nothing below the given directory can possibly be selected, so it needn't be visited at all.
+     */
+    public boolean isPruned( final String directory )
+    {
+        return prunedDirectories.matches( directory, true ) || ( !includeAll && !includes.matchesPatternStart( directory, true ) );
+    }
+
+    /**
+     * Same normalization as plexus' AbstractScanner: platform separators, and a trailing separator means "everything below".
+     */
+    private static List<String> normalize( final List<String> patterns )
+    {
+        final List<String> result = new ArrayList<String>();
+        if ( patterns == null )
+        {
+            return result;
+        }
+
+        for ( final String pattern : patterns )
+        {
+            String normalized = pattern.trim()
+                                       .replace( '/', File.separatorChar )
+                                       .replace( '\\', File.separatorChar );
+            if ( normalized.endsWith( File.separator ) )
+            {
+                normalized += ALL;
+            }
+            result.add( normalized );
+        }
+
+        return result;
+    }
+
+}
@@ -0,0 +1,397 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.scan;
+
+import org.apache.maven.plugin.assembly.model.Assembly;
+import org.apache.maven.plugin.assembly.model.FileSet;
+import org.commonjava.maven.plugins.projectsrc.archive.ArchiveEntry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Resolves the file sets of an assembly descriptor into a flat, sorted list of {@link ArchiveEntry}s, so the source tree can be scanned once
+ * and the result shared by every archive format.
+ */
+public class ProjectSourcesScanner
+{
+
+    /**
+     * Receives entries as the scan finds them.
+     */
+    public interface EntryHandler
+    {
+        void entry( ArchiveEntry entry )
+            throws IOException;
+    }
+
+    private static final Comparator<ArchiveEntry> ENTRY_ORDER = new Comparator<ArchiveEntry>()
+    {
+        @Override
+        public int compare( final ArchiveEntry first, final ArchiveEntry second )
+        {
+            return first.getName()
+                        .compareTo( second.getName() );
+        }
+    };
+
+    private final File basedir;
+
+    private boolean useGitIndex;
+
+    private boolean useIgnoreFiles;
+
+    private TreeSnapshot snapshot;
+
+    public ProjectSourcesScanner( final File basedir )
+    {
+        this.basedir = basedir;
+    }
+
+    /**
+     * When set, file sets inside a git work tree are enumerated from the git index (tracked files only) rather than by walking the file
+     * system. File sets outside a work tree are still walked.
+     */
+    public void setUseGitIndex( final boolean useGitIndex )
+    {
+        this.useGitIndex = useGitIndex;
+    }
+
+    /**
+     * When set, walked file sets also leave out what <code>.gitignore</code> and <code>.hgignore</code> files ignore (see
+     * {@link IgnoreFilter}). File sets enumerated from the git index are unaffected: like git, ignore rules don't apply to tracked files.
+     */
+    public void setUseIgnoreFiles( final boolean useIgnoreFiles )
+    {
+        this.useIgnoreFiles = useIgnoreFiles;
+    }
+
+    /**
+     * Take directory listings from <code>snapshot</code> (already {@link TreeSnapshot#refresh() refreshed}) where it still holds them. File
+     * sets enumerated from the git index don't list directories and are unaffected.
+     */
+    public void setSnapshot( final TreeSnapshot snapshot )
+    {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * @param assembly the (already interpolated) assembly whose file sets should be scanned
+     * @param rootFolder the top-level folder inside the archive, or null if entries should not be nested under one
+     */
+    public List<ArchiveEntry> scan( final Assembly assembly, final String rootFolder )
+        throws IOException
+    {
+        final List<ArchiveEntry> entries = new ArrayList<ArchiveEntry>();
+        scan( assembly, rootFolder, new EntryHandler()
+        {
+            @Override
+            public void entry( final ArchiveEntry entry )
+            {
+                entries.add( entry );
+            }
+        } );
+
+        // each file set is already in order; this merges them when there are several.
+        Collections.sort( entries, ENTRY_ORDER );
+        return entries;
+    }
+
+    /**
+     * Scan without collecting: each entry is handed to <code>handler</code> as soon as it is found. Entries of a file set arrive in name
+     * order; file sets are scanned one after another.
+     */
+    public void scan( final Assembly assembly, final String rootFolder, final EntryHandler handler )
+        throws IOException
+    {
+        final String prefix = getEntryPrefix( rootFolder );
+        if ( prefix.length() > 0 )
+        {
+            handler.entry( ArchiveEntry.directory( prefix, basedir, basedir.lastModified(), ArchiveEntry.DEFAULT_DIRECTORY_MODE ) );
+        }
+
+        for ( final FileSet fileSet : assembly.getFileSets() )
+        {
+            scan( fileSet, prefix, handler );
+        }
+    }
+
+    private void scan( final FileSet fileSet, final String prefix, final EntryHandler handler )
+        throws IOException
+    {
+        final File dir = resolveDirectory( fileSet.getDirectory() );
+        if ( !dir.isDirectory() )
+        {
+            return;
+        }
+
+        String outputDirectory = fileSet.getOutputDirectory() == null ? "" : trimSlashes( fileSet.getOutputDirectory() );
+        if ( outputDirectory.length() > 0 )
+        {
+            outputDirectory += "/";
+        }
+        final String entryPrefix = prefix + outputDirectory;
+
+        final int dirMode = parseMode( fileSet.getDirectoryMode(), ArchiveEntry.DEFAULT_DIRECTORY_MODE );
+        final int fileMode = parseMode( fileSet.getFileMode(), -1 );
+
+        final PathFilter filter =
+            new PathFilter( fileSet.getIncludes(), relativizeExcludes( dir, fileSet.getExcludes() ), fileSet.isUseDefaultExcludes() );
+
+        final File workTree = useGitIndex ? GitIndexReader.findWorkTree( dir ) : null;
+        List<GitIndexReader.Entry> index = null;
+        if ( workTree != null )
+        {
+            try
+            {
+                index = GitIndexReader.read( GitIndexReader.getIndexFile( workTree ) );
+            }
+            catch ( final GitIndexReader.IncompleteIndexException e )
+            {
+                // a split or sparse index doesn't list every tracked file by itself, nor can entries with unknown object ids be read;
+                // walk the directory instead.
+            }
+        }
+
+        // the git index is not in the order entries are archived in, so those entries are collected and sorted first.
+        final List<ArchiveEntry> indexEntries = index == null ? null : new ArrayList<ArchiveEntry>();
+        final EntryHandler target = indexEntries == null ? handler : new EntryHandler()
+        {
+            @Override
+            public void entry( final ArchiveEntry entry )
+            {
+                indexEntries.add( entry );
+            }
+        };
+
+        final SourceTreeWalker.Visitor visitor = new SourceTreeWalker.Visitor()
+        {
+            @Override
+            public void directory( final String path, final File file, final BasicFileAttributes attributes )
+                throws IOException
+            {
+                target.entry( ArchiveEntry.directory( entryPrefix + toEntryPath( path ), file, attributes.lastModifiedTime()
+                                                                                                       .toMillis(),
+                                                    dirMode ) );
+            }
+
+            @Override
+            public void file( final String path, final File file, final BasicFileAttributes attributes )
+                throws IOException
+            {
+                final int mode = fileMode > -1 ? fileMode
+                                : isExecutable( file, attributes ) ? ArchiveEntry.DEFAULT_EXECUTABLE_MODE
+                                                : ArchiveEntry.DEFAULT_FILE_MODE;
+
+                target.entry( ArchiveEntry.file( entryPrefix + toEntryPath( path ), file, attributes.size(),
+                                               attributes.lastModifiedTime()
+                                                         .toMillis(), mode ) );
+            }
+        };
+
+        if ( index != null )
+        {
+            scanGitIndex( workTree, index, dir, filter, visitor );
+
+            Collections.sort( indexEntries, ENTRY_ORDER );
+            for ( final ArchiveEntry entry : indexEntries )
+            {
+                handler.entry( entry );
+            }
+        }
+        else
+        {
+            final SourceTreeWalker walker =
+                new SourceTreeWalker( dir, filter, useIgnoreFiles ? IgnoreFilter.forDirectory( dir ) : null );
+            walker.setSnapshot( snapshot );
+            walker.walk( visitor );
+        }
+    }
+
+    /**
+     * Enumerate the tracked files below <code>dir</code> from the git index. Only the tracked files are matched against the filter, and
+     * ignored trees are never visited. Each selected file is still stat'ed once (as <code>git status</code> does) so sizes and timestamps
+     * reflect the working tree rather than the last index refresh.
+     */
+    private void scanGitIndex( final File workTree, final List<GitIndexReader.Entry> index, final File dir, final PathFilter filter,
+                               final SourceTreeWalker.Visitor visitor )
+        throws IOException
+    {
+        final Path root = dir.getAbsoluteFile()
+                             .toPath()
+                             .normalize();
+        String prefix = toEntryPath( workTree.getAbsoluteFile()
+                                             .toPath()
+                                             .normalize()
+                                             .relativize( root )
+                                             .toString() );
+        if ( prefix.length() > 0 )
+        {
+            prefix += "/";
+        }
+
+        final Set<String> directories = new HashSet<String>();
+        for ( final GitIndexReader.Entry indexEntry : index )
+        {
+            if ( !indexEntry.getPath()
+                            .startsWith( prefix ) )
+            {
+                continue;
+            }
+
+            final String path = indexEntry.getPath()
+                                          .substring( prefix.length() )
+                                          .replace( '/', File.separatorChar );
+            if ( !filter.isSelected( path ) )
+            {
+                continue;
+            }
+
+            final Path file = root.resolve( path );
+            final BasicFileAttributes attributes;
+            try
+            {
+                attributes = Files.readAttributes( file, BasicFileAttributes.class );
+            }
+            catch ( final NoSuchFileException e )
+            {
+                // deleted in the working tree but not yet in the index.
+                continue;
+            }
+
+            if ( !attributes.isRegularFile() )
+            {
+                continue;
+            }
+
+            visitor.file( path, file.toFile(), attributes );
+
+            int idx = path.lastIndexOf( File.separatorChar );
+            while ( idx > 0 && directories.add( path.substring( 0, idx ) ) )
+            {
+                idx = path.lastIndexOf( File.separatorChar, idx - 1 );
+            }
+        }
+
+        for ( final String path : directories )
+        {
+            if ( filter.isSelected( path ) )
+            {
+                final Path directory = root.resolve( path );
+                visitor.directory( path, directory.toFile(), Files.readAttributes( directory, BasicFileAttributes.class ) );
+            }
+        }
+    }
+
+    /**
+     * On POSIX file systems the walk already hands us the permissions; only fall back to another file system call elsewhere.
+     */
+    private static boolean isExecutable( final File file, final BasicFileAttributes attributes )
+    {
+        if ( attributes instanceof PosixFileAttributes )
+        {
+            return ( (PosixFileAttributes) attributes ).permissions()
+                                                       .contains( PosixFilePermission.OWNER_EXECUTE );
+        }
+
+        return file.canExecute();
+    }
+
+    private File resolveDirectory( final String directory )
+    {
+        if ( directory == null || directory.length() == 0 )
+        {
+            return basedir;
+        }
+
+        final File dir = new File( directory );
+        return dir.isAbsolute() ? dir : new File( basedir, directory );
+    }
+
+    /**
+     * The descriptor excludes are interpolated, so expressions like <code>${project.build.directory}</code> turn into absolute paths. Make those
+     * relative to the scanned directory so they match what the scanner sees.
+     */
+    private List<String> relativizeExcludes( final File dir, final List<String> excludes )
+    {
+        final String dirPath = toEntryPath( dir.getAbsolutePath() ) + "/";
+        final List<String> result = new ArrayList<String>( excludes.size() );
+        for ( final String pattern : excludes )
+        {
+            String exclude = toEntryPath( pattern );
+            final int idx = exclude.indexOf( dirPath );
+            if ( idx > -1 )
+            {
+                exclude = exclude.substring( 0, idx ) + exclude.substring( idx + dirPath.length() );
+            }
+            result.add( exclude );
+        }
+
+        return result;
+    }
+
+    private static int parseMode( final String mode, final int defaultMode )
+    {
+        if ( mode == null || mode.trim()
+                                 .length() == 0 )
+        {
+            return defaultMode;
+        }
+
+        return Integer.parseInt( mode.trim(), 8 );
+    }
+
+    private static String toEntryPath( final String path )
+    {
+        return path.replace( File.separatorChar, '/' );
+    }
+
+    /**
+     * The prefix of every entry name for the given root folder: the folder followed by '/', or nothing if there is no root folder.
+     */
+    public static String getEntryPrefix( final String rootFolder )
+    {
+        return rootFolder == null || rootFolder.length() == 0 ? "" : trimSlashes( rootFolder ) + "/";
+    }
+
+    private static String trimSlashes( final String path )
+    {
+        String result = toEntryPath( path );
+        while ( result.startsWith( "/" ) )
+        {
+            result = result.substring( 1 );
+        }
+        while ( result.endsWith( "/" ) )
+        {
+            result = result.substring( 0, result.length() - 1 );
+        }
+
+        return result;
+    }
+
+}
@@ -0,0 +1,227 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.scan;
+
+import org.apache.maven.plugin.assembly.model.Assembly;
+import org.commonjava.maven.plugins.projectsrc.archive.ArchiveEntry;
+import org.commonjava.maven.plugins.projectsrc.archive.ArchiveEntrySource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs a scan on its own thread and hands the entries over through a bounded queue as they are found. When the archive writer falls
+ * behind, the queue fills up and the scan blocks until there is room again, so no more than <code>capacity</code> entries are ever held in
+ * memory at once, however large the source tree is.
+ */
+public class ScanPipeline
+    extends ArchiveEntrySource
+    implements Closeable
+{
+
+    public static final int DEFAULT_CAPACITY = 4096;
+
+    private static final Object END = new Object();
+
+    private final BlockingQueue<Object> queue;
+
+    private final Thread producer;
+
+    private volatile boolean closed;
+
+    private boolean done;
+
+    private long files;
+
+    private long bytes;
+
+    private ScanPipeline( final int capacity, final ProjectSourcesScanner scanner, final Assembly assembly, final String rootFolder )
+    {
+        this.queue = new ArrayBlockingQueue<Object>( capacity );
+        this.producer = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                produce( scanner, assembly, rootFolder );
+            }
+        }, "projectsrc-scan" );
+        this.producer.setDaemon( true );
+    }
+
+    /**
+     * Start scanning <code>assembly</code> in the background.
+     */
+    public static ScanPipeline start( final ProjectSourcesScanner scanner, final Assembly assembly, final String rootFolder,
+                                      final int capacity )
+    {
+        final ScanPipeline pipeline = new ScanPipeline( capacity, scanner, assembly, rootFolder );
+        pipeline.producer.start();
+        return pipeline;
+    }
+
+    @Override
+    public ArchiveEntry next()
+        throws IOException
+    {
+        if ( done )
+        {
+            return null;
+        }
+
+        final Object next;
+        try
+        {
+            next = queue.take();
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+            throw new InterruptedIOException( "Interrupted while waiting for the source tree scan." );
+        }
+
+        if ( next == END )
+        {
+            done = true;
+            return null;
+        }
+        else if ( next instanceof IOException )
+        {
+            done = true;
+            throw new IOException( "Failed to scan project sources: " + ( (IOException) next ).getMessage(), (IOException) next );
+        }
+        else if ( next instanceof Error )
+        {
+            // e.g. a stack overflow in a very deep tree, or out of memory: the same failure as if the scan had run on this thread.
+            done = true;
+            throw (Error) next;
+        }
+
+        final ArchiveEntry entry = (ArchiveEntry) next;
+        if ( !entry.isDirectory() )
+        {
+            files++;
+            bytes += entry.getSize();
+        }
+
+        return entry;
+    }
+
+    /**
+     * Number of files handed out so far.
+     */
+    public long getFiles()
+    {
+        return files;
+    }
+
+    /**
+     * Total size of the files handed out so far.
+     */
+    public long getBytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * Stop the scan if it is still running, e.g. because archiving failed.
+     */
+    @Override
+    public void close()
+    {
+        closed = true;
+        producer.interrupt();
+        queue.clear();
+    }
+
+    private void produce( final ProjectSourcesScanner scanner, final Assembly assembly, final String rootFolder )
+    {
+        try
+        {
+            scanner.scan( assembly, rootFolder, new ProjectSourcesScanner.EntryHandler()
+            {
+                @Override
+                public void entry( final ArchiveEntry entry )
+                    throws IOException
+                {
+                    put( entry );
+                }
+            } );
+            put( END );
+        }
+        catch ( final InterruptedIOException e )
+        {
+            // closed; nobody is listening any more.
+        }
+        catch ( final IOException e )
+        {
+            try
+            {
+                put( e );
+            }
+            catch ( final InterruptedIOException ie )
+            {
+                // closed; nobody is listening any more.
+            }
+        }
+        catch ( final RuntimeException e )
+        {
+            try
+            {
+                put( new IOException( e.toString(), e ) );
+            }
+            catch ( final InterruptedIOException ie )
+            {
+                // closed; nobody is listening any more.
+            }
+        }
+        catch ( final Error e )
+        {
+            // whatever kills this thread must still reach the consumer, or it waits for the next entry forever.
+            try
+            {
+                put( e );
+            }
+            catch ( final InterruptedIOException ie )
+            {
+                // closed; nobody is listening any more.
+            }
+        }
+    }
+
+    private void put( final Object item )
+        throws InterruptedIOException
+    {
+        if ( closed )
+        {
+            throw new InterruptedIOException( "Scan pipeline closed." );
+        }
+
+        try
+        {
+            queue.put( item );
+        }
+        catch ( final InterruptedException e )
+        {
+            throw new InterruptedIOException( "Scan pipeline closed." );
+        }
+    }
+
+}
@@ -0,0 +1,260 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.scan;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Walks a directory depth-first, applying a {@link PathFilter} the way plexus' DirectoryScanner applies its patterns. Unlike the scanner, a
+ * directory that is excluded together with everything below it (<code>**&#47;target/**</code>, <code>**&#47;.git/**</code>, ...) is pruned as
+ * soon as it's reached, so nothing inside it is ever listed or stat'ed. File attributes come from the walk itself, so no further stat calls
+ * are needed later.
+ * <p>
+ * The children of each directory are visited in name order (a directory sorting as its name plus '/'), so the walk produces paths in the
+ * same order as sorting all of them, without ever holding more than one directory listing per level in memory. Symbolic links are followed;
+ * a link back to a directory being walked is skipped.
+ * <p>
+ * Given an {@link IgnoreFilter}, paths ignored by <code>.gitignore</code> (or <code>.hgignore</code>) rules are left out as well, and an
+ * ignored directory is pruned like an excluded one. Each directory's own <code>.gitignore</code> is picked up from its listing.
+ */
+public class SourceTreeWalker
+{
+
+    /**
+     * Receives the included directories and files, with paths relative to the walked directory (using the platform separator).
+     */
+    public interface Visitor
+    {
+        void directory( String path, File file, BasicFileAttributes attributes )
+            throws IOException;
+
+        void file( String path, File file, BasicFileAttributes attributes )
+            throws IOException;
+    }
+
+    private static final Comparator<Child> CHILD_ORDER = new Comparator<Child>()
+    {
+        @Override
+        public int compare( final Child first, final Child second )
+        {
+            return first.sortKey.compareTo( second.sortKey );
+        }
+    };
+
+    private final File directory;
+
+    private final PathFilter filter;
+
+    private final IgnoreFilter ignoreFilter;
+
+    private Class<? extends BasicFileAttributes> attributeType;
+
+    private TreeSnapshot snapshot;
+
+    public SourceTreeWalker( final File directory, final PathFilter filter )
+    {
+        this( directory, filter, null );
+    }
+
+    /**
+     * @param ignoreFilter the ignore rules in effect in <code>directory</code> (see {@link IgnoreFilter#forDirectory(File)}), or null to
+     *            disregard ignore files
+     */
+    public SourceTreeWalker( final File directory, final PathFilter filter, final IgnoreFilter ignoreFilter )
+    {
+        this.directory = directory;
+        this.filter = filter;
+        this.ignoreFilter = ignoreFilter;
+    }
+
+    /**
+     * Take directory listings from <code>snapshot</code> instead of the file system where it still holds them.
+     */
+    public void setSnapshot( final TreeSnapshot snapshot )
+    {
+        this.snapshot = snapshot;
+    }
+
+    public void walk( final Visitor visitor )
+        throws IOException
+    {
+        final Path root = directory.toPath();
+        attributeType = root.getFileSystem()
+                            .supportedFileAttributeViews()
+                            .contains( "posix" ) ? PosixFileAttributes.class : BasicFileAttributes.class;
+
+        walk( root, "", list( root, Files.readAttributes( root, attributeType ) ), new ArrayList<Object>(), ignoreFilter, visitor );
+    }
+
+    /**
+     * The listing of <code>dir</code>, whose attributes as seen in its parent's listing are <code>attributes</code>. A snapshot reads the
+     * directory's attributes again whenever it lists the directory again: creating or deleting a file in a directory changes the
+     * directory's modification time, but is reported to the directory's own watch, not to its parent's.
+     */
+    private Listing list( final Path dir, final BasicFileAttributes attributes )
+        throws IOException
+    {
+        return snapshot == null ? new Listing( attributes, list( dir, attributeType ) ) : snapshot.list( dir, attributeType );
+    }
+
+    private void walk( final Path dir, final String dirPath, final Listing listing, final List<Object> ancestors,
+                       final IgnoreFilter inheritedIgnores, final Visitor visitor )
+        throws IOException
+    {
+        final BasicFileAttributes dirAttributes = listing.attributes;
+        final Object key = dirAttributes.fileKey() != null ? dirAttributes.fileKey() : dir.toRealPath();
+        if ( ancestors.contains( key ) )
+        {
+            // a link back up the tree; following it would never end.
+            return;
+        }
+
+        ancestors.add( key );
+        try
+        {
+            final List<Child> children = listing.children;
+            IgnoreFilter ignores = inheritedIgnores;
+            if ( ignores != null )
+            {
+                for ( final Child child : children )
+                {
+                    if ( IgnoreFilter.GITIGNORE.equals( child.name ) && child.attributes.isRegularFile() )
+                    {
+                        ignores = ignores.load( child.path.toFile() );
+                    }
+                }
+            }
+
+            for ( final Child child : children )
+            {
+                final String path = dirPath.length() == 0 ? child.name : dirPath + File.separator + child.name;
+                if ( ignores != null && ignores.isIgnored( child.name, child.attributes.isDirectory() ) )
+                {
+                    continue;
+                }
+
+                if ( child.attributes.isDirectory() )
+                {
+                    if ( filter.isPruned( path ) )
+                    {
+                        continue;
+                    }
+
+                    final Listing childListing = list( child.path, child.attributes );
+                    if ( filter.isSelected( path ) )
+                    {
+                        visitor.directory( path, child.path.toFile(), childListing.attributes );
+                    }
+
+                    final IgnoreFilter childIgnores = ignores == null ? null : ignores.descend( child.name );
+                    walk( child.path, path, childListing, ancestors, childIgnores, visitor );
+                }
+                // dangling links and special files have nothing to archive.
+                else if ( child.attributes.isRegularFile() && filter.isSelected( path ) )
+                {
+                    visitor.file( path, child.path.toFile(), child.attributes );
+                }
+            }
+        }
+        finally
+        {
+            ancestors.remove( ancestors.size() - 1 );
+        }
+    }
+
+    /**
+     * The children of <code>dir</code> with their attributes, in walk order.
+     */
+    static List<Child> list( final Path dir, final Class<? extends BasicFileAttributes> attributeType )
+        throws IOException
+    {
+        final List<Child> children = new ArrayList<Child>();
+        final DirectoryStream<Path> stream = Files.newDirectoryStream( dir );
+        try
+        {
+            for ( final Path path : stream )
+            {
+                final BasicFileAttributes attributes;
+                try
+                {
+                    attributes = Files.readAttributes( path, attributeType );
+                }
+                catch ( final NoSuchFileException e )
+                {
+                    // a dangling link, or deleted since the listing.
+                    continue;
+                }
+
+                children.add( new Child( path, attributes ) );
+            }
+        }
+        finally
+        {
+            stream.close();
+        }
+
+        Collections.sort( children, CHILD_ORDER );
+        return children;
+    }
+
+    /**
+     * A directory's own attributes and its children.
+     */
+    static final class Listing
+    {
+        private final BasicFileAttributes attributes;
+
+        private final List<Child> children;
+
+        Listing( final BasicFileAttributes attributes, final List<Child> children )
+        {
+            this.attributes = attributes;
+            this.children = children;
+        }
+    }
+
+    static final class Child
+    {
+        private final Path path;
+
+        private final String name;
+
+        private final String sortKey;
+
+        private final BasicFileAttributes attributes;
+
+        Child( final Path path, final BasicFileAttributes attributes )
+        {
+            this.path = path;
+            this.name = path.getFileName()
+                            .toString();
+            this.sortKey = attributes.isDirectory() ? name + "/" : name;
+            this.attributes = attributes;
+        }
+    }
+
+}
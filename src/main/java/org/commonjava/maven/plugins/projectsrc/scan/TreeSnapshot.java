@@ -0,0 +1,381 @@
+/**
+ * Copyright (C) 2012 Red Hat, Inc. (jdcasey@commonjava.org)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.commonjava.maven.plugins.projectsrc.scan;
+
+import org.commonjava.maven.plugins.projectsrc.incremental.SourceFingerprint;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Directory listings (the directory's own attributes, and the names and attributes of every child) and file content digests kept in memory
+ * between builds run by the same JVM, as under the Maven daemon, where the plugin's classes stay loaded. Every directory listed is watched
+ * through a {@link WatchService}; a change in a directory drops its listing, and the deletion or creation of a directory drops everything
+ * cached below it. A later walk then lists again only the directories that changed, and file contents are only hashed again for files that
+ * changed.
+ * <p>
+ * The watch service reports changes asynchronously. Before each use, {@link #refresh()} touches a file in a directory of its own and waits
+ * for that change to come through: events are delivered in order, so by then every change made before the build started has been seen.
+ * If it doesn't come through, or events were lost, everything is dropped.
+ * <p>
+ * Only file systems with native change notification are supported; where the JDK falls back to polling (which notices changes seconds
+ * late), {@link #getShared()} gives null and every walk lists the file system.
+ */
+public final class TreeSnapshot
+    implements SourceFingerprint.DigestCache
+{
+
+    /**
+     * Past this many cached directories, everything is dropped and the snapshot starts over, to bound memory and watches.
+     */
+    private static final int MAX_DIRECTORIES = 200000;
+
+    private static final long BARRIER_TIMEOUT_MILLIS = 2000;
+
+    private static TreeSnapshot shared;
+
+    private static boolean unsupported;
+
+    private final WatchService watcher;
+
+    private final Path barrierFile;
+
+    private final WatchKey barrierKey;
+
+    private final Map<Path, SourceTreeWalker.Listing> listings = new HashMap<Path, SourceTreeWalker.Listing>();
+
+    private final Map<WatchKey, Path> watched = new HashMap<WatchKey, Path>();
+
+    private final Map<Path, WatchKey> keys = new HashMap<Path, WatchKey>();
+
+    private final Map<Path, Digest> digests = new HashMap<Path, Digest>();
+
+    private long barrierCount;
+
+    private long listed;
+
+    private long reused;
+
+    private TreeSnapshot( final WatchService watcher, final Path barrierDir )
+        throws IOException
+    {
+        this.watcher = watcher;
+        this.barrierFile = barrierDir.resolve( "barrier" );
+        this.barrierKey =
+            barrierDir.register( watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY );
+    }
+
+    /**
+     * The snapshot shared by every build in this JVM, created on first use; null if the platform can't watch directories natively.
+     */
+    public static synchronized TreeSnapshot getShared()
+        throws IOException
+    {
+        if ( shared != null || unsupported )
+        {
+            return shared;
+        }
+
+        final WatchService watcher = FileSystems.getDefault()
+                                                .newWatchService();
+        if ( watcher.getClass()
+                    .getName()
+                    .endsWith( "PollingWatchService" ) )
+        {
+            watcher.close();
+            unsupported = true;
+            return null;
+        }
+
+        final Path barrierDir = Files.createTempDirectory( "projectsrc-snapshot" );
+        barrierDir.toFile()
+                  .deleteOnExit();
+        barrierDir.resolve( "barrier" )
+                  .toFile()
+                  .deleteOnExit();
+        shared = new TreeSnapshot( watcher, barrierDir );
+        return shared;
+    }
+
+    /**
+     * Apply every change made so far. Call once before each walk.
+     */
+    public synchronized void refresh()
+        throws IOException
+    {
+        listed = 0;
+        reused = 0;
+        Files.write( barrierFile, Long.toString( ++barrierCount )
+                                      .getBytes( "UTF-8" ) );
+
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( BARRIER_TIMEOUT_MILLIS );
+        boolean barrierSeen = false;
+        try
+        {
+            while ( true )
+            {
+                final WatchKey key;
+                if ( barrierSeen )
+                {
+                    key = watcher.poll();
+                }
+                else
+                {
+                    final long remaining = deadline - System.nanoTime();
+                    key = remaining > 0 ? watcher.poll( remaining, TimeUnit.NANOSECONDS ) : null;
+                }
+
+                if ( key == null )
+                {
+                    if ( !barrierSeen )
+                    {
+                        // can't tell what was missed.
+                        clear();
+                    }
+                    return;
+                }
+
+                if ( key == barrierKey )
+                {
+                    key.pollEvents();
+                    key.reset();
+                    barrierSeen = true;
+                    continue;
+                }
+
+                process( key );
+            }
+        }
+        catch ( final InterruptedException e )
+        {
+            Thread.currentThread()
+                  .interrupt();
+            clear();
+        }
+        catch ( final ClosedWatchServiceException e )
+        {
+            clear();
+        }
+    }
+
+    private void process( final WatchKey key )
+    {
+        final Path dir = watched.get( key );
+        final List<WatchEvent<?>> events = key.pollEvents();
+        if ( dir == null )
+        {
+            key.cancel();
+            return;
+        }
+
+        listings.remove( dir );
+        for ( final WatchEvent<?> event : events )
+        {
+            if ( event.kind() == StandardWatchEventKinds.OVERFLOW )
+            {
+                clear();
+                return;
+            }
+
+            final Path child = dir.resolve( (Path) event.context() );
+            digests.remove( child );
+            // a subdirectory's own attributes (mode, times) changed: they are kept with its listing.
+            listings.remove( child );
+            if ( event.kind() != StandardWatchEventKinds.ENTRY_MODIFY )
+            {
+                // a directory deleted, created or renamed: whatever was cached under that path is stale.
+                dropBelow( child );
+            }
+        }
+
+        if ( !key.reset() )
+        {
+            // the directory itself is gone.
+            dropBelow( dir );
+        }
+    }
+
+    /**
+     * The attributes and children of <code>dir</code>, from the snapshot if nothing changed there since they were last listed. The
+     * attributes are read along with the children, since a change to the children changes them too.
+     */
+    synchronized SourceTreeWalker.Listing list( final Path dir, final Class<? extends BasicFileAttributes> attributeType )
+        throws IOException
+    {
+        final SourceTreeWalker.Listing cached = listings.get( dir );
+        if ( cached != null )
+        {
+            reused++;
+            return cached;
+        }
+
+        listed++;
+        if ( listings.size() >= MAX_DIRECTORIES )
+        {
+            clear();
+        }
+
+        // watch first, so a change made while listing is not missed.
+        final boolean watched = watch( dir );
+        final SourceTreeWalker.Listing listing =
+            new SourceTreeWalker.Listing( Files.readAttributes( dir, attributeType ), SourceTreeWalker.list( dir, attributeType ) );
+        if ( watched )
+        {
+            listings.put( dir, listing );
+        }
+
+        return listing;
+    }
+
+    private boolean watch( final Path dir )
+    {
+        if ( keys.containsKey( dir ) )
+        {
+            return true;
+        }
+
+        final WatchKey key;
+        try
+        {
+            key = dir.register( watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                                StandardWatchEventKinds.ENTRY_MODIFY );
+        }
+        catch ( final IOException e )
+        {
+            // e.g. out of inotify watches; this directory is simply listed every time.
+            return false;
+        }
+
+        final Path existing = watched.get( key );
+        if ( existing != null && !existing.equals( dir ) )
+        {
+            // the same directory reached through a link: its events go to the other path.
+            return false;
+        }
+
+        watched.put( key, dir );
+        keys.put( dir, key );
+        return true;
+    }
+
+    private void dropBelow( final Path path )
+    {
+        for ( final Iterator<Map.Entry<Path, WatchKey>> it = keys.entrySet()
+                                                                .iterator(); it.hasNext(); )
+        {
+            final Map.Entry<Path, WatchKey> entry = it.next();
+            if ( entry.getKey()
+                      .startsWith( path ) )
+            {
+                entry.getValue()
+                     .cancel();
+                watched.remove( entry.getValue() );
+                listings.remove( entry.getKey() );
+                it.remove();
+            }
+        }
+
+        for ( final Iterator<Path> it = digests.keySet()
+                                               .iterator(); it.hasNext(); )
+        {
+            if ( it.next()
+                   .startsWith( path ) )
+            {
+                it.remove();
+            }
+        }
+    }
+
+    private void clear()
+    {
+        for ( final WatchKey key : watched.keySet() )
+        {
+            key.cancel();
+        }
+        watched.clear();
+        keys.clear();
+        listings.clear();
+        digests.clear();
+    }
+
+    /**
+     * Number of directories listed from the file system since the last {@link #refresh()}.
+     */
+    public synchronized long getListed()
+    {
+        return listed;
+    }
+
+    /**
+     * Number of directory listings taken from the snapshot since the last {@link #refresh()}.
+     */
+    public synchronized long getReused()
+    {
+        return reused;
+    }
+
+    /**
+     * A digest is only kept for files in watched directories, where a change is sure to drop it.
+     */
+    @Override
+    public synchronized byte[] get( final File file, final long size, final long lastModified )
+    {
+        final Digest digest = digests.get( file.toPath() );
+        return digest != null && digest.size == size && digest.lastModified == lastModified ? digest.value : null;
+    }
+
+    @Override
+    public synchronized void put( final File file, final long size, final long lastModified, final byte[] value )
+    {
+        final Path path = file.toPath();
+        if ( listings.containsKey( path.getParent() ) )
+        {
+            digests.put( path, new Digest( size, lastModified, value ) );
+        }
+    }
+
+    private static final class Digest
+    {
+        private final long size;
+
+        private final long lastModified;
+
+        private final byte[] value;
+
+        Digest( final long size, final long lastModified, final byte[] value )
+        {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.value = value;
+        }
+    }
+
+}